@@ -0,0 +1,47 @@
+package campsite.reservation.benchmark;
+
+import campsite.reservation.CampsiteReservationApp;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Starts the application on an in-memory database, for benchmarks
+ */
+final class BenchmarkContext {
+
+    private BenchmarkContext() {
+    }
+
+    /**
+     * Starts the application context without its web layer
+     * @param properties properties overriding the application properties, in "key=value" format
+     * @return the started application context
+     */
+    static ConfigurableApplicationContext start(String... properties) {
+        return start(WebApplicationType.NONE, properties);
+    }
+
+    /**
+     * Starts the application context
+     * @param webApplicationType type of the web layer, SERVLET to serve the REST API on a random port
+     * @param properties properties overriding the application properties, in "key=value" format
+     * @return the started application context
+     */
+    static ConfigurableApplicationContext start(WebApplicationType webApplicationType, String... properties) {
+        List<String> args = new ArrayList<>(Arrays.asList(
+                "--spring.jpa.show-sql=false",
+                "--logging.level.root=WARN",
+                "--spring.main.banner-mode=off"));
+        for (String property : properties) {
+            args.add("--" + property);
+        }
+        return new SpringApplicationBuilder(CampsiteReservationApp.class)
+                .web(webApplicationType)
+                .run(args.toArray(new String[0]));
+    }
+}
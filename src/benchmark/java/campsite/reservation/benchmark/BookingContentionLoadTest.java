@@ -0,0 +1,122 @@
+package campsite.reservation.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Load test of the REST API measuring the latency of the available dates requests
+ * while booking clients keep creating and cancelling reservations on the same days.
+ *
+ * The server runs with few request threads: with the SYNC execution mode, bookings waiting for the day locks
+ * hold the request threads and the available dates requests queue behind them; with the ASYNC execution mode,
+ * bookings wait on the booking executor and the available dates latency stays flat.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BookingContentionLoadTest {
+
+    private static final int NB_SERVER_THREADS = 8;
+    private static final Pattern RESERVATION_ID = Pattern.compile("\"reservationId\":\"([^\"]+)\"");
+
+    @Param({"SYNC", "ASYNC"})
+    String executionMode;
+
+    @Param({"32"})
+    int nbBookingClients;
+
+    private ConfigurableApplicationContext context;
+    private HttpClient client;
+    private String baseUrl;
+    private HttpRequest availableDatesRequest;
+    private final List<Thread> bookingClients = new ArrayList<>();
+    private volatile boolean running;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start(WebApplicationType.SERVLET,
+                "server.port=0",
+                "server.tomcat.max-threads=" + NB_SERVER_THREADS,
+                "request.executionMode=" + executionMode,
+                "logging.level.campsite.reservation.rest=OFF",
+                "logging.level.org.apache.catalina=OFF");
+        baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/reservations";
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        availableDatesRequest = HttpRequest.newBuilder(URI.create(baseUrl + "/availableDates?nbDays=31")).build();
+
+        running = true;
+        for (int i = 0; i < nbBookingClients; i++) {
+            Thread bookingClient = new Thread(this::book, "booking-client-" + i);
+            bookingClient.setDaemon(true);
+            bookingClient.start();
+            bookingClients.add(bookingClient);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        running = false;
+        for (Thread bookingClient : bookingClients) {
+            bookingClient.join();
+        }
+        context.close();
+    }
+
+    @Benchmark
+    public String getAvailableDates() throws IOException, InterruptedException {
+        return client.send(availableDatesRequest, HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    // Creates and cancels reservations on the same days as the other booking clients
+    private void book() {
+        String reservation = String.format("{\"checkInDate\":\"%s\",\"checkOutDate\":\"%s\","
+                        + "\"fullName\":\"John Doe\",\"email\":\"john.doe@email.com\"}",
+                LocalDate.now().plusDays(1), LocalDate.now().plusDays(4));
+        HttpRequest createRequest = HttpRequest.newBuilder(URI.create(baseUrl))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(reservation))
+                .build();
+        while (running) {
+            try {
+                Matcher reservationId = RESERVATION_ID.matcher(
+                        client.send(createRequest, HttpResponse.BodyHandlers.ofString()).body());
+                if (reservationId.find()) {
+                    client.send(HttpRequest.newBuilder(URI.create(baseUrl + "/" + reservationId.group(1))).DELETE().build(),
+                            HttpResponse.BodyHandlers.discarding());
+                }
+            } catch (IOException e) {
+                // rejected booking, try again
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package campsite.reservation.benchmark;
+
+import campsite.reservation.data.entity.Reservation;
+import campsite.reservation.service.ReservationService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmarks the {@link ReservationService} operations.
+ * Run with the JMH -t option to measure the booking operations under several threads:
+ * - the contended benchmarks make every thread book the same days of the same site
+ * - the uncontended benchmarks give each thread its own site
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReservationServiceBenchmark {
+
+    // Upper bound of the number of benchmark threads, one site per thread
+    private static final int NB_SITES = 64;
+
+    @State(Scope.Benchmark)
+    public static class ServiceState {
+
+        @Param({"LOCKS", "CAS"})
+        String commitMode;
+
+        @Param({"SYNC", "WRITE_BEHIND"})
+        String persistenceMode;
+
+        ConfigurableApplicationContext context;
+        ReservationService reservationService;
+        final AtomicInteger nextSiteId = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            context = BenchmarkContext.start("campsite.nbSites=" + NB_SITES,
+                    "request.commitMode=" + commitMode,
+                    "persistence.mode=" + persistenceMode);
+            reservationService = context.getBean(ReservationService.class);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            context.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        int siteId;
+        LocalDate checkInDate;
+        LocalDate checkOutDate;
+        String updatedReservationId;
+        Reservation[] updates;
+        int nextUpdate;
+
+        @Setup(Level.Trial)
+        public void setUp(ServiceState serviceState) {
+            siteId = serviceState.nextSiteId.getAndIncrement() % NB_SITES;
+            checkInDate = LocalDate.now().plusDays(2);
+            checkOutDate = LocalDate.now().plusDays(4);
+
+            // reservation moved back and forth between two stays by the update benchmark
+            updatedReservationId = serviceState.reservationService.createReservation(
+                    newReservation(siteId, LocalDate.now().plusDays(10), LocalDate.now().plusDays(11)));
+            updates = new Reservation[]{
+                    newUpdate(LocalDate.now().plusDays(11), LocalDate.now().plusDays(12)),
+                    newUpdate(LocalDate.now().plusDays(10), LocalDate.now().plusDays(11))
+            };
+        }
+    }
+
+    @Benchmark
+    public List<LocalDate> getAvailableDates(ServiceState serviceState) {
+        return serviceState.reservationService.getAvailableDates(Reservation.MAX_NB_DAYS_IN_MONTH);
+    }
+
+    @Benchmark
+    public List<LocalDate> getAvailableDatesOfSite(ServiceState serviceState, ThreadState threadState) {
+        return serviceState.reservationService.getAvailableDates(threadState.siteId, Reservation.MAX_NB_DAYS_IN_MONTH);
+    }
+
+    @Benchmark
+    public void createAndCancelReservationUncontended(ServiceState serviceState, ThreadState threadState, Blackhole blackhole) {
+        createAndCancel(serviceState, threadState.siteId, threadState, blackhole);
+    }
+
+    @Benchmark
+    public void createAndCancelReservationContended(ServiceState serviceState, ThreadState threadState, Blackhole blackhole) {
+        createAndCancel(serviceState, Reservation.DEFAULT_SITE_ID, threadState, blackhole);
+    }
+
+    @Benchmark
+    public Reservation updateReservation(ServiceState serviceState, ThreadState threadState) {
+        Reservation update = threadState.updates[threadState.nextUpdate++ & 1];
+        return serviceState.reservationService.updateReservation(threadState.updatedReservationId, update);
+    }
+
+    private static void createAndCancel(ServiceState serviceState, int siteId, ThreadState threadState, Blackhole blackhole) {
+        ReservationService reservationService = serviceState.reservationService;
+        try {
+            String reservationId = reservationService.createReservation(
+                    newReservation(siteId, threadState.checkInDate, threadState.checkOutDate));
+            blackhole.consume(reservationService.cancelReservation(reservationId));
+        } catch (IllegalArgumentException e) {
+            blackhole.consume(e); // days already reserved by another thread
+        }
+    }
+
+    private static Reservation newReservation(int siteId, LocalDate checkInDate, LocalDate checkOutDate) {
+        return Reservation.of(siteId, checkInDate, checkOutDate, "john.doe@email.com", "JohnDoe", null);
+    }
+
+    private static Reservation newUpdate(LocalDate checkInDate, LocalDate checkOutDate) {
+        Reservation update = new Reservation();
+        update.setCheckInDate(checkInDate);
+        update.setCheckOutDate(checkOutDate);
+        return update;
+    }
+}
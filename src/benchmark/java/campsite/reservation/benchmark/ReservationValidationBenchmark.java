@@ -0,0 +1,52 @@
+package campsite.reservation.benchmark;
+
+import campsite.reservation.data.entity.Reservation;
+import campsite.reservation.service.DateResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the validation performed when obtaining a {@link Reservation} instance
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReservationValidationBenchmark {
+
+    private final DateResolver dateResolver = new DateResolver();
+    private final LocalDate checkInDate = LocalDate.now().plusDays(2);
+    private final LocalDate checkOutDate = LocalDate.now().plusDays(4);
+    private final Reservation reservation = Reservation.of(checkInDate, checkOutDate, "john.doe@email.com", "JohnDoe", dateResolver);
+
+    @Benchmark
+    public Reservation newReservation() {
+        return Reservation.of(checkInDate, checkOutDate, "john.doe@email.com", "JohnDoe", dateResolver);
+    }
+
+    @Benchmark
+    public Reservation copyReservation() {
+        return Reservation.of(reservation, dateResolver);
+    }
+
+    @Benchmark
+    public Object invalidReservation() {
+        try {
+            return Reservation.of(checkOutDate, checkInDate, "john.doe@email.com", "JohnDoe", dateResolver);
+        } catch (IllegalArgumentException e) {
+            return e;
+        }
+    }
+}
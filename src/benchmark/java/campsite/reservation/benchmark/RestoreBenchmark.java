@@ -0,0 +1,86 @@
+package campsite.reservation.benchmark;
+
+import campsite.reservation.service.ReservationService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the startup of the {@link ReservationService} without a journal, which restores the reserved days
+ * from a reservations table holding years of past reservations and a few reservations within the booking horizon.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@State(Scope.Benchmark)
+public class RestoreBenchmark {
+
+    private static final int NB_SITES = 64;
+    private static final int NB_PAST_DAYS = 10 * 365; // days covered by the past reservations
+    private static final int FUTURE_RESERVATION_EVERY = 100; // one reservation out of 100 is within the horizon
+    private static final int CANCELLED_RESERVATION_EVERY = 10; // one reservation out of 10 is cancelled
+    private static final int INSERT_BATCH_SIZE = 10_000;
+
+    @Param({"1000000", "3000000"})
+    int nbReservations;
+
+    private ConfigurableApplicationContext context;
+    private ReservationService reservationService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start("campsite.nbSites=" + NB_SITES, "journal.enabled=false");
+        reservationService = context.getBean(ReservationService.class);
+        insertReservations(context.getBean(JdbcTemplate.class));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void restart() throws InterruptedException {
+        reservationService.stop();
+        reservationService.init();
+    }
+
+    private void insertReservations(JdbcTemplate jdbcTemplate) {
+        LocalDate today = LocalDate.now();
+        List<Object[]> batch = new ArrayList<>(INSERT_BATCH_SIZE);
+        for (int i = 0; i < nbReservations; i++) {
+            LocalDate checkInDate = i % FUTURE_RESERVATION_EVERY == 0
+                    ? today.plusDays(1 + i / FUTURE_RESERVATION_EVERY % 28)
+                    : today.minusDays(4 + i % NB_PAST_DAYS);
+            batch.add(new Object[]{UUID.randomUUID().toString(), i % NB_SITES, Date.valueOf(checkInDate),
+                    Date.valueOf(checkInDate.plusDays(1 + i % 3)), "john.doe@email.com", "JohnDoe",
+                    i % CANCELLED_RESERVATION_EVERY == 0});
+            if (batch.size() == INSERT_BATCH_SIZE || i == nbReservations - 1) {
+                jdbcTemplate.batchUpdate("INSERT INTO reservation (id, site_id, check_in_date, check_out_date, email,"
+                        + " full_name, is_cancelled, version) VALUES (?, ?, ?, ?, ?, ?, ?, 0)", batch);
+                batch.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package campsite.reservation.benchmark;
+
+import campsite.reservation.concurrent.StripedLocks;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmarks acquiring a range of striped locks around an empty critical section.
+ * Run with the JMH -t option to measure contention between threads.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StripedLocksBenchmark {
+
+    private static final int NB_LOCKS = 64 * 31;
+    private static final int NB_DAYS_PER_SITE = 31;
+
+    @State(Scope.Benchmark)
+    public static class LocksState {
+
+        @Param({"1", "4"})
+        int nbDaysLocked;
+
+        StripedLocks stripedLocks;
+        final AtomicInteger nextSiteId = new AtomicInteger();
+
+        @Setup
+        public void setUp() {
+            stripedLocks = new StripedLocks(NB_LOCKS, 5);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        int firstLockIndex;
+
+        @Setup
+        public void setUp(LocksState locksState) {
+            firstLockIndex = (locksState.nextSiteId.getAndIncrement() * NB_DAYS_PER_SITE) % NB_LOCKS;
+        }
+    }
+
+    @Benchmark
+    public void runSyncUncontended(LocksState locksState, ThreadState threadState, Blackhole blackhole) {
+        int start = threadState.firstLockIndex;
+        locksState.stripedLocks.runSync(start, start + locksState.nbDaysLocked - 1, () -> blackhole.consume(start));
+    }
+
+    @Benchmark
+    public void runSyncContended(LocksState locksState, Blackhole blackhole) {
+        locksState.stripedLocks.runSync(0, locksState.nbDaysLocked - 1, () -> blackhole.consume(0));
+    }
+}
@@ -6,11 +6,13 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.ApplicationContext;
 import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 
 @SpringBootApplication
+@EnableScheduling
 public class CampsiteReservationApp {
     private final static Logger logger = LoggerFactory.getLogger(CampsiteReservationApp.class.getName());
 
@@ -29,6 +31,12 @@ public class CampsiteReservationApp {
         return "The application exposes a REST API that provides the following capabilities:\n" +
                 "- Provide a list of available dates for a given range of days (with the default being 30 days) to make a reservation\n" +
                 " curl -X \"GET\" " + endpointPrefix + "/reservations/availableDates?nbDays=<number-of-days>\n" +
+                "- Stream the available dates and their changes with Server-Sent Events\n" +
+                " curl -N -X \"GET\" " + endpointPrefix + "/reservations/availability/stream\n" +
+                "- Provide a list of the sites available for every day of a stay\n" +
+                " curl -X \"GET\" \"" + endpointPrefix + "/reservations/availableSites?checkInDate=<check-in-date>&checkOutDate=<check-out-date>\"\n" +
+                "- Provide the check-in dates of the stays of a number of nights where a site is available\n" +
+                " curl -X \"GET\" \"" + endpointPrefix + "/reservations/availableStays?length=<number-of-nights>&from=<from-date>&to=<to-date>\"\n" +
                 "- Make a reservation, providing the check-in date, check-out date, email and full name of the reserving person:\n" +
                 "curl -X \"POST\" \"" + endpointPrefix + "/reservations\"\n" +
                 "   -i\n" +
@@ -39,6 +47,14 @@ public class CampsiteReservationApp {
                 "    \"fullName\": \"John Doe\",\n" +
                 "    \"email\": \"john.doe@email.com\"\n" +
                 "   }'\n" +
+                "- Make a batch of reservations, all or nothing (default) or per item, posting a JSON array of reservations:\n" +
+                "curl -X \"POST\" \"" + endpointPrefix + "/reservations/batch?mode=<ALL_OR_NOTHING|PER_ITEM>\"\n" +
+                "- Hold the days of a reservation while it is being paid, posting a reservation, then confirm or cancel the hold:\n" +
+                "curl -X \"POST\" \"" + endpointPrefix + "/reservations/holds\"\n" +
+                "curl -X \"POST\" \"" + endpointPrefix + "/reservations/holds/<hold-id>/confirm\"\n" +
+                "curl -X \"DELETE\" \"" + endpointPrefix + "/reservations/holds/<hold-id>\"\n" +
+                "- Get a reservation using the reservation id:\n" +
+                "curl -X \"GET\" \"" + endpointPrefix + "/reservations/<reservation-id>\"\n" +
                 "- Modify a reservation using the reservation id:\n" +
                 "curl -X \"PUT\" \"" + endpointPrefix + "/reservations/<reservation-id>\"\n" +
                 "   -i\n" +
@@ -51,6 +67,15 @@ public class CampsiteReservationApp {
                 "   }'\n" +
                 "- Cancel a reservation:\n" +
                 "curl -X \"DELETE\" " + endpointPrefix + "/reservations/<reservation-id>\n" +
+                "- List the reservations by check-in date or by email, a page at a time, or export them:\n" +
+                "curl -X \"GET\" \"" + endpointPrefix + "/admin/reservations?from=<from-date>&to=<to-date>&cursor=<next-cursor>\"\n" +
+                "curl -X \"GET\" \"" + endpointPrefix + "/admin/reservations/byEmail?email=<email>&cursor=<next-cursor>\"\n" +
+                "curl -X \"GET\" \"" + endpointPrefix + "/admin/reservations/export?from=<from-date>&to=<to-date>\"\n" +
+                "- With sharding enabled, get or change the instances sharing the sites:\n" +
+                "curl -X \"GET\" \"" + endpointPrefix + "/admin/shards\"\n" +
+                "curl -X \"PUT\" \"" + endpointPrefix + "/admin/shards/members\" -H 'Content-Type: application/json' -d '[\"<base-url>\", ...]'\n" +
+                "- On a read replica, get the replication lag:\n" +
+                "curl -X \"GET\" \"" + endpointPrefix + "/replication/status\"\n" +
                 "All responses from the API are in JSON format.";
     }
 
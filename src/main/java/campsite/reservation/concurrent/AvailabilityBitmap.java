@@ -0,0 +1,382 @@
+package campsite.reservation.concurrent;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongConsumer;
+
+/**
+ * Bit-packed availability of days, stored in a circular buffer keyed by epoch day.
+ * The bit of a day is set when the day is reserved and cleared when the day is free.
+ * Days are packed 64 per long word so that checking or marking the days of a stay
+ * takes a couple of mask operations instead of a loop over every day.
+ *
+ * The bit of an epoch day is at position {@code epochDay mod capacity}, so a day keeps the same bit
+ * as time goes by and moving to the next day does not move any bit. The bitmap holds any range of
+ * at most {@link #capacity()} consecutive days: callers only access days within such a range
+ * and clear the days entering it.
+ *
+ * Words are updated with compare-and-set so that writers updating different days
+ * can safely update days sharing the same word.
+ */
+public class AvailabilityBitmap {
+
+    private static final int WORD_SHIFT = 6;
+    private static final int WORD_SIZE = 1 << WORD_SHIFT;
+    private static final long ALL_BITS = -1L;
+
+    private final int capacity;
+    private final AtomicLongArray words;
+
+    /**
+     * Builds an AvailabilityBitmap where all days are free
+     * @param nbDays minimum number of consecutive days held by the bitmap
+     */
+    public AvailabilityBitmap(int nbDays) {
+        this.capacity = getCapacity(nbDays);
+        this.words = new AtomicLongArray(capacity >>> WORD_SHIFT);
+    }
+
+    /**
+     * Returns the number of consecutive days held by a bitmap: a power of two number of words
+     * @param nbDays minimum number of consecutive days held by the bitmap
+     * @return the number of consecutive days held by the bitmap
+     */
+    public static int getCapacity(int nbDays) {
+        if (nbDays <= 0) {
+            throw new IllegalArgumentException("A bitmap must hold at least one day");
+        }
+        int nbWords = ((nbDays - 1) >>> WORD_SHIFT) + 1;
+        return Integer.highestOneBit((nbWords << 1) - 1) << WORD_SHIFT;
+    }
+
+    /**
+     * @return number of consecutive days held by the bitmap
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @param day epoch day
+     * @return true if the day is reserved, false otherwise
+     */
+    public boolean isReserved(long day) {
+        int position = position(day);
+        return (words.get(position >>> WORD_SHIFT) & (1L << position)) != 0;
+    }
+
+    /**
+     * Returns the first reserved day between two days
+     * @param firstDay epoch day of the first day to check
+     * @param lastDay epoch day of the last day to check (inclusive)
+     * @return the epoch day of the first reserved day, or -1 if all the days are free
+     */
+    public long firstReserved(long firstDay, long lastDay) {
+        return firstReservedExcept(firstDay, lastDay, -1, -1);
+    }
+
+    /**
+     * Returns the first reserved day between two days, skipping the days of a range owned by the caller
+     * @param firstDay epoch day of the first day to check
+     * @param lastDay epoch day of the last day to check (inclusive)
+     * @param ownedFirstDay epoch day of the first day owned, or -1 if none
+     * @param ownedLastDay epoch day of the last day owned (inclusive), or -1 if none
+     * @return the epoch day of the first reserved day, or -1 if all the days are free or owned
+     */
+    public long firstReservedExcept(long firstDay, long lastDay, long ownedFirstDay, long ownedLastDay) {
+        checkRange(firstDay, lastDay);
+        for (long day = firstDay; day <= lastDay; day += chunkLength(day, lastDay)) {
+            long mask = chunkMask(day, lastDay, firstDay, lastDay) & ~chunkMask(day, lastDay, ownedFirstDay, ownedLastDay);
+            long reserved = words.get(position(day) >>> WORD_SHIFT) & mask;
+            if (reserved != 0) {
+                return dayOfBit(day, Long.numberOfTrailingZeros(reserved));
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Marks the days between two days as reserved
+     * @param firstDay epoch day of the first day to mark
+     * @param lastDay epoch day of the last day to mark (inclusive)
+     */
+    public void set(long firstDay, long lastDay) {
+        checkRange(firstDay, lastDay);
+        for (long day = firstDay; day <= lastDay; day += chunkLength(day, lastDay)) {
+            long mask = chunkMask(day, lastDay, firstDay, lastDay);
+            words.getAndUpdate(position(day) >>> WORD_SHIFT, word -> word | mask);
+        }
+    }
+
+    /**
+     * Marks the days between two days as free
+     * @param firstDay epoch day of the first day to mark
+     * @param lastDay epoch day of the last day to mark (inclusive)
+     */
+    public void clear(long firstDay, long lastDay) {
+        clearExcept(firstDay, lastDay, -1, -1);
+    }
+
+    /**
+     * Atomically claims the days between two days.
+     * A stay that fits in one word is claimed with a single compare-and-set.
+     * A stay spanning several words is claimed word by word,
+     * and the words already claimed are released if a later word conflicts.
+     * @param firstDay epoch day of the first day to claim
+     * @param lastDay epoch day of the last day to claim (inclusive)
+     * @return -1 if all the days were claimed, or the epoch day of the first day already reserved
+     */
+    public long tryClaim(long firstDay, long lastDay) {
+        return tryClaimExcept(firstDay, lastDay, -1, -1);
+    }
+
+    /**
+     * Atomically claims the days between two days, skipping the days of a range already owned
+     * by the caller (e.g. the current days of a reservation being updated)
+     * @param firstDay epoch day of the first day to claim
+     * @param lastDay epoch day of the last day to claim (inclusive)
+     * @param ownedFirstDay epoch day of the first day already owned, or -1 if none
+     * @param ownedLastDay epoch day of the last day already owned (inclusive), or -1 if none
+     * @return -1 if all the days were claimed, or the epoch day of the first day already reserved
+     */
+    public long tryClaimExcept(long firstDay, long lastDay, long ownedFirstDay, long ownedLastDay) {
+        checkRange(firstDay, lastDay);
+        for (long day = firstDay; day <= lastDay; day += chunkLength(day, lastDay)) {
+            long mask = chunkMask(day, lastDay, firstDay, lastDay) & ~chunkMask(day, lastDay, ownedFirstDay, ownedLastDay);
+            if (mask == 0) {
+                continue; // days already owned
+            }
+            int w = position(day) >>> WORD_SHIFT;
+            long word;
+            do {
+                word = words.get(w);
+                if ((word & mask) != 0) {
+                    if (day > firstDay) {
+                        clearExcept(firstDay, day - 1, ownedFirstDay, ownedLastDay);
+                    }
+                    return dayOfBit(day, Long.numberOfTrailingZeros(word & mask));
+                }
+            } while (!words.compareAndSet(w, word, word | mask));
+        }
+        return -1;
+    }
+
+    /**
+     * Marks the days between two days as free, keeping the days of another range reserved
+     * @param firstDay epoch day of the first day to mark
+     * @param lastDay epoch day of the last day to mark (inclusive)
+     * @param keptFirstDay epoch day of the first day to keep reserved, or -1 if none
+     * @param keptLastDay epoch day of the last day to keep reserved (inclusive), or -1 if none
+     */
+    public void clearExcept(long firstDay, long lastDay, long keptFirstDay, long keptLastDay) {
+        checkRange(firstDay, lastDay);
+        for (long day = firstDay; day <= lastDay; day += chunkLength(day, lastDay)) {
+            long mask = chunkMask(day, lastDay, firstDay, lastDay) & ~chunkMask(day, lastDay, keptFirstDay, keptLastDay);
+            words.getAndUpdate(position(day) >>> WORD_SHIFT, word -> word & ~mask);
+        }
+    }
+
+    /**
+     * Marks all the days as free.
+     * Must not run concurrently with writers.
+     */
+    public void clearAll() {
+        for (int w = 0; w < words.length(); w++) {
+            words.set(w, 0L);
+        }
+    }
+
+    /**
+     * Calls an action with every free day between two days.
+     * Only free days are visited: reserved days are skipped a word at a time.
+     * @param firstDay epoch day of the first day to check
+     * @param lastDay epoch day of the last day to check (inclusive)
+     * @param action action receiving the epoch days of the free days in increasing order
+     */
+    public void forEachFree(long firstDay, long lastDay, LongConsumer action) {
+        if (firstDay > lastDay) {
+            return;
+        }
+        checkRange(firstDay, lastDay);
+        for (long day = firstDay; day <= lastDay; day += chunkLength(day, lastDay)) {
+            long free = ~words.get(position(day) >>> WORD_SHIFT) & chunkMask(day, lastDay, firstDay, lastDay);
+            while (free != 0) {
+                action.accept(dayOfBit(day, Long.numberOfTrailingZeros(free)));
+                free &= free - 1; // clear lowest set bit
+            }
+        }
+    }
+
+    /**
+     * Calls an action with every day starting a run of free days, such as the check-in day of a free stay.
+     * The run starts are computed a word at a time with shift-and-AND: AND-ing the free days with themselves
+     * shifted by the length of the runs already found doubles the run length, so that runs of k days
+     * take log(k) passes over the words instead of checking k days for every start.
+     * @param firstStartDay epoch day of the first start to check
+     * @param lastStartDay epoch day of the last start to check (inclusive)
+     * @param runLength number of consecutive free days of a run
+     * @param action action receiving the epoch days of the run starts in increasing order
+     */
+    public void forEachFreeRunStart(long firstStartDay, long lastStartDay, int runLength, LongConsumer action) {
+        int nbStarts = (int) (lastStartDay - firstStartDay + 1);
+        long[] starts = retainRunStarts(freeWords(firstStartDay, nbStarts + runLength - 1), runLength);
+        forEachSetBit(starts, firstStartDay, nbStarts, action);
+    }
+
+    /**
+     * Returns the free days of a range, bit i of the words being set when day {@code firstDay + i} is free
+     * @param firstDay epoch day of the first day
+     * @param nbDays number of days
+     * @return the words holding the free days, the bits after the last day being cleared
+     */
+    long[] freeWords(long firstDay, int nbDays) {
+        long lastDay = firstDay + nbDays - 1;
+        checkRange(firstDay, lastDay);
+        long[] free = new long[((nbDays - 1) >>> WORD_SHIFT) + 1];
+        for (long day = firstDay; day <= lastDay; day += chunkLength(day, lastDay)) {
+            long bits = (~words.get(position(day) >>> WORD_SHIFT) & chunkMask(day, lastDay, firstDay, lastDay))
+                    >>> (day & (WORD_SIZE - 1));
+            int offset = (int) (day - firstDay);
+            int w = offset >>> WORD_SHIFT;
+            int bit = offset & (WORD_SIZE - 1);
+            free[w] |= bits << bit;
+            if (bit != 0 && w + 1 < free.length) {
+                free[w + 1] |= bits >>> (WORD_SIZE - bit);
+            }
+        }
+        return free;
+    }
+
+    /**
+     * Keeps in words of free days only the days starting a run of free days
+     * @param free words where bit i is set when day i is free, updated in place
+     * @param runLength number of consecutive free days of a run
+     * @return the words where bit i is set when days i to i + runLength - 1 are free
+     */
+    static long[] retainRunStarts(long[] free, int runLength) {
+        if (runLength <= 0) {
+            throw new IllegalArgumentException("A run must have at least one day");
+        }
+        // bit i is set when the days i to i + covered - 1 are free
+        for (int covered = 1; covered < runLength; ) {
+            int shift = Math.min(covered, runLength - covered);
+            int wordShift = shift >>> WORD_SHIFT;
+            int bitShift = shift & (WORD_SIZE - 1);
+            for (int w = 0; w < free.length; w++) {
+                long low = w + wordShift < free.length ? free[w + wordShift] : 0L;
+                long high = w + wordShift + 1 < free.length ? free[w + wordShift + 1] : 0L;
+                free[w] &= bitShift == 0 ? low : (low >>> bitShift) | (high << (WORD_SIZE - bitShift));
+            }
+            covered += shift;
+        }
+        return free;
+    }
+
+    /**
+     * Calls an action with the day of every set bit of words, bit i holding day {@code firstDay + i}
+     * @param words words to visit
+     * @param firstDay epoch day of the first bit
+     * @param nbDays number of bits to visit
+     * @param action action receiving the epoch days in increasing order
+     */
+    static void forEachSetBit(long[] words, long firstDay, int nbDays, LongConsumer action) {
+        for (int w = 0; w < words.length && (w << WORD_SHIFT) < nbDays; w++) {
+            long bits = words[w];
+            while (bits != 0) {
+                int offset = (w << WORD_SHIFT) + Long.numberOfTrailingZeros(bits);
+                if (offset >= nbDays) {
+                    break;
+                }
+                action.accept(firstDay + offset);
+                bits &= bits - 1; // clear lowest set bit
+            }
+        }
+    }
+
+    /**
+     * Calls an action with every range of consecutive reserved days between two days, in increasing order
+     * @param firstDay epoch day of the first day to check
+     * @param lastDay epoch day of the last day to check (inclusive)
+     * @param action action receiving the epoch days of the first and last (inclusive) day of each range
+     */
+    public void forEachReservedRange(long firstDay, long lastDay, DayRangeConsumer action) {
+        checkRange(firstDay, lastDay);
+        long rangeFirstDay = -1;
+        long rangeLastDay = -1;
+        for (long day = firstDay; day <= lastDay; day += chunkLength(day, lastDay)) {
+            long reserved = words.get(position(day) >>> WORD_SHIFT) & chunkMask(day, lastDay, firstDay, lastDay);
+            while (reserved != 0) {
+                long reservedDay = dayOfBit(day, Long.numberOfTrailingZeros(reserved));
+                if (rangeFirstDay < 0 || reservedDay != rangeLastDay + 1) {
+                    if (rangeFirstDay >= 0) {
+                        action.accept(rangeFirstDay, rangeLastDay);
+                    }
+                    rangeFirstDay = reservedDay;
+                }
+                rangeLastDay = reservedDay;
+                reserved &= reserved - 1; // clear lowest set bit
+            }
+        }
+        if (rangeFirstDay >= 0) {
+            action.accept(rangeFirstDay, rangeLastDay);
+        }
+    }
+
+    /**
+     * Returns a copy of consecutive days as a boolean array, where true means reserved
+     * @param firstDay epoch day of the first day to copy
+     * @param nbDays number of days to copy
+     * @return the copy of the days
+     */
+    public boolean[] toBooleanArray(long firstDay, int nbDays) {
+        boolean[] reserved = new boolean[nbDays];
+        for (int i = 0; i < nbDays; i++) {
+            reserved[i] = isReserved(firstDay + i);
+        }
+        return reserved;
+    }
+
+    private int position(long day) {
+        return (int) (day & (capacity - 1));
+    }
+
+    /**
+     * Returns the number of days from a day to the end of its word or to the last day of a range
+     */
+    private static int chunkLength(long day, long lastDay) {
+        int bit = (int) (day & (WORD_SIZE - 1));
+        return (int) Math.min(WORD_SIZE - bit, lastDay - day + 1);
+    }
+
+    /**
+     * Returns the epoch day of a bit of the word holding a day
+     */
+    private static long dayOfBit(long day, int bit) {
+        return day + bit - (day & (WORD_SIZE - 1));
+    }
+
+    /**
+     * Returns the bits of the chunk starting at a day that fall between two days,
+     * or 0 if the range is empty or does not overlap the chunk.
+     * A chunk covers the days from a day to the end of its word or to the last day of a range.
+     */
+    private static long chunkMask(long chunkFirstDay, long lastDay, long rangeFirstDay, long rangeLastDay) {
+        long chunkLastDay = chunkFirstDay + chunkLength(chunkFirstDay, lastDay) - 1;
+        long from = Math.max(chunkFirstDay, rangeFirstDay);
+        long to = Math.min(chunkLastDay, rangeLastDay);
+        if (rangeFirstDay < 0 || from > to) {
+            return 0L;
+        }
+        int fromBit = (int) (from & (WORD_SIZE - 1));
+        int toBit = (int) (to & (WORD_SIZE - 1));
+        return (ALL_BITS << fromBit) & (ALL_BITS >>> (WORD_SIZE - 1 - toBit));
+    }
+
+    private void checkRange(long firstDay, long lastDay) {
+        if (firstDay > lastDay) {
+            throw new IllegalArgumentException("First day " + firstDay + " is after last day " + lastDay);
+        }
+        if (lastDay - firstDay >= capacity) {
+            throw new IllegalArgumentException("Cannot access more than " + capacity + " consecutive days");
+        }
+    }
+}
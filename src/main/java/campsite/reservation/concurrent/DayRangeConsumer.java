@@ -0,0 +1,14 @@
+package campsite.reservation.concurrent;
+
+/**
+ * Operation accepting a range of days
+ */
+@FunctionalInterface
+public interface DayRangeConsumer {
+
+    /**
+     * @param firstDay epoch day of the first day of the range
+     * @param lastDay epoch day of the last day of the range (inclusive)
+     */
+    void accept(long firstDay, long lastDay);
+}
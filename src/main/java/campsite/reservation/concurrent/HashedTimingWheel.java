@@ -0,0 +1,168 @@
+package campsite.reservation.concurrent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashed timing wheel, runs tasks after a delay with a precision of one tick.
+ *
+ * Timeouts are hashed by their deadline tick into a circular array of buckets. Every tick, a single ticker thread
+ * moves the newly scheduled timeouts to their bucket, then expires the timeouts of the current bucket that are due.
+ * Scheduling and cancelling a timeout are O(1) and never wait for the ticker thread, and a tick only visits
+ * the timeouts of one bucket, so that thousands of timeouts are expired without a thread or a sorted queue per timeout.
+ */
+public class HashedTimingWheel {
+    private final static Logger logger = LoggerFactory.getLogger(HashedTimingWheel.class.getName());
+
+    private final long tickNanos;
+    private final List<Timeout>[] buckets; // only accessed by the ticker thread
+    private final int mask;
+    private final Queue<Timeout> scheduledTimeouts = new ConcurrentLinkedQueue<>(); // timeouts not yet in a bucket
+    private final AtomicInteger nbPendingTimeouts = new AtomicInteger();
+
+    private volatile long currentTick; // only written by the ticker thread
+    private ScheduledExecutorService ticker;
+
+    /**
+     * Builds a HashedTimingWheel, ticking once started
+     * @param tickDuration duration of a tick
+     * @param unit unit of the tick duration
+     * @param nbBuckets number of buckets, rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    public HashedTimingWheel(long tickDuration, TimeUnit unit, int nbBuckets) {
+        if (tickDuration <= 0 || nbBuckets <= 0) {
+            throw new IllegalArgumentException("The tick duration and the number of buckets must be positive");
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        int capacity = Integer.highestOneBit(nbBuckets - 1) << 1;
+        this.buckets = new List[Math.max(capacity, 1)];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new ArrayList<>();
+        }
+        this.mask = buckets.length - 1;
+    }
+
+    /**
+     * Starts the ticker thread
+     */
+    public synchronized void start() {
+        if (ticker != null) {
+            return;
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "timing-wheel");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::tick, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops the ticker thread, the pending timeouts are not run
+     */
+    public synchronized void stop() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+    }
+
+    /**
+     * Schedules a task to run after a delay
+     * @param task task to run, on the ticker thread, so it must not block
+     * @param delay delay after which to run the task, rounded up to a number of ticks
+     * @param unit unit of the delay
+     * @return the timeout of the task, allowing to cancel it
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        long nbTicks = Math.max((unit.toNanos(delay) + tickNanos - 1) / tickNanos, 1);
+        Timeout timeout = new Timeout(task, currentTick + nbTicks);
+        nbPendingTimeouts.incrementAndGet();
+        scheduledTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * @return the number of timeouts that were neither run nor cancelled
+     */
+    public int nbPendingTimeouts() {
+        return nbPendingTimeouts.get();
+    }
+
+    /**
+     * Moves the wheel by one tick, running the tasks of the timeouts that are due.
+     * Called by the ticker thread, or by tests to move the wheel without waiting.
+     */
+    void tick() {
+        long tick = currentTick;
+        for (Timeout timeout = scheduledTimeouts.poll(); timeout != null; timeout = scheduledTimeouts.poll()) {
+            if (timeout.state.get() == Timeout.PENDING) {
+                // a timeout scheduled while the current bucket was expired is due now
+                buckets[(int) (Math.max(timeout.deadlineTick, tick) & mask)].add(timeout);
+            }
+        }
+
+        List<Timeout> bucket = buckets[(int) (tick & mask)];
+        for (int i = bucket.size() - 1; i >= 0; i--) {
+            Timeout timeout = bucket.get(i);
+            if (timeout.deadlineTick <= tick || timeout.state.get() != Timeout.PENDING) {
+                bucket.set(i, bucket.get(bucket.size() - 1));
+                bucket.remove(bucket.size() - 1);
+                timeout.expire();
+            }
+        }
+        currentTick = tick + 1;
+    }
+
+    /**
+     * Handle of a task scheduled on the wheel
+     */
+    public class Timeout {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadlineTick;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        private Timeout(Runnable task, long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * Cancels the timeout, its task will not run. The timeout is removed from its bucket by the next visit of the bucket.
+         * @return true if the timeout was cancelled, false if its task already ran or it was already cancelled
+         */
+        public boolean cancel() {
+            if (state.compareAndSet(PENDING, CANCELLED)) {
+                nbPendingTimeouts.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        private void expire() {
+            if (!state.compareAndSet(PENDING, EXPIRED)) {
+                return; // cancelled
+            }
+            nbPendingTimeouts.decrementAndGet();
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.error("Failed to run expired timeout task", e);
+            }
+        }
+    }
+}
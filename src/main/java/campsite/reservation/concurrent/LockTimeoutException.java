@@ -0,0 +1,11 @@
+package campsite.reservation.concurrent;
+
+/**
+ * Thrown when the locks of a subset of a striped lock could not be acquired before the deadline
+ */
+public class LockTimeoutException extends RuntimeException {
+
+    public LockTimeoutException(String message) {
+        super(message);
+    }
+}
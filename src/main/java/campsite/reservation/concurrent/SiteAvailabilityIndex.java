@@ -0,0 +1,239 @@
+package campsite.reservation.concurrent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.function.LongConsumer;
+
+/**
+ * Availability of every site of the campsite over a rolling window of reservable days.
+ * Each site has its own {@link AvailabilityBitmap}, so writers on different sites never touch the same word.
+ * Park-wide queries combine the site bitmaps a word at a time instead of scanning reservations.
+ *
+ * Days are keyed by epoch day, so moving the window to the next day does not move any reserved day:
+ * the days entering the window are cleared, then the first day of the window is published with a single
+ * volatile write. Readers read the first day once per operation and see a consistent window.
+ * The bitmaps hold at least a word of days more than the window, so that the days that just left the window
+ * never share a bit with the days of the window: a writer still working on a day that left the window,
+ * with the first day it read before a rollover, cannot reserve a day that entered it.
+ *
+ * When the sites are shared between several instances, park-wide queries only consider the sites served
+ * by this instance, as the days of the other sites are only known by the instances serving them.
+ */
+public class SiteAvailabilityIndex {
+
+    private static final long NOT_ANCHORED = Long.MIN_VALUE;
+
+    private final AvailabilityBitmap[] sites;
+    private final int nbDays;
+    private final int capacity;
+
+    private volatile long firstEpochDay = NOT_ANCHORED; // first reservable day of the window
+
+    private volatile boolean[] servedSites; // sites considered by the park-wide queries, replaced as a whole
+
+    /**
+     * Builds a SiteAvailabilityIndex where all days of all sites are free.
+     * The window is anchored by the first call to {@link #rollOverTo(long)}.
+     * @param nbSites number of sites of the campsite
+     * @param nbDays number of reservable days of the window
+     */
+    public SiteAvailabilityIndex(int nbSites, int nbDays) {
+        if (nbSites <= 0) {
+            throw new IllegalArgumentException("The campsite must have at least one site");
+        }
+        this.nbDays = nbDays;
+        this.sites = new AvailabilityBitmap[nbSites];
+        for (int i = 0; i < nbSites; i++) {
+            sites[i] = new AvailabilityBitmap(nbDays + Long.SIZE);
+        }
+        this.capacity = sites[0].capacity();
+        this.servedSites = new boolean[nbSites];
+        Arrays.fill(servedSites, true);
+    }
+
+    /**
+     * @return number of sites of the campsite
+     */
+    public int nbSites() {
+        return sites.length;
+    }
+
+    /**
+     * @return number of reservable days of the window
+     */
+    public int nbDays() {
+        return nbDays;
+    }
+
+    /**
+     * @return number of consecutive days held by the bitmap of each site
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return epoch day of the first reservable day of the window
+     * @throws IllegalStateException if the window was not anchored yet
+     */
+    public long getFirstEpochDay() throws IllegalStateException {
+        long firstDay = firstEpochDay;
+        if (firstDay == NOT_ANCHORED) {
+            throw new IllegalStateException("The availability window is not anchored to a day");
+        }
+        return firstDay;
+    }
+
+    /**
+     * Moves the window forward so that it starts at a day, clearing the days entering the window.
+     * Catches up any number of missed days at once: when the window moves by more than the days
+     * held by the bitmaps, every day is cleared. Does nothing if the window already starts at or after the day.
+     * @param newFirstEpochDay epoch day of the first reservable day
+     * @return true if the window moved, false otherwise
+     */
+    public boolean rollOverTo(long newFirstEpochDay) {
+        if (newFirstEpochDay <= firstEpochDay) {
+            return false;
+        }
+        synchronized (this) {
+            long oldFirstEpochDay = firstEpochDay;
+            if (newFirstEpochDay <= oldFirstEpochDay) {
+                return false; // rolled over by a concurrent caller
+            }
+            if (oldFirstEpochDay != NOT_ANCHORED) {
+                long newLastEpochDay = newFirstEpochDay + nbDays - 1;
+                long enteringFirstDay = Math.max(oldFirstEpochDay + nbDays, newLastEpochDay - capacity + 1);
+                // Entering days are cleared before the window is published: no writer can claim them yet
+                for (AvailabilityBitmap site : sites) {
+                    site.clear(enteringFirstDay, newLastEpochDay);
+                }
+            }
+            firstEpochDay = newFirstEpochDay;
+            return true;
+        }
+    }
+
+    /**
+     * Sets the sites considered by the park-wide queries, all the sites being served by default
+     * @param isServed predicate telling whether a site identifier is served by this instance
+     */
+    public void setServedSites(IntPredicate isServed) {
+        boolean[] newServedSites = new boolean[sites.length];
+        for (int siteId = 0; siteId < sites.length; siteId++) {
+            newServedSites[siteId] = isServed.test(siteId);
+        }
+        servedSites = newServedSites;
+    }
+
+    /**
+     * Returns the availability bitmap of a site
+     * @param siteId site identifier
+     * @return the availability bitmap of the site
+     * @throws IllegalArgumentException if the site does not exist
+     */
+    public AvailabilityBitmap site(int siteId) throws IllegalArgumentException {
+        checkSite(siteId);
+        return sites[siteId];
+    }
+
+    /**
+     * Checks that a site exists
+     * @param siteId site identifier
+     * @throws IllegalArgumentException if the site does not exist
+     */
+    public void checkSite(int siteId) throws IllegalArgumentException {
+        if (siteId < 0 || siteId >= sites.length) {
+            throw new IllegalArgumentException("Unknown site " + siteId);
+        }
+    }
+
+    /**
+     * Returns the sites that are free for every day between two days
+     * @param firstDay epoch day of the first day
+     * @param lastDay epoch day of the last day (inclusive)
+     * @return the identifiers of the free sites in increasing order
+     */
+    public List<Integer> getFreeSites(long firstDay, long lastDay) {
+        boolean[] served = servedSites;
+        List<Integer> freeSites = new ArrayList<>();
+        for (int siteId = 0; siteId < sites.length; siteId++) {
+            if (served[siteId] && sites[siteId].firstReserved(firstDay, lastDay) < 0) {
+                freeSites.add(siteId);
+            }
+        }
+        return freeSites;
+    }
+
+    /**
+     * Returns the days of the window where at least one site is free, as words of free days
+     * OR-ed over the sites, so that the days can be encoded without visiting them one by one
+     * @param firstDay epoch day of the first day of the window
+     * @param nbDaysToCheck number of days to check, starting at the first day of the window
+     * @return the words where bit i is set when day {@code firstDay + i} is free on at least one site
+     */
+    public long[] getDaysWithFreeSite(long firstDay, int nbDaysToCheck) {
+        int nbDaysChecked = Math.min(nbDaysToCheck, nbDays);
+        if (nbDaysChecked <= 0) {
+            return new long[0];
+        }
+        long[] free = null;
+        boolean[] served = servedSites;
+        for (int siteId = 0; siteId < sites.length; siteId++) {
+            if (!served[siteId]) {
+                continue;
+            }
+            long[] siteFree = sites[siteId].freeWords(firstDay, nbDaysChecked);
+            if (free == null) {
+                free = siteFree;
+            } else {
+                for (int w = 0; w < siteFree.length; w++) {
+                    free[w] |= siteFree[w];
+                }
+            }
+        }
+        return free != null ? free : new long[(nbDaysChecked + Long.SIZE - 1) / Long.SIZE];
+    }
+
+    /**
+     * Calls an action with every day starting a run of free days on at least one site.
+     * The run starts of each site are computed with shift-and-AND, then OR-ed word by word.
+     * @param firstStartDay epoch day of the first start to check
+     * @param lastStartDay epoch day of the last start to check (inclusive)
+     * @param runLength number of consecutive free days of a run
+     * @param action action receiving the epoch days of the run starts in increasing order
+     */
+    public void forEachFreeRunStartOnAnySite(long firstStartDay, long lastStartDay, int runLength, LongConsumer action) {
+        int nbStarts = (int) (lastStartDay - firstStartDay + 1);
+        long[] startsOnAnySite = null;
+        boolean[] served = servedSites;
+        for (int siteId = 0; siteId < sites.length; siteId++) {
+            if (!served[siteId]) {
+                continue;
+            }
+            long[] starts = AvailabilityBitmap.retainRunStarts(
+                    sites[siteId].freeWords(firstStartDay, nbStarts + runLength - 1), runLength);
+            if (startsOnAnySite == null) {
+                startsOnAnySite = starts;
+            } else {
+                for (int w = 0; w < starts.length; w++) {
+                    startsOnAnySite[w] |= starts[w];
+                }
+            }
+        }
+        if (startsOnAnySite != null) {
+            AvailabilityBitmap.forEachSetBit(startsOnAnySite, firstStartDay, nbStarts, action);
+        }
+    }
+
+    /**
+     * Marks all the days of all sites as free and detaches the window from its first day
+     */
+    public synchronized void clearAll() {
+        for (AvailabilityBitmap site : sites) {
+            site.clearAll();
+        }
+        firstEpochDay = NOT_ANCHORED;
+    }
+}
@@ -3,62 +3,221 @@ package campsite.reservation.concurrent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
 
 /**
- * Striped lock, allows synchronizing on a subset of locks
+ * Striped lock, allows synchronizing on a subset of locks.
+ *
+ * The locks of a subset are acquired iteratively in increasing index order, so that concurrent callers acquiring
+ * overlapping subsets cannot deadlock, against one deadline for the whole subset: a caller waits at most
+ * the configured time, whatever the number of locks, and fails with a {@link LockTimeoutException} once it is over.
+ *
+ * The number of callers waiting for or holding each lock is bounded: a caller that would exceed
+ * the bound on any of its locks is rejected immediately instead of queuing behind the others.
+ *
+ * Stripes are exclusive by default. When built with read/write stripes, callers running in shared mode
+ * hold the locks together, and exclude the callers running in exclusive mode.
  */
 public class StripedLocks {
     private final static Logger logger = LoggerFactory.getLogger(StripedLocks.class.getName());
 
-    private Lock[] locks;
-    private int maxWaitSeconds;
+    private final Lock[] exclusiveLocks;
+    private final Lock[] sharedLocks; // same locks as the exclusive locks without read/write stripes
+    private final long maxWaitNanos;
+    private final int maxWaitersPerLock;
+    private final AtomicIntegerArray nbWaiters; // number of callers waiting for or holding each lock
+
+    // Contention statistics
+    private final LongAdder nbAcquisitions = new LongAdder();
+    private final LongAdder nbContendedAcquisitions = new LongAdder();
+    private final LongAdder nbTimeouts = new LongAdder();
+    private final LongAdder nbRejections = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
 
     /**
-     * Builds a StripedLocks object
+     * Builds a StripedLocks object with exclusive stripes and without bound on the number of callers waiting for a lock
      * @param nbLocks number of locks
-     * @param maxWaitSeconds number of seconds to wait to acquire a lock
+     * @param maxWaitSeconds number of seconds to wait to acquire the locks of a subset
      */
     public StripedLocks(int nbLocks, int maxWaitSeconds) {
-        this.maxWaitSeconds = maxWaitSeconds;
-        locks = new Lock[nbLocks];
-        for (int i = 0; i < locks.length; i++) {
-            locks[i] = new ReentrantLock();
+        this(nbLocks, maxWaitSeconds, Integer.MAX_VALUE, false);
+    }
+
+    /**
+     * Builds a StripedLocks object
+     * @param nbLocks number of locks
+     * @param maxWaitSeconds number of seconds to wait to acquire the locks of a subset
+     * @param maxWaitersPerLock maximum number of callers waiting for or holding a lock
+     * @param readWrite true to build read/write stripes allowing shared callers, false to build exclusive stripes
+     */
+    public StripedLocks(int nbLocks, int maxWaitSeconds, int maxWaitersPerLock, boolean readWrite) {
+        if (maxWaitersPerLock <= 0) {
+            throw new IllegalArgumentException("The maximum number of waiters per lock must be positive");
+        }
+        this.maxWaitNanos = TimeUnit.SECONDS.toNanos(maxWaitSeconds);
+        this.maxWaitersPerLock = maxWaitersPerLock;
+        this.nbWaiters = new AtomicIntegerArray(nbLocks);
+        exclusiveLocks = new Lock[nbLocks];
+        sharedLocks = readWrite ? new Lock[nbLocks] : exclusiveLocks;
+        for (int i = 0; i < nbLocks; i++) {
+            if (readWrite) {
+                ReadWriteLock lock = new ReentrantReadWriteLock();
+                exclusiveLocks[i] = lock.writeLock();
+                sharedLocks[i] = lock.readLock();
+            } else {
+                exclusiveLocks[i] = new ReentrantLock();
+            }
         }
     }
 
     /**
-     * Runs a runnable if able to acquire the locks of the striped lock that are between two indexes
+     * Runs a runnable once the locks of the striped lock that are between two indexes are acquired
+     * @param lockStartIndex index of the first lock to acquire
+     * @param lockEndIndex index of the last lock to acquire
+     * @param runnable runnable to run once the locks are acquired
+     * @throws TooManyWaitersException if too many callers already wait for one of the locks
+     * @throws LockTimeoutException if the locks could not be acquired in time
+     */
+    public void runSync(int lockStartIndex, int lockEndIndex, Runnable runnable)
+            throws TooManyWaitersException, LockTimeoutException {
+        run(exclusiveLocks, IntStream.rangeClosed(lockStartIndex, lockEndIndex).toArray(), runnable);
+    }
+
+    /**
+     * Runs a runnable once the locks at a set of indexes are acquired
+     * @param lockIndexes indexes of the locks to acquire, in any order and possibly repeated
+     * @param runnable runnable to run once the locks are acquired
+     * @throws TooManyWaitersException if too many callers already wait for one of the locks
+     * @throws LockTimeoutException if the locks could not be acquired in time
+     */
+    public void runSync(int[] lockIndexes, Runnable runnable) throws TooManyWaitersException, LockTimeoutException {
+        run(exclusiveLocks, Arrays.stream(lockIndexes).sorted().distinct().toArray(), runnable);
+    }
+
+    /**
+     * Runs a runnable once the locks of the striped lock that are between two indexes are acquired in shared mode.
+     * Without read/write stripes, the locks are acquired exclusively.
      * @param lockStartIndex index of the first lock to acquire
      * @param lockEndIndex index of the last lock to acquire
-     * @param runnable runnable to run was locks are acquired
+     * @param runnable runnable to run once the locks are acquired
+     * @throws TooManyWaitersException if too many callers already wait for one of the locks
+     * @throws LockTimeoutException if the locks could not be acquired in time
+     */
+    public void runShared(int lockStartIndex, int lockEndIndex, Runnable runnable)
+            throws TooManyWaitersException, LockTimeoutException {
+        run(sharedLocks, IntStream.rangeClosed(lockStartIndex, lockEndIndex).toArray(), runnable);
+    }
+
+    /**
+     * @return number of subsets of locks acquired
+     */
+    public long getNbAcquisitions() {
+        return nbAcquisitions.sum();
+    }
+
+    /**
+     * @return number of subsets of locks acquired after waiting for another caller
      */
-    public void runSync(int lockStartIndex, int lockEndIndex, Runnable runnable) {
+    public long getNbContendedAcquisitions() {
+        return nbContendedAcquisitions.sum();
+    }
+
+    /**
+     * @return number of callers that failed to acquire their locks in time
+     */
+    public long getNbTimeouts() {
+        return nbTimeouts.sum();
+    }
+
+    /**
+     * @return number of callers rejected because too many callers waited for their locks
+     */
+    public long getNbRejections() {
+        return nbRejections.sum();
+    }
+
+    /**
+     * @return total time waited by the callers to acquire their locks, in nanoseconds
+     */
+    public long getTotalWaitNanos() {
+        return totalWaitNanos.sum();
+    }
+
+    /**
+     * Acquires locks in increasing index order against one deadline, then runs a runnable
+     * @param locks exclusive or shared locks
+     * @param sortedIndexes indexes of the locks to acquire, sorted and without duplicates
+     */
+    private void run(Lock[] locks, int[] sortedIndexes, Runnable runnable)
+            throws TooManyWaitersException, LockTimeoutException {
+        admit(sortedIndexes);
+        int nbAcquired = 0;
         try {
-            getLocksRecursively(lockStartIndex, lockEndIndex, runnable);
+            long start = System.nanoTime();
+            long deadline = start + maxWaitNanos;
+            boolean contended = false;
+            for (int lockIndex : sortedIndexes) {
+                Lock lock = locks[lockIndex];
+                if (!lock.tryLock()) {
+                    contended = true;
+                    if (!lock.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                        nbTimeouts.increment();
+                        totalWaitNanos.add(System.nanoTime() - start);
+                        throw new LockTimeoutException("Failed to execute operation on reservations due to high volume," +
+                                " please try again later");
+                    }
+                }
+                nbAcquired++;
+            }
+            nbAcquisitions.increment();
+            if (contended) {
+                nbContendedAcquisitions.increment();
+                totalWaitNanos.add(System.nanoTime() - start);
+            }
+            logger.debug("Acquired {} locks, will run runnable", nbAcquired);
+            runnable.run();
         } catch (InterruptedException e) {
-            throw new RuntimeException("Failed to execute operation on reservations due to high volume," +
+            Thread.currentThread().interrupt();
+            throw new LockTimeoutException("Failed to execute operation on reservations due to high volume," +
                     " please try again later");
+        } finally {
+            for (int i = nbAcquired - 1; i >= 0; i--) {
+                locks[sortedIndexes[i]].unlock();
+            }
+            leave(sortedIndexes, sortedIndexes.length);
         }
     }
 
-    private void getLocksRecursively(int currentIdx, int endIdx, Runnable runnable) throws InterruptedException {
-        if (locks[currentIdx].tryLock(maxWaitSeconds, TimeUnit.SECONDS)) {
-            try {
-                if (currentIdx == endIdx) {
-                    logger.debug("Acquired all locks, will run runnable");
-                    runnable.run();
-                } else {
-                    logger.debug("Acquired lock " + currentIdx);
-                    getLocksRecursively(currentIdx + 1, endIdx, runnable);
-                }
-            } finally {
-                logger.debug("Releasing lock " + currentIdx);
-                locks[currentIdx].unlock();
+    /**
+     * Registers a caller as a waiter of a set of locks
+     * @param lockIndexes indexes of the locks, without duplicates
+     * @throws TooManyWaitersException if one of the locks already has the maximum number of waiters
+     */
+    private void admit(int[] lockIndexes) throws TooManyWaitersException {
+        for (int i = 0; i < lockIndexes.length; i++) {
+            if (nbWaiters.incrementAndGet(lockIndexes[i]) > maxWaitersPerLock) {
+                leave(lockIndexes, i + 1);
+                nbRejections.increment();
+                throw new TooManyWaitersException("Too many concurrent operations on the same reservation days," +
+                        " please try again later");
             }
         }
     }
 
+    /**
+     * Unregisters a caller as a waiter of the first locks of a set of locks
+     */
+    private void leave(int[] lockIndexes, int nbLocks) {
+        for (int i = 0; i < nbLocks; i++) {
+            nbWaiters.decrementAndGet(lockIndexes[i]);
+        }
+    }
 }
@@ -0,0 +1,11 @@
+package campsite.reservation.concurrent;
+
+/**
+ * Thrown when a caller is rejected without waiting because too many callers already wait for a lock
+ */
+public class TooManyWaitersException extends RuntimeException {
+
+    public TooManyWaitersException(String message) {
+        super(message);
+    }
+}
@@ -2,12 +2,21 @@ package campsite.reservation.data.entity;
 
 import campsite.reservation.service.DateResolver;
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.apache.logging.log4j.util.Strings;
 
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Version;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDate;
+import java.util.Base64;
 import java.util.Objects;
 import java.util.UUID;
 
@@ -20,30 +29,59 @@ import static java.time.temporal.ChronoUnit.DAYS;
  * As the check-in and check-out times are always 12:00 AM, we omit the time portion when modeling dates.
  */
 @Entity
+@Table(indexes = {
+        @Index(name = "reservation_check_in_date", columnList = "checkInDate, id"), // keyset pages by check-in date
+        @Index(name = "reservation_check_out_date", columnList = "checkOutDate"),
+        @Index(name = "reservation_email", columnList = "email, id") // keyset pages by email
+})
 public class Reservation {
 
     public static final int MAX_NB_DAYS_IN_MONTH = 31;
+    public static final int DEFAULT_SITE_ID = 0;
+    public static final int MAX_NB_NIGHTS = 3;
+
+    // Separates the site from the random part of the identifiers, never found in a UUID
+    private static final char SITE_ID_SEPARATOR = '.';
 
     @Id
     private String id;
 
+    private int siteId;
+
     private LocalDate checkInDate;
     private LocalDate checkOutDate;
     private String email;
     private String fullName;
     private boolean isCancelled;
 
+    // Idempotency key of the request that created the reservation, used to answer retries of the request.
+    // A unique constraint rather than the unique index generated for unique columns: Derby unique constraints
+    // allow several null keys, for the reservations made without a key, where unique indexes do not
+    @Column(columnDefinition = "varchar(255) unique")
+    private String idempotencyKey;
+
+    // Hash of the request that created the reservation with an idempotency key, telling retries of the request
+    // from other requests reusing the key
+    @Column(length = 44)
+    private String requestHash;
+
+    // Incremented on every update of the reservation, so that concurrent updates of the same reservation
+    // are detected when saving instead of overwriting each other
+    @Version
+    private long version;
+
     // Needed by hibernate
     public Reservation() {
     }
 
-    private Reservation(LocalDate checkInDate, LocalDate checkOutDate, String email, String fullName) {
-        this(UUID.randomUUID().toString(), checkInDate, checkOutDate, email, fullName, false);
+    private Reservation(int siteId, LocalDate checkInDate, LocalDate checkOutDate, String email, String fullName) {
+        this(newId(siteId), siteId, checkInDate, checkOutDate, email, fullName, false);
     }
 
-    private Reservation(String id, LocalDate checkInDate, LocalDate checkOutDate,
+    private Reservation(String id, int siteId, LocalDate checkInDate, LocalDate checkOutDate,
                         String email, String fullName, boolean isCancelled) {
         this.id = id;
+        this.siteId = siteId;
         this.checkInDate = checkInDate;
         this.checkOutDate = checkOutDate;
         this.email = email;
@@ -52,8 +90,10 @@ public class Reservation {
     }
 
     /**
-     * Obtains an instance of {@code Reservation}
+     * Obtains an instance of {@code Reservation}.
+     * The days ahead are not checked, as the service checks them against its window of reservable days.
      *
+     * @param siteId Identifier of the reserved campsite site, the default site if null
      * @param checkInDate Reservation check-in date
      * @param checkOutDate Reservation check-out date
      * @param email Email of the person making the reservation
@@ -61,11 +101,15 @@ public class Reservation {
      * @return the reservation
      */
     @JsonCreator
-    public static Reservation of(@JsonProperty("checkInDate") LocalDate checkInDate,
+    public static Reservation of(@JsonProperty("siteId") Integer siteId,
+                                 @JsonProperty("checkInDate") LocalDate checkInDate,
                                  @JsonProperty("checkOutDate") LocalDate checkOutDate,
                                  @JsonProperty("email") String email,
                                  @JsonProperty("fullName") String fullName) {
-        return of(checkInDate, checkOutDate, email, fullName, null);
+        int site = siteId == null ? DEFAULT_SITE_ID : siteId;
+        validateParameters(site, checkInDate, checkOutDate, email, fullName, null, Integer.MAX_VALUE);
+
+        return new Reservation(site, checkInDate, checkOutDate, email, fullName);
     }
 
     /**
@@ -77,8 +121,70 @@ public class Reservation {
      */
     public static Reservation of(Reservation reservation,
                                  DateResolver dateResolver) {
-        return of(reservation.getId(), reservation.getCheckInDate(), reservation.getCheckOutDate(),
-                reservation.getEmail(), reservation.getFullName(), reservation.isCancelled(), dateResolver);
+        return of(reservation, dateResolver, MAX_NB_DAYS_IN_MONTH);
+    }
+
+    /**
+     * Obtains an instance of a {@code Reservation} by copying an existing reservation
+     *
+     * @param reservation Reservation to copy
+     * @param dateResolver Date resolver to get the current day
+     * @param horizonDays Number of days ahead that can be reserved
+     * @return the reservation
+     */
+    public static Reservation of(Reservation reservation,
+                                 DateResolver dateResolver,
+                                 int horizonDays) {
+        if (reservation.getId() == null) {
+            throw new IllegalArgumentException("Cannot create reservation with missing required field(s)");
+        }
+        validateParameters(reservation.getSiteId(), reservation.getCheckInDate(), reservation.getCheckOutDate(),
+                reservation.getEmail(), reservation.getFullName(), dateResolver, horizonDays);
+
+        Reservation copy = new Reservation(reservation.getId(), reservation.getSiteId(), reservation.getCheckInDate(),
+                reservation.getCheckOutDate(), reservation.getEmail(), reservation.getFullName(), reservation.isCancelled());
+        copy.idempotencyKey = reservation.idempotencyKey;
+        copy.requestHash = reservation.requestHash;
+        copy.version = reservation.version;
+        return copy;
+    }
+
+    /**
+     * Obtains a copy of an existing reservation without validating it, e.g. to read a reservation of past days
+     *
+     * @param reservation Reservation to copy
+     * @return the copy of the reservation
+     */
+    public static Reservation copyOf(Reservation reservation) {
+        Reservation copy = copyOf(reservation.getId(), reservation.getSiteId(), reservation.getCheckInDate(),
+                reservation.getCheckOutDate(), reservation.getEmail(), reservation.getFullName(), reservation.isCancelled());
+        copy.idempotencyKey = reservation.idempotencyKey;
+        copy.requestHash = reservation.requestHash;
+        copy.version = reservation.version;
+        return copy;
+    }
+
+    /**
+     * Obtains an instance of a {@code Reservation} without validating it, e.g. to add a reservation of past days
+     * moved from another instance
+     *
+     * @param id Reservation's unique identifier
+     * @param siteId Identifier of the reserved campsite site
+     * @param checkInDate Reservation check-in date
+     * @param checkOutDate Reservation check-out date
+     * @param email Email of the person making the reservation
+     * @param fullName Full name of the person making the reservation
+     * @param isCancelled true if the reservation was cancelled, false otherwise
+     * @return the reservation
+     */
+    public static Reservation copyOf(String id,
+                                     int siteId,
+                                     LocalDate checkInDate,
+                                     LocalDate checkOutDate,
+                                     String email,
+                                     String fullName,
+                                     boolean isCancelled) {
+        return new Reservation(id, siteId, checkInDate, checkOutDate, email, fullName, isCancelled);
     }
 
     /**
@@ -100,13 +206,37 @@ public class Reservation {
                                  String fullName,
                                  boolean isCancelled,
                                  DateResolver dateResolver) {
+        return of(id, DEFAULT_SITE_ID, checkInDate, checkOutDate, email, fullName, isCancelled, dateResolver);
+    }
+
+    /**
+     * Obtains an instance of a {@code Reservation}
+     *
+     * @param id Reservation's unique identifier
+     * @param siteId Identifier of the reserved campsite site
+     * @param checkInDate Reservation check-in date
+     * @param checkOutDate Reservation check-out date
+     * @param email Email of the person making the reservation
+     * @param fullName Full name of the person making the reservation
+     * @param isCancelled true if the reservation was cancelled, false otherwise
+     * @param dateResolver Date resolver to get the current day
+     * @return the reservation
+     */
+    public static Reservation of(String id,
+                                 int siteId,
+                                 LocalDate checkInDate,
+                                 LocalDate checkOutDate,
+                                 String email,
+                                 String fullName,
+                                 boolean isCancelled,
+                                 DateResolver dateResolver) {
         if (id == null) {
             throw new IllegalArgumentException("Cannot create reservation with missing required field(s)");
         }
 
-        validateParameters(checkInDate, checkOutDate, email, fullName, dateResolver);
+        validateParameters(siteId, checkInDate, checkOutDate, email, fullName, dateResolver, MAX_NB_DAYS_IN_MONTH);
 
-        return new Reservation(id, checkInDate, checkOutDate, email, fullName, isCancelled);
+        return new Reservation(id, siteId, checkInDate, checkOutDate, email, fullName, isCancelled);
     }
 
     /**
@@ -124,35 +254,61 @@ public class Reservation {
                                  String email,
                                  String fullName,
                                  DateResolver dateResolver) {
-        validateParameters(checkInDate, checkOutDate, email, fullName, dateResolver);
+        return of(DEFAULT_SITE_ID, checkInDate, checkOutDate, email, fullName, dateResolver);
+    }
 
-        return new Reservation(checkInDate, checkOutDate, email, fullName);
+    /**
+     * Obtains an instance of a {@code Reservation}
+     *
+     * @param siteId Identifier of the reserved campsite site
+     * @param checkInDate Reservation check-in date
+     * @param checkOutDate Reservation check-out date
+     * @param email Email of the person making the reservation
+     * @param fullName Full name of the person making the reservation
+     * @param dateResolver Date resolver to get the current day
+     * @return the reservation
+     */
+    public static Reservation of(int siteId,
+                                 LocalDate checkInDate,
+                                 LocalDate checkOutDate,
+                                 String email,
+                                 String fullName,
+                                 DateResolver dateResolver) {
+        validateParameters(siteId, checkInDate, checkOutDate, email, fullName, dateResolver, MAX_NB_DAYS_IN_MONTH);
+
+        return new Reservation(siteId, checkInDate, checkOutDate, email, fullName);
     }
 
     /**
      * Validates that the parameters used to create a reservation have valid values.
      * Validations are:
      * - Cannot create a reservation with missing required field(s)
+     * - Site id must not be negative
      * - Check-out date must be after check-in date
      * - Cannot reserve the campsite for more than 3 days
      * - Cannot reserve the campsite in the past
      * - Cannot reserve the campsite for the current day
-     * - Cannot reserve the campsite more than a month in advance
+     * - Cannot reserve the campsite more than the booking horizon in advance
      * @throws IllegalArgumentException if any validation of the parameters fails.
      */
-    private static void validateParameters(LocalDate checkInDate, LocalDate checkOutDate, String email, String fullName, DateResolver dateResolver) {
+    private static void validateParameters(int siteId, LocalDate checkInDate, LocalDate checkOutDate, String email, String fullName,
+                                           DateResolver dateResolver, int horizonDays) {
         if ((checkInDate == null) || (checkOutDate == null) || (Strings.isBlank(email)) || (Strings.isBlank(fullName))) {
             throw new IllegalArgumentException("Cannot create reservation with missing required field(s)");
         }
 
+        if (siteId < 0) {
+            throw new IllegalArgumentException("Site id must not be negative");
+        }
+
         long checkOutMinusCheckInDays = DAYS.between(checkInDate, checkOutDate);
 
         if (checkOutMinusCheckInDays < 0) {
             throw new IllegalArgumentException("Check-out date must be after check-in date");
         }
 
-        if (checkOutMinusCheckInDays > 3) {
-            throw new IllegalArgumentException("Cannot reserve the campsite for more than 3 days");
+        if (checkOutMinusCheckInDays > MAX_NB_NIGHTS) {
+            throw new IllegalArgumentException("Cannot reserve the campsite for more than " + MAX_NB_NIGHTS + " days");
         }
 
         LocalDate currentDate = getCurrentDate(dateResolver);
@@ -167,11 +323,40 @@ public class Reservation {
             throw new IllegalArgumentException("Cannot reserve the campsite for the current day");
         }
 
-        if (todayMinusCheckInDate > MAX_NB_DAYS_IN_MONTH) {
-            throw new IllegalArgumentException("Cannot reserve the campsite more than a month in advance");
+        if (todayMinusCheckInDate > horizonDays) {
+            throw new IllegalArgumentException("Cannot reserve the campsite more than "
+                    + (horizonDays == MAX_NB_DAYS_IN_MONTH ? "a month" : horizonDays + " days") + " in advance");
         }
     }
 
+    /**
+     * Returns a new identifier of a reservation or a hold of a site.
+     * Identifiers start with the site, so that the instance serving the site can be found from an identifier.
+     * @param siteId Identifier of the reserved site
+     * @return the identifier
+     */
+    public static String newId(int siteId) {
+        return String.valueOf(siteId) + SITE_ID_SEPARATOR + UUID.randomUUID();
+    }
+
+    /**
+     * Returns the site of a reservation or hold identifier
+     * @param id Reservation or hold identifier
+     * @return the site identifier, or -1 if the identifier does not start with a site
+     */
+    public static int siteIdOf(String id) {
+        int separatorIndex = id.indexOf(SITE_ID_SEPARATOR);
+        if (separatorIndex <= 0 || separatorIndex > 9) {
+            return -1;
+        }
+        for (int i = 0; i < separatorIndex; i++) {
+            if (id.charAt(i) < '0' || id.charAt(i) > '9') {
+                return -1;
+            }
+        }
+        return Integer.parseInt(id.substring(0, separatorIndex));
+    }
+
     private static LocalDate getCurrentDate(DateResolver dateResolver) {
         LocalDate currentDate;
         if (dateResolver == null) {
@@ -187,7 +372,8 @@ public class Reservation {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Reservation that = (Reservation) o;
-        return isCancelled == that.isCancelled &&
+        return siteId == that.siteId &&
+                isCancelled == that.isCancelled &&
                 Objects.equals(checkInDate, that.checkInDate) &&
                 Objects.equals(checkOutDate, that.checkOutDate) &&
                 Objects.equals(email, that.email) &&
@@ -196,21 +382,43 @@ public class Reservation {
 
     @Override
     public int hashCode() {
-        return Objects.hash(checkInDate, checkOutDate, email, fullName, isCancelled);
+        return Objects.hash(siteId, checkInDate, checkOutDate, email, fullName, isCancelled);
+    }
+
+    /**
+     * Returns a hash of the fields of the request creating the reservation, the same for all retries of the request
+     * @return the base64 SHA-256 hash of the site, dates, email and full name of the reservation
+     */
+    public String hashRequest() {
+        String request = siteId + "\n" + checkInDate + "\n" + checkOutDate + "\n" + email + "\n" + fullName;
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(request.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e); // required on every Java platform
+        }
     }
 
     @Override
     public String toString() {
         return "Reservation{" +
                 "id='" + id + '\'' +
+                ", siteId=" + siteId +
                 ", checkInDate=" + checkInDate +
                 ", checkOutDate=" + checkOutDate +
                 ", email='" + email + '\'' +
                 ", fullName='" + fullName + '\'' +
                 ", isCancelled=" + isCancelled +
+                ", version=" + version +
                 '}';
     }
 
+    /**
+     * Applies the non-null fields of a reservation update.
+     * The site of a reservation is not updatable: moving to another site requires
+     * cancelling the reservation and making a new one.
+     * @param reservationUpdate reservation update information
+     */
     public void update(Reservation reservationUpdate) {
         setCheckInDate(reservationUpdate.getCheckInDate());
         setCheckOutDate(reservationUpdate.getCheckOutDate());
@@ -222,6 +430,10 @@ public class Reservation {
         return id;
     }
 
+    public int getSiteId() {
+        return siteId;
+    }
+
     public LocalDate getCheckInDate() {
         return checkInDate;
     }
@@ -274,4 +486,32 @@ public class Reservation {
         isCancelled = cancelled;
     }
 
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    public long getVersion() {
+        return version;
+    }
+
+    // Used by the persistence code to set the version of a saved reservation
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    @JsonIgnore
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public void setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    @JsonIgnore
+    public String getRequestHash() {
+        return requestHash;
+    }
+
+    public void setRequestHash(String requestHash) {
+        this.requestHash = requestHash;
+    }
+
 }
@@ -1,24 +1,87 @@
 package campsite.reservation.data.repository;
 
 import campsite.reservation.data.entity.Reservation;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 
 /**
  * Custom JPA Repository to manage reservations
  */
 @Repository
-public interface ReservationRepository extends JpaRepository<Reservation, String> {
+public interface ReservationRepository extends JpaRepository<Reservation, String>, ReservedStaysRepository {
+
+    String EXPORT_FETCH_SIZE = "500"; // number of rows fetched at a time by the streaming queries
+
+    /**
+     * Returns a page of the reservations having a check-in date between two dates, ordered by check-in date and id.
+     * Pages are read with a keyset: a page starts after the last reservation of the previous page,
+     * so that reading a page uses the check-in date index whatever the number of pages before it.
+     * @param from first check-in date
+     * @param to last check-in date (inclusive)
+     * @param afterCheckInDate check-in date of the last reservation of the previous page, or the from date
+     * @param afterId id of the last reservation of the previous page, or an empty string
+     * @param page first page of the page size, limiting the number of reservations
+     * @return the reservations of the page
+     */
+    @Query("SELECT r FROM Reservation r WHERE r.checkInDate <= ?2 AND r.checkInDate >= ?1"
+            + " AND (r.checkInDate > ?3 OR (r.checkInDate = ?3 AND r.id > ?4)) ORDER BY r.checkInDate, r.id")
+    List<Reservation> findPageByCheckInDate(LocalDate from, LocalDate to, LocalDate afterCheckInDate, String afterId,
+                                            Pageable page);
+
+    /**
+     * Returns a page of the reservations made with an email, ordered by id
+     * @param email email of the reservations
+     * @param afterId id of the last reservation of the previous page, or an empty string
+     * @param page first page of the page size, limiting the number of reservations
+     * @return the reservations of the page
+     */
+    @Query("SELECT r FROM Reservation r WHERE r.email = ?1 AND r.id > ?2 ORDER BY r.id")
+    List<Reservation> findPageByEmail(String email, String afterId, Pageable page);
+
+    /**
+     * Streams the reservations having a check-in date between two dates, ordered by check-in date and id.
+     * Rows are fetched from the database as the stream is consumed, EXPORT_FETCH_SIZE rows at a time.
+     * Must be called in a transaction, and the stream must be closed.
+     * @param from first check-in date
+     * @param to last check-in date (inclusive)
+     * @return the stream of the reservations
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = EXPORT_FETCH_SIZE))
+    @Query("SELECT r FROM Reservation r WHERE r.checkInDate >= ?1 AND r.checkInDate <= ?2 ORDER BY r.checkInDate, r.id")
+    Stream<Reservation> streamByCheckInDate(LocalDate from, LocalDate to);
+
+    /**
+     * Returns all the reservations of a site, including the past and cancelled reservations
+     * @param siteId identifier of the site
+     * @return the reservations of the site
+     */
+    List<Reservation> findBySiteId(int siteId);
+
+    /**
+     * Deletes all the reservations of a site. Must be called in a transaction.
+     * @param siteId identifier of the site
+     * @return the number of deleted reservations
+     */
+    @Modifying
+    @Query("DELETE FROM Reservation r WHERE r.siteId = ?1")
+    int deleteBySiteId(int siteId);
 
     /**
-     * Returns the reservations that have a check-in date after a parameter date
-     * @param date date after which the reservations check-in date must be
-     * @return the reservations that have a check-in date after a parameter date
+     * Returns the reservation created by the request made with an idempotency key
+     * @param idempotencyKey idempotency key of the request
+     * @return the reservation created by the request, if any
      */
-    @Query("SELECT r FROM Reservation r WHERE r.checkInDate > ?1")
-    List<Reservation> findReservationsFromDate(LocalDate date);
+    Optional<Reservation> findByIdempotencyKey(String idempotencyKey);
 }
@@ -0,0 +1,39 @@
+package campsite.reservation.data.repository;
+
+import java.time.LocalDate;
+
+/**
+ * Reads the days reserved by the reservations straight from the rows of the reservations table,
+ * without loading reservation entities or projection objects
+ */
+public interface ReservedStaysRepository {
+
+    /**
+     * Passes the days reserved by the reservations that are not cancelled, have a check-in date between two dates
+     * and a check-out date from a date, on the sites below a number of sites, to a consumer.
+     * Only the site and the epoch days of the dates are read, computed by the database,
+     * and each row is passed to the consumer as it is fetched, EXPORT_FETCH_SIZE rows at a time.
+     * @param firstCheckInDate first check-in date, bounding the check-in date index range that is read
+     * @param lastCheckInDate last check-in date (inclusive)
+     * @param firstCheckOutDate first check-out date
+     * @param nbSites number of sites, reservations of sites that no longer exist are ignored
+     * @param consumer consumer of the days reserved by each reservation
+     * @return the number of reservations read
+     */
+    long forEachReservedStay(LocalDate firstCheckInDate, LocalDate lastCheckInDate, LocalDate firstCheckOutDate,
+                             int nbSites, ReservedStayConsumer consumer);
+
+    /**
+     * Operation accepting the days reserved by a reservation
+     */
+    @FunctionalInterface
+    interface ReservedStayConsumer {
+
+        /**
+         * @param siteId identifier of the reserved site
+         * @param firstEpochDay epoch day of the check-in date
+         * @param lastEpochDay epoch day of the check-out date (inclusive)
+         */
+        void accept(int siteId, long firstEpochDay, long lastEpochDay);
+    }
+}
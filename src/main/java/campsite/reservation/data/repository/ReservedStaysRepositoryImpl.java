@@ -0,0 +1,46 @@
+package campsite.reservation.data.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import java.sql.Date;
+import java.time.LocalDate;
+
+/**
+ * Implementation of the {@link ReservedStaysRepository} fragment of the {@link ReservationRepository} with JDBC.
+ * The epoch days are computed by the database (Derby) from the dates, so that reading a row allocates
+ * neither dates nor projection objects.
+ */
+public class ReservedStaysRepositoryImpl implements ReservedStaysRepository {
+
+    // The index on the check-in date bounds the rows read, and the cancelled flag is bound as a parameter
+    private static final String RESERVED_STAYS_QUERY = "SELECT site_id,"
+            + " {fn TIMESTAMPDIFF(SQL_TSI_DAY, TIMESTAMP('1970-01-01 00:00:00'), check_in_date)},"
+            + " {fn TIMESTAMPDIFF(SQL_TSI_DAY, TIMESTAMP('1970-01-01 00:00:00'), check_out_date)}"
+            + " FROM reservation WHERE check_in_date >= ? AND check_in_date <= ? AND check_out_date >= ?"
+            + " AND is_cancelled = ? AND site_id < ?";
+
+    @Autowired
+    private DataSource dataSource;
+
+    private JdbcTemplate jdbcTemplate;
+
+    @PostConstruct
+    public void init() {
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.setFetchSize(Integer.parseInt(ReservationRepository.EXPORT_FETCH_SIZE));
+    }
+
+    @Override
+    public long forEachReservedStay(LocalDate firstCheckInDate, LocalDate lastCheckInDate, LocalDate firstCheckOutDate,
+                                    int nbSites, ReservedStayConsumer consumer) {
+        long[] nbStays = new long[1];
+        jdbcTemplate.query(RESERVED_STAYS_QUERY, resultSet -> {
+            consumer.accept(resultSet.getInt(1), resultSet.getLong(2), resultSet.getLong(3));
+            nbStays[0]++;
+        }, Date.valueOf(firstCheckInDate), Date.valueOf(lastCheckInDate), Date.valueOf(firstCheckOutDate), false, nbSites);
+        return nbStays[0];
+    }
+}
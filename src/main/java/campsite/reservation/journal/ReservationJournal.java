@@ -0,0 +1,242 @@
+package campsite.reservation.journal;
+
+import campsite.reservation.service.AvailabilityListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Append-only journal of the availability changes, used to rebuild the in-memory availability
+ * on startup without loading the reservations from the database.
+ *
+ * Changes are appended as fixed-size binary records to a memory-mapped journal file:
+ * | type (1 byte) | padding (3 bytes) | site id (4 bytes) | first epoch day (4 bytes) | last epoch day (4 bytes) |
+ * A record type of 0 marks the end of the journal.
+ *
+ * Days are journaled as they change in memory, before the reservation is saved: after a crash, the journal may hold
+ * days of reservations that were never saved, e.g. queued to the reservation writer. Closing the journal marks it
+ * as closed after its last record, and a journal opened without the mark is not to be replayed.
+ *
+ * When the journal file is full, a snapshot of the availability is written to a snapshot file
+ * as a list of reserved records, and the journal is reset.
+ * The availability is rebuilt by replaying the snapshot, then the journal.
+ */
+@Component
+@ConditionalOnProperty(name = "journal.enabled", havingValue = "true")
+public class ReservationJournal implements AvailabilityListener {
+
+    private final static Logger logger = LoggerFactory.getLogger(ReservationJournal.class.getName());
+
+    static final int RECORD_SIZE = 16;
+    private static final byte END = 0;
+    private static final byte RESERVED = 1;
+    private static final byte RELEASED = 2;
+    private static final byte CLOSED = 3;
+
+    @Value("${journal.directory:journal}")
+    private String directory; // directory of the journal and snapshot files
+
+    @Value("${journal.capacityBytes:16777216}")
+    private int capacityBytes; // size of the memory-mapped journal file
+
+    @Value("${journal.syncOnWrite:false}")
+    private boolean syncOnWrite; // forces each record to the storage device when true
+
+    private Path journalPath;
+    private Path snapshotPath;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int position; // offset of the next record in the journal file
+    private boolean closedCleanly; // true if the journal was closed after its last record when last opened
+
+    // Replays the current availability as reserved days when a snapshot is written
+    private Consumer<AvailabilityListener> snapshotSource;
+
+    @PostConstruct
+    public void open() throws IOException {
+        Path directoryPath = Paths.get(directory);
+        Files.createDirectories(directoryPath);
+        journalPath = directoryPath.resolve("availability.journal");
+        snapshotPath = directoryPath.resolve("availability.snapshot");
+
+        channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacityBytes);
+        position = 0;
+        while (position + RECORD_SIZE <= capacityBytes && buffer.get(position) != END && buffer.get(position) != CLOSED) {
+            position += RECORD_SIZE;
+        }
+        closedCleanly = position + RECORD_SIZE <= capacityBytes && buffer.get(position) == CLOSED;
+        if (closedCleanly) {
+            buffer.put(position, END); // a crash from now on leaves the journal without the mark
+            buffer.force();
+        }
+        logger.info("Opened availability journal {} holding {} records", journalPath, position / RECORD_SIZE);
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (position + RECORD_SIZE <= capacityBytes) {
+            buffer.put(position, CLOSED); // a full journal is left without the mark, and rebuilt on startup
+        }
+        buffer.force();
+        channel.close();
+    }
+
+    /**
+     * Sets the source of the availability written to snapshots
+     * @param snapshotSource function replaying the current availability as reserved days into a listener
+     */
+    public synchronized void setSnapshotSource(Consumer<AvailabilityListener> snapshotSource) {
+        this.snapshotSource = snapshotSource;
+    }
+
+    /**
+     * @return true if neither a snapshot nor journal records were written
+     */
+    public synchronized boolean isEmpty() {
+        return position == 0 && !Files.exists(snapshotPath);
+    }
+
+    /**
+     * @return true if the journal was closed after its last record, false after a crash,
+     * when its records may not match the saved reservations
+     */
+    public synchronized boolean isClosedCleanly() {
+        return closedCleanly;
+    }
+
+    /**
+     * Replays the snapshot, then the journal records, in the order they were written
+     * @param listener listener receiving the changes
+     */
+    public synchronized void replay(AvailabilityListener listener) {
+        if (Files.exists(snapshotPath)) {
+            replaySnapshot(listener);
+        }
+        for (int offset = 0; offset < position; offset += RECORD_SIZE) {
+            dispatch(buffer.get(offset), buffer.getInt(offset + 4),
+                    buffer.getInt(offset + 8), buffer.getInt(offset + 12), listener);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the availability given by the snapshot source, then resets the journal.
+     * Appends wait until the snapshot is written so that no change is lost with the reset journal.
+     */
+    public synchronized void writeSnapshot() {
+        if (snapshotSource == null) {
+            throw new IllegalStateException("Cannot write availability snapshot without a snapshot source");
+        }
+
+        Path temporaryPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryPath)))) {
+            snapshotSource.accept(new AvailabilityListener() {
+                @Override
+                public void onDaysReserved(int siteId, long firstEpochDay, long lastEpochDay) {
+                    writeRecord(output, RESERVED, siteId, firstEpochDay, lastEpochDay);
+                }
+
+                @Override
+                public void onDaysReleased(int siteId, long firstEpochDay, long lastEpochDay) {
+                    // a snapshot only holds reserved days
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write availability snapshot", e);
+        }
+
+        try {
+            Files.move(temporaryPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write availability snapshot", e);
+        }
+
+        for (int offset = 0; offset < position; offset += RECORD_SIZE) {
+            buffer.put(offset, END);
+        }
+        buffer.force();
+        logger.info("Wrote availability snapshot and reset journal of {} records", position / RECORD_SIZE);
+        position = 0;
+    }
+
+    @Override
+    public void onDaysReserved(int siteId, long firstEpochDay, long lastEpochDay) {
+        append(RESERVED, siteId, firstEpochDay, lastEpochDay);
+    }
+
+    @Override
+    public void onDaysReleased(int siteId, long firstEpochDay, long lastEpochDay) {
+        append(RELEASED, siteId, firstEpochDay, lastEpochDay);
+    }
+
+    private synchronized void append(byte type, int siteId, long firstEpochDay, long lastEpochDay) {
+        if (position + RECORD_SIZE > capacityBytes) {
+            writeSnapshot();
+        }
+        buffer.putInt(position + 4, siteId);
+        buffer.putInt(position + 8, Math.toIntExact(firstEpochDay));
+        buffer.putInt(position + 12, Math.toIntExact(lastEpochDay));
+        buffer.put(position, type); // written last, a record is only visible once complete
+        if (syncOnWrite) {
+            buffer.force();
+        }
+        position += RECORD_SIZE;
+    }
+
+    private void replaySnapshot(AvailabilityListener listener) {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotPath)))) {
+            while (true) {
+                byte type;
+                try {
+                    type = input.readByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                input.skipBytes(3);
+                dispatch(type, input.readInt(), input.readInt(), input.readInt(), listener);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read availability snapshot", e);
+        }
+    }
+
+    private static void writeRecord(DataOutputStream output, byte type, int siteId, long firstEpochDay, long lastEpochDay) {
+        try {
+            output.writeByte(type);
+            output.write(new byte[3]);
+            output.writeInt(siteId);
+            output.writeInt(Math.toIntExact(firstEpochDay));
+            output.writeInt(Math.toIntExact(lastEpochDay));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write availability snapshot", e);
+        }
+    }
+
+    private static void dispatch(byte type, int siteId, int firstEpochDay, int lastEpochDay, AvailabilityListener listener) {
+        if (type == RESERVED) {
+            listener.onDaysReserved(siteId, firstEpochDay, lastEpochDay);
+        } else if (type == RELEASED) {
+            listener.onDaysReleased(siteId, firstEpochDay, lastEpochDay);
+        }
+    }
+}
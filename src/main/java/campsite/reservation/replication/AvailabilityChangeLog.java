@@ -0,0 +1,173 @@
+package campsite.reservation.replication;
+
+import campsite.reservation.service.AvailabilityListener;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * Change stream of the availability published by the writer instance to the read replicas.
+ *
+ * Every availability change is numbered with a sequence number and kept in a bounded ring of fixed-size records,
+ * in the {@link ChangeBatch} format. A replica loads a snapshot of the availability with the sequence number
+ * of its last change, then polls the changes following the last change it applied. A replica falling behind
+ * by more changes than the ring holds loads a new snapshot.
+ *
+ * Unlike the journal, which rebuilds the availability after a restart that loses the holds, the change log
+ * feeds live reads: the days of the holds are published as they are held, and released when the holds expire
+ * or are cancelled, so that replicas do not show held days as free.
+ *
+ * Changes are appended by the thread changing the availability, under the lock ordering the changes of the days,
+ * so the changes of a day are numbered in the order they were applied to the availability.
+ */
+@Component
+@ConditionalOnProperty(name = "replication.role", havingValue = "PUBLISHER")
+public class AvailabilityChangeLog implements AvailabilityListener {
+
+    @Value("${replication.changeLogCapacity:65536}")
+    private int capacity; // number of changes kept for the replicas
+
+    // Identifies this log, as sequence numbers restart from 1 when the application restarts
+    private final long logId = ThreadLocalRandom.current().nextLong();
+
+    private ByteBuffer records;
+    private long lastSequence; // sequence number of the last change, 0 before the first change
+
+    // Replays the current availability as reserved days when a snapshot is read
+    private Consumer<AvailabilityListener> snapshotSource;
+
+    @PostConstruct
+    public void init() {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The change log must hold at least one change");
+        }
+        records = ByteBuffer.allocate(capacity * ChangeBatch.RECORD_SIZE);
+    }
+
+    /**
+     * Sets the source of the availability of the snapshots
+     * @param snapshotSource function replaying the current availability as reserved days into a listener
+     */
+    public synchronized void setSnapshotSource(Consumer<AvailabilityListener> snapshotSource) {
+        this.snapshotSource = snapshotSource;
+    }
+
+    @Override
+    public void onDaysReserved(int siteId, long firstEpochDay, long lastEpochDay) {
+        append(ChangeBatch.RESERVED, siteId, firstEpochDay, lastEpochDay);
+    }
+
+    @Override
+    public void onDaysReleased(int siteId, long firstEpochDay, long lastEpochDay) {
+        append(ChangeBatch.RELEASED, siteId, firstEpochDay, lastEpochDay);
+    }
+
+    @Override
+    public boolean receivesHolds() {
+        return true;
+    }
+
+    /**
+     * @return sequence number of the last change, 0 before the first change
+     */
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Returns the changes following a sequence number, in the {@link ChangeBatch} format
+     * @param afterSequence sequence number of the last change known by the replica
+     * @param maxChanges maximum number of changes to return
+     * @return the changes, or an empty optional if the changes are no longer kept
+     * or the sequence number was not reached by this log
+     */
+    public synchronized Optional<byte[]> getChangesAfter(long afterSequence, int maxChanges) {
+        long firstKeptSequence = Math.max(1, lastSequence - capacity + 1);
+        if (afterSequence > lastSequence || afterSequence + 1 < firstKeptSequence) {
+            return Optional.empty();
+        }
+        int nbChanges = (int) Math.min(Math.max(maxChanges, 0), lastSequence - afterSequence);
+        ByteBuffer batch = ByteBuffer.allocate(ChangeBatch.HEADER_SIZE + nbChanges * ChangeBatch.RECORD_SIZE);
+        batch.putLong(logId).putLong(lastSequence).putLong(afterSequence + 1);
+        for (long sequence = afterSequence + 1; sequence <= afterSequence + nbChanges; sequence++) {
+            batch.put(records.array(), offsetOf(sequence), ChangeBatch.RECORD_SIZE);
+        }
+        return Optional.of(batch.array());
+    }
+
+    /**
+     * Returns the current availability as reserved days, in the {@link ChangeBatch} format.
+     * The sequence number of the snapshot is read before the availability, without blocking the changes:
+     * the snapshot holds every change up to its sequence number, and may hold some of the following changes.
+     * A change sets or clears its days whatever their state, so a replica applying the following changes
+     * to the snapshot, in order, reaches the availability of the log all the same.
+     * @return the snapshot
+     */
+    public byte[] getSnapshot() {
+        Consumer<AvailabilityListener> snapshotSource;
+        long snapshotSequence;
+        synchronized (this) {
+            snapshotSource = this.snapshotSource;
+            snapshotSequence = lastSequence;
+        }
+        if (snapshotSource == null) {
+            throw new IllegalStateException("Cannot read availability snapshot without a snapshot source");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        try {
+            output.writeLong(logId);
+            output.writeLong(snapshotSequence);
+            output.writeLong(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        snapshotSource.accept(new AvailabilityListener() {
+            @Override
+            public void onDaysReserved(int siteId, long firstEpochDay, long lastEpochDay) {
+                writeRecord(output, siteId, firstEpochDay, lastEpochDay);
+            }
+
+            @Override
+            public void onDaysReleased(int siteId, long firstEpochDay, long lastEpochDay) {
+                // a snapshot only holds reserved days
+            }
+        });
+        return bytes.toByteArray();
+    }
+
+    private synchronized void append(byte type, int siteId, long firstEpochDay, long lastEpochDay) {
+        lastSequence++;
+        int offset = offsetOf(lastSequence);
+        records.put(offset, type);
+        records.putInt(offset + 4, siteId);
+        records.putInt(offset + 8, (int) firstEpochDay);
+        records.putInt(offset + 12, (int) lastEpochDay);
+    }
+
+    private int offsetOf(long sequence) {
+        return (int) ((sequence - 1) % capacity) * ChangeBatch.RECORD_SIZE;
+    }
+
+    private static void writeRecord(DataOutputStream output, int siteId, long firstEpochDay, long lastEpochDay) {
+        try {
+            output.writeByte(ChangeBatch.RESERVED);
+            output.write(new byte[3]);
+            output.writeInt(siteId);
+            output.writeInt((int) firstEpochDay);
+            output.writeInt((int) lastEpochDay);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package campsite.reservation.replication;
+
+import campsite.reservation.service.AvailabilityListener;
+import campsite.reservation.service.ReservationService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the availability of a read replica current with the change stream of the writer instance,
+ * so that the availability queries scale with the number of replicas without reaching the writer or the database.
+ *
+ * A poller thread loads a snapshot of the availability of the writer, then polls the changes following the last
+ * change it applied. A new snapshot is loaded when the writer no longer keeps the changes the replica needs,
+ * or when the writer restarted with a new change log.
+ *
+ * The lag of the replica is the number of changes of the writer it did not apply yet, and the time elapsed
+ * since it was last up to date with the writer.
+ */
+@Component
+@ConditionalOnProperty(name = "replication.role", havingValue = "REPLICA")
+public class AvailabilityReplica {
+
+    private final static Logger logger = LoggerFactory.getLogger(AvailabilityReplica.class.getName());
+
+    private static final long NO_SNAPSHOT = -1;
+
+    @Value("${replication.sourceUrl}")
+    private String sourceUrl; // base URL of the writer instance
+
+    @Value("${replication.pollMillis:100}")
+    private long pollMillis; // time to wait between two polls once the replica is up to date
+
+    @Value("${replication.maxChangesPerPoll:4096}")
+    private int maxChangesPerPoll; // maximum number of changes read by a poll
+
+    @Autowired
+    ReservationService reservationService;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+
+    private Thread pollerThread;
+    private volatile boolean running;
+
+    // Change log the replica applies, and sequence number of the last change applied, NO_SNAPSHOT before the snapshot
+    private volatile long logId;
+    private volatile long appliedSequence = NO_SNAPSHOT;
+
+    // Sequence number of the last change of the writer when it was last polled
+    private volatile long lastSequence;
+
+    // Time the replica was last up to date with the writer, 0 before the snapshot
+    private volatile long upToDateMillis;
+
+    @PostConstruct
+    public void start() {
+        sourceUrl = sourceUrl.endsWith("/") ? sourceUrl.substring(0, sourceUrl.length() - 1) : sourceUrl;
+        Gauge.builder("campsite.replica.lag.changes", this, AvailabilityReplica::getLagChanges)
+                .description("Changes of the writer instance not yet applied by the replica")
+                .register(meterRegistry);
+        Gauge.builder("campsite.replica.lag", this, replica -> replica.getLagMillis() / 1000.0)
+                .description("Time elapsed since the replica was last up to date with the writer instance")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        running = true;
+        pollerThread = new Thread(this::pollChanges, "availability-replica");
+        pollerThread.setDaemon(true);
+        pollerThread.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        pollerThread.interrupt();
+        pollerThread.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    /**
+     * @return base URL of the writer instance
+     */
+    public String getSourceUrl() {
+        return sourceUrl;
+    }
+
+    /**
+     * @return sequence number of the last change applied, -1 before the snapshot is loaded
+     */
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    /**
+     * @return sequence number of the last change of the writer when it was last polled
+     */
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * @return number of changes of the writer not yet applied, as of the last poll
+     */
+    public long getLagChanges() {
+        long applied = appliedSequence;
+        return applied == NO_SNAPSHOT ? lastSequence : lastSequence - applied;
+    }
+
+    /**
+     * @return time elapsed since the replica was last up to date with the writer, -1 before the snapshot is loaded
+     */
+    public long getLagMillis() {
+        long upToDate = upToDateMillis;
+        return upToDate == 0 ? -1 : System.currentTimeMillis() - upToDate;
+    }
+
+    /**
+     * Loads a snapshot of the availability of the writer
+     * @param snapshot snapshot in the {@link ChangeBatch} format
+     */
+    void loadSnapshot(ChangeBatch snapshot) {
+        reservationService.resetReplicatedAvailability();
+        snapshot.replay(new ReplicatedChanges());
+        logId = snapshot.getLogId();
+        lastSequence = snapshot.getLastSequence();
+        appliedSequence = snapshot.getLastSequence();
+        upToDateMillis = System.currentTimeMillis();
+        logger.info("Loaded the availability snapshot of {} at change {}", sourceUrl, appliedSequence);
+    }
+
+    /**
+     * Applies changes of the writer following the last change applied
+     * @param changes changes in the {@link ChangeBatch} format
+     * @return false if the changes do not follow the last change applied, so that a snapshot must be loaded
+     */
+    boolean applyChanges(ChangeBatch changes) {
+        if (appliedSequence == NO_SNAPSHOT || changes.getLogId() != logId
+                || changes.getFirstSequence() != appliedSequence + 1) {
+            return false;
+        }
+        changes.replay(new ReplicatedChanges());
+        lastSequence = changes.getLastSequence();
+        appliedSequence += changes.getNbChanges();
+        if (appliedSequence == lastSequence) {
+            upToDateMillis = System.currentTimeMillis();
+        }
+        return true;
+    }
+
+    private void pollChanges() {
+        while (running) {
+            try {
+                if (appliedSequence == NO_SNAPSHOT) {
+                    loadSnapshot(ChangeBatch.of(get("/replication/snapshot")));
+                }
+                byte[] changes = get("/replication/changes?after=" + appliedSequence + "&max=" + maxChangesPerPoll);
+                if (changes == null || !applyChanges(ChangeBatch.of(changes))) {
+                    logger.warn("Changes following change {} are not available on {}, loading a new snapshot",
+                            appliedSequence, sourceUrl);
+                    appliedSequence = NO_SNAPSHOT;
+                } else if (appliedSequence == lastSequence) {
+                    Thread.sleep(pollMillis);
+                }
+            } catch (InterruptedException e) {
+                logger.debug("Availability replica interrupted");
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Failed to replicate the availability of {}: {}", sourceUrl, e.toString());
+                sleepBeforeRetry();
+            }
+        }
+    }
+
+    /**
+     * Reads a resource of the writer
+     * @return the body of the response, or null if the resource is gone
+     */
+    private byte[] get(String pathAndQuery) throws IOException, InterruptedException {
+        HttpResponse<byte[]> response = httpClient.send(HttpRequest.newBuilder(URI.create(sourceUrl + pathAndQuery))
+                .timeout(Duration.ofSeconds(10))
+                .GET().build(), HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() == HttpStatus.GONE.value()) {
+            return null;
+        }
+        if (response.statusCode() != HttpStatus.OK.value()) {
+            throw new IllegalStateException("GET " + pathAndQuery + " failed with status " + response.statusCode());
+        }
+        return response.body();
+    }
+
+    private void sleepBeforeRetry() {
+        try {
+            Thread.sleep(Math.max(pollMillis, 1000));
+        } catch (InterruptedException e) {
+            logger.debug("Availability replica interrupted");
+        }
+    }
+
+    /**
+     * Applies the changes of the writer to the availability of the replica
+     */
+    private class ReplicatedChanges implements AvailabilityListener {
+        @Override
+        public void onDaysReserved(int siteId, long firstEpochDay, long lastEpochDay) {
+            reservationService.applyReplicatedChange(siteId, firstEpochDay, lastEpochDay, true);
+        }
+
+        @Override
+        public void onDaysReleased(int siteId, long firstEpochDay, long lastEpochDay) {
+            reservationService.applyReplicatedChange(siteId, firstEpochDay, lastEpochDay, false);
+        }
+    }
+}
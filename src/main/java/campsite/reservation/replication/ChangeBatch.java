@@ -0,0 +1,85 @@
+package campsite.reservation.replication;
+
+import campsite.reservation.service.AvailabilityListener;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Batch of availability changes sent by the publisher to the read replicas, in a compact binary format:
+ * | log id (8 bytes) | last sequence number of the log (8 bytes) | sequence number of the first change (8 bytes) |
+ * followed by fixed-size change records:
+ * | type (1 byte) | padding (3 bytes) | site id (4 bytes) | first epoch day (4 bytes) | last epoch day (4 bytes) |
+ * Changes are numbered from 1 and a batch holds consecutive changes. A snapshot is a batch of reserved records
+ * holding the availability at the last sequence number, with a first sequence number of 0.
+ */
+public class ChangeBatch {
+
+    static final int HEADER_SIZE = 24;
+    static final int RECORD_SIZE = 16;
+    static final byte RESERVED = 1;
+    static final byte RELEASED = 2;
+
+    private final ByteBuffer buffer;
+
+    private ChangeBatch(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Reads a batch
+     * @param bytes batch in the binary format
+     * @return the batch
+     * @throws IllegalArgumentException if the bytes are not a batch
+     */
+    public static ChangeBatch of(byte[] bytes) throws IllegalArgumentException {
+        if (bytes.length < HEADER_SIZE || (bytes.length - HEADER_SIZE) % RECORD_SIZE != 0) {
+            throw new IllegalArgumentException("Invalid batch of availability changes of " + bytes.length + " bytes");
+        }
+        return new ChangeBatch(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * @return identifier of the log, changed when the publisher restarts
+     */
+    public long getLogId() {
+        return buffer.getLong(0);
+    }
+
+    /**
+     * @return sequence number of the last change of the log when the batch was read
+     */
+    public long getLastSequence() {
+        return buffer.getLong(8);
+    }
+
+    /**
+     * @return sequence number of the first change of the batch, 0 for a snapshot
+     */
+    public long getFirstSequence() {
+        return buffer.getLong(16);
+    }
+
+    /**
+     * @return number of change records of the batch
+     */
+    public int getNbChanges() {
+        return (buffer.capacity() - HEADER_SIZE) / RECORD_SIZE;
+    }
+
+    /**
+     * Replays the changes of the batch in order
+     * @param listener listener receiving the changes
+     */
+    public void replay(AvailabilityListener listener) {
+        for (int offset = HEADER_SIZE; offset < buffer.capacity(); offset += RECORD_SIZE) {
+            int siteId = buffer.getInt(offset + 4);
+            long firstEpochDay = buffer.getInt(offset + 8);
+            long lastEpochDay = buffer.getInt(offset + 12);
+            if (buffer.get(offset) == RESERVED) {
+                listener.onDaysReserved(siteId, firstEpochDay, lastEpochDay);
+            } else {
+                listener.onDaysReleased(siteId, firstEpochDay, lastEpochDay);
+            }
+        }
+    }
+}
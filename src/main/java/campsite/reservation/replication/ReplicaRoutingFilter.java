@@ -0,0 +1,47 @@
+package campsite.reservation.replication;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Redirects the requests a read replica cannot answer to the writer instance with a 307 status,
+ * so that the client repeats the request, body included, on the writer.
+ * A replica only answers the availability queries: the reservations and holds are only held by the writer.
+ */
+@Component
+@ConditionalOnProperty(name = "replication.role", havingValue = "REPLICA")
+public class ReplicaRoutingFilter extends OncePerRequestFilter {
+
+    private static final Set<String> AVAILABILITY_QUERIES = Set.of("/reservations/availableDates",
+            "/reservations/availableSites", "/reservations/availableStays", "/reservations/availability/stream");
+
+    @Value("${replication.sourceUrl}")
+    private String sourceUrl; // base URL of the writer instance
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String uri = request.getRequestURI();
+        return !uri.startsWith("/reservations") && !uri.startsWith("/admin")
+                || request.getMethod().equals("GET") && AVAILABILITY_QUERIES.contains(uri);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String writer = sourceUrl.endsWith("/") ? sourceUrl.substring(0, sourceUrl.length() - 1) : sourceUrl;
+        String query = request.getQueryString();
+        response.setStatus(HttpStatus.TEMPORARY_REDIRECT.value());
+        response.setHeader(HttpHeaders.LOCATION, writer + request.getRequestURI() + (query == null ? "" : "?" + query));
+    }
+}
@@ -0,0 +1,85 @@
+package campsite.reservation.rest;
+
+import campsite.reservation.data.entity.Reservation;
+import campsite.reservation.serialization.types.HoldId;
+import campsite.reservation.serialization.types.ReservationId;
+import campsite.reservation.serialization.types.ReservationRequest;
+import campsite.reservation.serialization.types.ReservationResultsList;
+import campsite.reservation.service.BatchMode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Provides the REST API to book reservations with the ASYNC execution mode: the bookings run on the booking
+ * threads of the {@link BookingExecutor}, and the server request thread is released until their future completes
+ */
+@RestController
+@RequestMapping(path = "/reservations")
+@ConditionalOnProperty(name = "request.executionMode", havingValue = "ASYNC")
+public class AsyncBookingController {
+
+    @Autowired
+    Bookings bookings;
+
+    @Autowired
+    BookingExecutor bookingExecutor;
+
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseStatus(HttpStatus.CREATED)
+    CompletableFuture<ReservationId> createReservation(@RequestBody Reservation reservation,
+                                                       @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        return bookingExecutor.submit(() -> bookings.createReservation(reservation, idempotencyKey));
+    }
+
+    @PostMapping(value = "/holds", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseStatus(HttpStatus.CREATED)
+    CompletableFuture<HoldId> createHold(@RequestBody Reservation reservation) {
+        return bookingExecutor.submit(() -> bookings.createHold(reservation));
+    }
+
+    @PostMapping(value = "/holds/{holdId}/confirm")
+    @ResponseStatus(HttpStatus.CREATED)
+    CompletableFuture<ReservationId> confirmHold(@PathVariable("holdId") String holdId) {
+        return bookingExecutor.submit(() -> bookings.confirmHold(holdId));
+    }
+
+    @DeleteMapping(value = "/holds/{holdId}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    CompletableFuture<Void> cancelHold(@PathVariable("holdId") String holdId) {
+        return bookingExecutor.submit(() -> {
+            bookings.cancelHold(holdId);
+            return null;
+        });
+    }
+
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseStatus(HttpStatus.CREATED)
+    CompletableFuture<ReservationResultsList> createReservations(@RequestBody List<ReservationRequest> requests,
+                                                                 @RequestParam(defaultValue = "ALL_OR_NOTHING") BatchMode mode) {
+        return bookingExecutor.submit(() -> bookings.createReservations(requests, mode));
+    }
+
+    /**
+     * Updates a reservation. With an If-Match header holding the ETag of a reservation, the update is only
+     * applied to this version of the reservation: a request updating another version gets a 412.
+     */
+    @PutMapping(value = "/{reservationId}", consumes = MediaType.APPLICATION_JSON_VALUE)
+    CompletableFuture<ResponseEntity<Reservation>> updateReservation(@PathVariable("reservationId") String reservationId,
+                                                                     @RequestBody Reservation reservationUpdate,
+                                                                     @RequestHeader(value = "If-Match", required = false) String ifMatch) {
+        Long expectedVersion = Bookings.parseVersion(ifMatch);
+        return bookingExecutor.submit(() -> bookings.updateReservation(reservationId, reservationUpdate, expectedVersion));
+    }
+
+    @DeleteMapping(value = "/{reservationId}")
+    CompletableFuture<Reservation> cancelReservation(@PathVariable("reservationId") String reservationId) {
+        return bookingExecutor.submit(() -> bookings.cancelReservation(reservationId));
+    }
+}
@@ -0,0 +1,89 @@
+package campsite.reservation.rest;
+
+import campsite.reservation.service.AvailabilitySnapshot;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+import java.util.List;
+
+/**
+ * Representations of the campsite available dates, negotiated with the Accept header of the request
+ */
+public enum AvailabilityFormat {
+    /**
+     * List of ISO dates
+     */
+    JSON(MediaType.APPLICATION_JSON, ""),
+    /**
+     * First epoch day and base64 bitmask of the available days
+     */
+    COMPACT_JSON(MediaType.valueOf(AvailabilityFormat.COMPACT_JSON_VALUE), "-compact"),
+    /**
+     * First epoch day, number of days and bitmask of the available days
+     */
+    BINARY(MediaType.APPLICATION_OCTET_STREAM, "-binary");
+
+    public static final String COMPACT_JSON_VALUE = "application/vnd.campsite.availability+json";
+
+    private final MediaType mediaType;
+    private final String eTagSuffix; // representations of the same version have different entity tags
+
+    AvailabilityFormat(MediaType mediaType, String eTagSuffix) {
+        this.mediaType = mediaType;
+        this.eTagSuffix = eTagSuffix;
+    }
+
+    /**
+     * Returns the preferred format of an Accept header, JSON when no format is acceptable
+     * @param accept Accept header of the request, or null
+     * @return the format of the response
+     */
+    public static AvailabilityFormat negotiate(String accept) {
+        if (accept == null) {
+            return JSON;
+        }
+        List<MediaType> acceptedTypes;
+        try {
+            acceptedTypes = MediaType.parseMediaTypes(accept);
+        } catch (InvalidMediaTypeException e) {
+            return JSON;
+        }
+        MediaType.sortBySpecificityAndQuality(acceptedTypes);
+        for (MediaType acceptedType : acceptedTypes) {
+            for (AvailabilityFormat format : values()) {
+                if (acceptedType.includes(format.mediaType)) {
+                    return format;
+                }
+            }
+        }
+        return JSON;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * @return entity tag identifying the representation of the availability snapshot
+     */
+    public String getETag(AvailabilitySnapshot snapshot) {
+        return snapshot.getETag() + eTagSuffix;
+    }
+
+    /**
+     * Returns the representation of the available dates of a number of days ahead
+     * @param snapshot availability snapshot
+     * @param nbDays number of days ahead
+     * @return the bytes of the representation, shared by all callers and not to be modified
+     */
+    public byte[] write(AvailabilitySnapshot snapshot, int nbDays) {
+        switch (this) {
+            case COMPACT_JSON:
+                return snapshot.getCompactJson(nbDays);
+            case BINARY:
+                return snapshot.getBinary(nbDays);
+            default:
+                return snapshot.getJson(nbDays);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package campsite.reservation.rest;
+
+import campsite.reservation.serialization.types.AvailabilityChange;
+import campsite.reservation.service.AvailabilitySnapshot;
+import campsite.reservation.service.ReservationService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes the changes of the available dates to the clients of the availability stream with Server-Sent Events,
+ * so that clients do not poll the available dates.
+ *
+ * A client first receives a snapshot event with all the available dates, then a delta event with the dates
+ * that became available or unavailable whenever the availability changes. Changes are coalesced: the availability
+ * version is checked periodically, and all the changes made since the previous check are pushed as one delta,
+ * serialized once for all the clients.
+ *
+ * Events are written to the clients by sender threads, from a bounded buffer per client: a client that does not
+ * read its events as fast as they are pushed fills its buffer and is disconnected, without slowing the others.
+ */
+@Component
+public class AvailabilityStream {
+
+    private final static Logger logger = LoggerFactory.getLogger(AvailabilityStream.class.getName());
+
+    private static final String SNAPSHOT_EVENT = "snapshot";
+    private static final String DELTA_EVENT = "delta";
+
+    @Value("${push.clientBufferSize:16}")
+    private int clientBufferSize; // maximum number of events waiting to be written to a client
+
+    @Value("${push.nbSenderThreads:4}")
+    private int nbSenderThreads; // number of threads writing the events to the clients
+
+    @Autowired
+    ReservationService reservationService;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+    private ExecutorService senders;
+    private Counter droppedCounter;
+
+    // Last availability pushed to the clients, new clients start from it so that the next delta applies to it
+    private AvailabilitySnapshot published;
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        senders = Executors.newFixedThreadPool(nbSenderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "availability-sender-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Gauge.builder("campsite.availability.stream.clients", clients, List::size)
+                .description("Clients connected to the availability stream")
+                .register(meterRegistry);
+        droppedCounter = Counter.builder("campsite.availability.stream.dropped")
+                .description("Clients disconnected from the availability stream for reading their events too slowly")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        clients.forEach(client -> client.emitter.complete());
+        senders.shutdown();
+        senders.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Connects a client to the stream
+     * @return the emitter of the events of the client, starting with a snapshot event
+     */
+    public synchronized SseEmitter subscribe() {
+        if (published == null) {
+            published = reservationService.getAvailabilitySnapshot();
+        }
+        Client client = new Client(new SseEmitter(0L)); // the connection stays open until the client disconnects
+        client.emitter.onCompletion(() -> clients.remove(client));
+        client.emitter.onTimeout(() -> clients.remove(client));
+        clients.add(client);
+        client.push(event(SNAPSHOT_EVENT, published, new AvailabilityChange(LocalDate.ofEpochDay(published.getFirstEpochDay()),
+                published.getDates(Integer.MAX_VALUE), List.of())));
+        return client.emitter;
+    }
+
+    /**
+     * Pushes the changes of the available dates made since the previous push, as one delta event
+     */
+    @Scheduled(fixedDelayString = "${push.coalesceMillis:250}")
+    public synchronized void pushChanges() {
+        if (published == null || published.getVersion() == reservationService.getAvailabilityVersion()) {
+            return;
+        }
+        if (clients.isEmpty()) {
+            published = null; // the next client starts from the availability at the time it connects
+            return;
+        }
+        AvailabilitySnapshot current = reservationService.getAvailabilitySnapshot();
+        List<LocalDate> previousDates = published.getDates(Integer.MAX_VALUE);
+        List<LocalDate> currentDates = current.getDates(Integer.MAX_VALUE);
+        Set<LocalDate> previousDateSet = new HashSet<>(previousDates);
+        Set<LocalDate> currentDateSet = new HashSet<>(currentDates);
+        List<LocalDate> available = new ArrayList<>();
+        for (LocalDate date : currentDates) {
+            if (!previousDateSet.contains(date)) {
+                available.add(date);
+            }
+        }
+        List<LocalDate> unavailable = new ArrayList<>();
+        for (LocalDate date : previousDates) {
+            // the dates before the first reservable day are removed by the clients
+            if (!currentDateSet.contains(date) && date.toEpochDay() >= current.getFirstEpochDay()) {
+                unavailable.add(date);
+            }
+        }
+        boolean moved = current.getFirstEpochDay() != published.getFirstEpochDay();
+        published = current;
+        if (moved || !available.isEmpty() || !unavailable.isEmpty()) {
+            Event event = event(DELTA_EVENT, current,
+                    new AvailabilityChange(LocalDate.ofEpochDay(current.getFirstEpochDay()), available, unavailable));
+            clients.forEach(client -> client.push(event));
+        }
+    }
+
+    /**
+     * Sends a comment to every client, so that the connections of the disconnected clients are closed
+     */
+    @Scheduled(fixedDelayString = "#{${push.heartbeatSeconds:15} * 1000}")
+    public void sendHeartbeats() {
+        Event heartbeat = new Event(null, null, null);
+        clients.forEach(client -> client.push(heartbeat));
+    }
+
+    // Used for tests to count the connected clients
+    int getNbClients() {
+        return clients.size();
+    }
+
+    private Event event(String name, AvailabilitySnapshot snapshot, AvailabilityChange change) {
+        try {
+            return new Event(name, snapshot.getETag(), objectMapper.writeValueAsString(change));
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException("Failed to serialize availability change", e);
+        }
+    }
+
+    /**
+     * Client of the stream, with its buffer of events waiting to be written
+     */
+    private class Client {
+        private final SseEmitter emitter;
+        private final Queue<Event> events = new ArrayBlockingQueue<>(clientBufferSize);
+        private final AtomicBoolean sending = new AtomicBoolean();
+        private volatile boolean dropped;
+
+        private Client(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        /**
+         * Buffers an event and schedules its sending, or disconnects the client if its buffer is full.
+         * The client is disconnected by its sender, as completing the emitter waits for the event being written.
+         */
+        private void push(Event event) {
+            if (dropped) {
+                return;
+            }
+            if (!events.offer(event)) {
+                logger.info("Disconnecting slow client of the availability stream");
+                droppedCounter.increment();
+                clients.remove(this);
+                dropped = true;
+                events.clear();
+            }
+            if (sending.compareAndSet(false, true)) {
+                senders.execute(this::send);
+            }
+        }
+
+        /**
+         * Writes the buffered events, until the buffer is empty or the client is disconnected
+         */
+        private void send() {
+            do {
+                Event event;
+                while (!dropped && (event = events.poll()) != null) {
+                    try {
+                        emitter.send(event.toSse());
+                    } catch (IOException | IllegalStateException e) {
+                        clients.remove(this); // the client disconnected
+                        dropped = true;
+                    }
+                }
+                if (dropped) {
+                    emitter.complete();
+                    return;
+                }
+                sending.set(false);
+            } while (!events.isEmpty() && sending.compareAndSet(false, true));
+        }
+    }
+
+    /**
+     * Event serialized once for all the clients, as the event builders of the emitters are not reusable
+     */
+    private static class Event {
+        private final String name;
+        private final String id;
+        private final String json; // null for a heartbeat comment
+
+        private Event(String name, String id, String json) {
+            this.name = name;
+            this.id = id;
+            this.json = json;
+        }
+
+        private SseEmitter.SseEventBuilder toSse() {
+            if (json == null) {
+                return SseEmitter.event().comment("heartbeat");
+            }
+            return SseEmitter.event().name(name).id(id).data(json, MediaType.APPLICATION_JSON);
+        }
+    }
+}
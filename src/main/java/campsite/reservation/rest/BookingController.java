@@ -0,0 +1,78 @@
+package campsite.reservation.rest;
+
+import campsite.reservation.data.entity.Reservation;
+import campsite.reservation.serialization.types.HoldId;
+import campsite.reservation.serialization.types.ReservationId;
+import campsite.reservation.serialization.types.ReservationRequest;
+import campsite.reservation.serialization.types.ReservationResultsList;
+import campsite.reservation.service.BatchMode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * Provides the REST API to book reservations with the SYNC execution mode: the bookings run on the server
+ * request threads and their results are returned as plain values, without the asynchronous request processing
+ * of the {@link AsyncBookingController}
+ */
+@RestController
+@RequestMapping(path = "/reservations")
+@ConditionalOnProperty(name = "request.executionMode", havingValue = "SYNC", matchIfMissing = true)
+public class BookingController {
+
+    @Autowired
+    Bookings bookings;
+
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseStatus(HttpStatus.CREATED)
+    ReservationId createReservation(@RequestBody Reservation reservation,
+                                    @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        return bookings.createReservation(reservation, idempotencyKey);
+    }
+
+    @PostMapping(value = "/holds", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseStatus(HttpStatus.CREATED)
+    HoldId createHold(@RequestBody Reservation reservation) {
+        return bookings.createHold(reservation);
+    }
+
+    @PostMapping(value = "/holds/{holdId}/confirm")
+    @ResponseStatus(HttpStatus.CREATED)
+    ReservationId confirmHold(@PathVariable("holdId") String holdId) {
+        return bookings.confirmHold(holdId);
+    }
+
+    @DeleteMapping(value = "/holds/{holdId}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    void cancelHold(@PathVariable("holdId") String holdId) {
+        bookings.cancelHold(holdId);
+    }
+
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseStatus(HttpStatus.CREATED)
+    ReservationResultsList createReservations(@RequestBody List<ReservationRequest> requests,
+                                              @RequestParam(defaultValue = "ALL_OR_NOTHING") BatchMode mode) {
+        return bookings.createReservations(requests, mode);
+    }
+
+    /**
+     * Updates a reservation. With an If-Match header holding the ETag of a reservation, the update is only
+     * applied to this version of the reservation: a request updating another version gets a 412.
+     */
+    @PutMapping(value = "/{reservationId}", consumes = MediaType.APPLICATION_JSON_VALUE)
+    ResponseEntity<Reservation> updateReservation(@PathVariable("reservationId") String reservationId,
+                                                  @RequestBody Reservation reservationUpdate,
+                                                  @RequestHeader(value = "If-Match", required = false) String ifMatch) {
+        return bookings.updateReservation(reservationId, reservationUpdate, Bookings.parseVersion(ifMatch));
+    }
+
+    @DeleteMapping(value = "/{reservationId}")
+    Reservation cancelReservation(@PathVariable("reservationId") String reservationId) {
+        return bookings.cancelReservation(reservationId);
+    }
+}
@@ -0,0 +1,80 @@
+package campsite.reservation.rest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs the booking requests with the ASYNC execution mode, on a bounded pool of booking threads with a bounded queue:
+ * bookings submitted when the queue is full are rejected with a 503 status.
+ */
+@Component
+@ConditionalOnProperty(name = "request.executionMode", havingValue = "ASYNC")
+public class BookingExecutor {
+
+    private final static Logger logger = LoggerFactory.getLogger(BookingExecutor.class.getName());
+
+    @Value("${request.async.nbThreads:64}")
+    private int nbThreads; // number of booking threads with the ASYNC execution mode
+
+    @Value("${request.async.queueCapacity:1000}")
+    private int queueCapacity; // maximum number of bookings waiting for a booking thread
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(nbThreads, nbThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "booking-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        logger.info("Running bookings on {} booking threads", nbThreads);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Runs a booking on a booking thread
+     * @param booking function making the booking
+     * @return a future completed with the result of the booking, or completed exceptionally with its failure
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> booking) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> run(booking, result));
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                    "Failed to execute operation on reservations due to high volume, please try again later", e));
+        }
+        return result;
+    }
+
+    private static <T> void run(Supplier<T> booking, CompletableFuture<T> result) {
+        try {
+            result.complete(booking.get());
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+}
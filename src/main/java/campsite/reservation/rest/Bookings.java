@@ -0,0 +1,109 @@
+package campsite.reservation.rest;
+
+import campsite.reservation.data.entity.Reservation;
+import campsite.reservation.serialization.types.HoldId;
+import campsite.reservation.serialization.types.ReservationId;
+import campsite.reservation.serialization.types.ReservationRequest;
+import campsite.reservation.serialization.types.ReservationResult;
+import campsite.reservation.serialization.types.ReservationResultsList;
+import campsite.reservation.service.BatchMode;
+import campsite.reservation.service.ReservationHold;
+import campsite.reservation.service.ReservationService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Makes the bookings of the booking requests (create, hold, batch, update and cancel), served by the
+ * {@link BookingController} on the server request threads, or by the {@link AsyncBookingController}
+ * on the booking threads, depending on the execution mode
+ */
+@Component
+class Bookings {
+
+    @Autowired
+    ReservationService reservationService;
+
+    ReservationId createReservation(Reservation reservation, String idempotencyKey) {
+        return new ReservationId(reservationService.createReservation(reservation, idempotencyKey));
+    }
+
+    HoldId createHold(Reservation reservation) {
+        ReservationHold hold = reservationService.createHold(reservation);
+        return new HoldId(hold.getId(), hold.getExpiresAt());
+    }
+
+    ReservationId confirmHold(String holdId) {
+        return new ReservationId(reservationService.confirmHold(holdId));
+    }
+
+    void cancelHold(String holdId) {
+        reservationService.cancelHold(holdId);
+    }
+
+    /**
+     * Makes a batch of reservations. The reservations are checked one by one: with the PER_ITEM batch mode,
+     * a malformed reservation is reported as the failure of its item, and the other reservations are made.
+     */
+    ReservationResultsList createReservations(List<ReservationRequest> requests, BatchMode mode) {
+        ReservationResult[] results = new ReservationResult[requests.size()];
+        List<Reservation> reservations = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            try {
+                reservations.add(requests.get(i).toReservation());
+            } catch (IllegalArgumentException e) {
+                if (mode == BatchMode.ALL_OR_NOTHING) {
+                    throw new IllegalArgumentException("Reservation " + i + " of the batch failed: " + e.getMessage(), e);
+                }
+                results[i] = ReservationResult.failure(e.getMessage());
+            }
+        }
+
+        // the results of the well-formed reservations fill the items left, in order
+        Iterator<ReservationResult> madeResults = reservationService.createReservations(reservations, mode).iterator();
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                results[i] = madeResults.next();
+            }
+        }
+        return new ReservationResultsList(Arrays.asList(results));
+    }
+
+    ResponseEntity<Reservation> updateReservation(String reservationId, Reservation reservationUpdate, Long expectedVersion) {
+        return withVersion(reservationService.updateReservation(reservationId, reservationUpdate, expectedVersion));
+    }
+
+    Reservation cancelReservation(String reservationId) {
+        return reservationService.cancelReservation(reservationId);
+    }
+
+    static ResponseEntity<Reservation> withVersion(Reservation reservation) {
+        return ResponseEntity.ok().eTag(String.valueOf(reservation.getVersion())).body(reservation);
+    }
+
+    /**
+     * Returns the version held by an If-Match header
+     * @param ifMatch value of the If-Match header, holding the ETag of a reservation
+     * @return the version, or null to match any version
+     * @throws IllegalArgumentException if the header does not hold a version
+     */
+    static Long parseVersion(String ifMatch) throws IllegalArgumentException {
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String eTag = ifMatch.trim();
+        if (eTag.startsWith("W/")) {
+            eTag = eTag.substring(2);
+        }
+        try {
+            return Long.parseLong(eTag.replace("\"", ""));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("If-Match header must hold the ETag of the reservation", e);
+        }
+    }
+}
@@ -2,18 +2,28 @@ package campsite.reservation.rest;
 
 import campsite.reservation.data.entity.Reservation;
 import campsite.reservation.serialization.types.DatesList;
-import campsite.reservation.serialization.types.ReservationId;
+import campsite.reservation.serialization.types.SitesList;
+import campsite.reservation.service.AvailabilitySnapshot;
 import campsite.reservation.service.ReservationService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.HttpStatus;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.servlet.http.HttpServletResponse;
+import java.time.LocalDate;
 
 /**
- * Provides the REST API to process reservations
+ * Provides the REST API to query the availability and the reservations.
+ * The booking requests are served by the {@link BookingController} or the {@link AsyncBookingController},
+ * depending on the execution mode.
  */
 @RestController
 @RequestMapping(path = "/reservations")
@@ -22,29 +32,71 @@ public class CampsiteReservationController {
     @Autowired
     ReservationService reservationService;
 
+    @Autowired
+    AvailabilityStream availabilityStream;
+
+    /**
+     * Returns the available dates. The campsite available dates are served from the serialized availability
+     * snapshot, with an ETag identifying its version: requests with a matching If-None-Match header get a 304.
+     * They are served as JSON dates, or as a compact JSON or binary bitmask of the available days,
+     * depending on the Accept header of the request.
+     */
     @GetMapping(value = "/availableDates")
-    DatesList getAvailableDates(@RequestParam int nbDays) {
-        return new DatesList(reservationService.getAvailableDates(nbDays));
+    ResponseEntity<?> getAvailableDates(@RequestParam int nbDays, @RequestParam(required = false) Integer siteId,
+                                        @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                                        WebRequest request, HttpServletResponse response) {
+        if (siteId != null) {
+            return ResponseEntity.ok(new DatesList(reservationService.getAvailableDates(siteId, nbDays)));
+        }
+
+        AvailabilitySnapshot snapshot = reservationService.getAvailabilitySnapshot();
+        AvailabilityFormat format = AvailabilityFormat.negotiate(accept);
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT); // caches keep one representation per format
+        if (request.checkNotModified(format.getETag(snapshot))) {
+            return null; // 304 with the ETag header set by checkNotModified
+        }
+        return ResponseEntity.ok().contentType(format.getMediaType()).body(format.write(snapshot, nbDays));
+    }
+
+    /**
+     * Streams the available dates with Server-Sent Events: a snapshot event with the available dates,
+     * then a delta event with the dates that became available or unavailable whenever the availability changes
+     */
+    @GetMapping(value = "/availability/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    SseEmitter streamAvailability() {
+        return availabilityStream.subscribe();
     }
 
-    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
-    @ResponseStatus(HttpStatus.CREATED)
-    ReservationId createReservation(@RequestBody Reservation reservation) {
-        return new ReservationId(reservationService.createReservation(reservation));
+    @GetMapping(value = "/availableSites")
+    SitesList getAvailableSites(@RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate checkInDate,
+                                @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate checkOutDate) {
+        return new SitesList(reservationService.getAvailableSites(checkInDate, checkOutDate));
     }
 
-    @PutMapping(value = "/{reservationId}", consumes = MediaType.APPLICATION_JSON_VALUE)
-    Reservation updateReservation(@PathVariable("reservationId") String reservationId,
-                                  @RequestBody Reservation reservationUpdate) {
-        return reservationService.updateReservation(reservationId, reservationUpdate);
+    /**
+     * Returns the check-in dates between two dates of the stays of a number of nights that can be reserved,
+     * on any site or on the site given by the siteId parameter
+     */
+    @GetMapping(value = "/availableStays")
+    DatesList getAvailableStays(@RequestParam int length,
+                                @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                @RequestParam(required = false) Integer siteId) {
+        if (siteId != null) {
+            return new DatesList(reservationService.getAvailableStays(siteId, length, from, to));
+        }
+        return new DatesList(reservationService.getAvailableStays(length, from, to));
     }
 
-    @DeleteMapping(value = "/{reservationId}")
-    Reservation cancelReservation(@PathVariable("reservationId") String reservationId) {
-        return reservationService.cancelReservation(reservationId);
+    /**
+     * Returns a reservation, with an ETag holding its version
+     */
+    @GetMapping(value = "/{reservationId}")
+    ResponseEntity<Reservation> getReservation(@PathVariable("reservationId") String reservationId) {
+        return Bookings.withVersion(reservationService.getReservation(reservationId));
     }
 
-    @Scheduled(cron = "0 0 * * *")
+    @Scheduled(cron = "0 0 0 * * *") // at midnight, requests also move the window if this run is missed
     public void scheduleTaskUsingCronExpression() {
         reservationService.moveReservedDatesToNextDay();
     }
@@ -1,9 +1,15 @@
 package campsite.reservation.rest;
 
+import campsite.reservation.concurrent.LockTimeoutException;
+import campsite.reservation.concurrent.TooManyWaitersException;
 import campsite.reservation.serialization.types.ErrorMessage;
+import campsite.reservation.service.IdempotencyKeyReuseException;
+import campsite.reservation.service.ReservationConflictException;
+import campsite.reservation.service.StaleReservationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.web.servlet.error.ErrorController;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.ResponseBody;
@@ -11,6 +17,7 @@ import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.context.request.RequestAttributes;
 import org.springframework.web.context.request.WebRequest;
 
+import javax.persistence.EntityNotFoundException;
 import javax.servlet.http.HttpServletResponse;
 
 /**
@@ -28,20 +35,53 @@ public class CampsiteReservationErrorController implements ErrorController {
         Integer statusCode = (Integer) request.getAttribute("javax.servlet.error.status_code", RequestAttributes.SCOPE_REQUEST);
         Exception exception = (Exception) request.getAttribute("javax.servlet.error.exception", RequestAttributes.SCOPE_REQUEST);
 
-        String errorMessage = getErrorMessage(exception);
+        HttpStatus status = getStatus(exception);
+        if (status != null) {
+            statusCode = status.value();
+            response.setStatus(statusCode);
+        }
+
+        String statusMessage = (String) request.getAttribute("javax.servlet.error.message", RequestAttributes.SCOPE_REQUEST);
+
+        String errorMessage = getErrorMessage(exception, statusMessage);
 
         logger.error("Failed to process request. Returning status code {} and error message: {}", statusCode, errorMessage, exception);
         return new ErrorMessage(statusCode, errorMessage);
     }
 
+    /**
+     * Returns the status of the requests failing with an exception that is not a server error
+     * @param exception Exception to parse
+     * @return 404 if the reservation or hold does not exist, 409 if a reservation day is already reserved,
+     * 422 if the idempotency key was already used for another request, 412 if the reservation is not at the version expected by the request, 429 if too many requests wait for the same days, 503 if the days could not be locked in time, null to keep the status of the response
+     */
+    private HttpStatus getStatus(Exception exception) {
+        Throwable rootException = exception != null && exception.getCause() != null ? exception.getCause() : exception;
+        if (rootException instanceof EntityNotFoundException) {
+            return HttpStatus.NOT_FOUND;
+        } else if (rootException instanceof StaleReservationException) {
+            return HttpStatus.PRECONDITION_FAILED;
+        } else if (rootException instanceof ReservationConflictException) {
+            return HttpStatus.CONFLICT;
+        } else if (rootException instanceof IdempotencyKeyReuseException) {
+            return HttpStatus.UNPROCESSABLE_ENTITY;
+        } else if (rootException instanceof TooManyWaitersException) {
+            return HttpStatus.TOO_MANY_REQUESTS;
+        } else if (rootException instanceof LockTimeoutException) {
+            return HttpStatus.SERVICE_UNAVAILABLE;
+        }
+        return null;
+    }
+
     /**
      * Returns message string of the root exception
      * @param exception Exception to parse
+     * @param statusMessage message sent with the error status, used when there is no exception
      * @return message string of the root exception
      */
-    private String getErrorMessage(Exception exception) {
+    private String getErrorMessage(Exception exception, String statusMessage) {
         if (exception == null) {
-            return "N/A";
+            return statusMessage == null || statusMessage.isEmpty() ? "N/A" : statusMessage;
         } else if (exception.getCause() != null) {
             return exception.getCause().getMessage();
         } else {
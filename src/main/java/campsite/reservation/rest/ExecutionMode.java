@@ -0,0 +1,16 @@
+package campsite.reservation.rest;
+
+/**
+ * Threads running the booking requests
+ */
+public enum ExecutionMode {
+    /**
+     * Runs the booking requests on the server request threads
+     */
+    SYNC,
+    /**
+     * Runs the booking requests on a bounded booking executor, releasing the server request thread
+     * while a booking waits for its locks, so that booking contention cannot starve the availability reads
+     */
+    ASYNC
+}
@@ -0,0 +1,27 @@
+package campsite.reservation.rest;
+
+import campsite.reservation.replication.AvailabilityReplica;
+import campsite.reservation.serialization.types.ReplicaStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Provides the REST API reporting the replication lag of a read replica
+ */
+@RestController
+@RequestMapping(path = "/replication")
+@ConditionalOnProperty(name = "replication.role", havingValue = "REPLICA")
+public class ReplicaController {
+
+    @Autowired
+    AvailabilityReplica replica;
+
+    @GetMapping(value = "/status")
+    ReplicaStatus getStatus() {
+        return new ReplicaStatus(replica.getSourceUrl(), replica.getAppliedSequence(), replica.getLastSequence(),
+                replica.getLagChanges(), replica.getLagMillis());
+    }
+}
@@ -0,0 +1,44 @@
+package campsite.reservation.rest;
+
+import campsite.reservation.replication.AvailabilityChangeLog;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Provides the REST API publishing the availability changes of the writer instance to the read replicas,
+ * in the binary format of the change batches
+ */
+@RestController
+@RequestMapping(path = "/replication")
+@ConditionalOnProperty(name = "replication.role", havingValue = "PUBLISHER")
+public class ReplicationController {
+
+    @Autowired
+    AvailabilityChangeLog changeLog;
+
+    /**
+     * Returns the current availability with the sequence number of the last change
+     */
+    @GetMapping(value = "/snapshot", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    byte[] getSnapshot() {
+        return changeLog.getSnapshot();
+    }
+
+    /**
+     * Returns the changes following a sequence number, or a 410 status if they are no longer kept
+     * and the replica must load a new snapshot
+     */
+    @GetMapping(value = "/changes", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    ResponseEntity<byte[]> getChanges(@RequestParam long after, @RequestParam(defaultValue = "4096") int max) {
+        return changeLog.getChangesAfter(after, max)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.GONE).build());
+    }
+}
@@ -0,0 +1,64 @@
+package campsite.reservation.rest;
+
+import campsite.reservation.serialization.types.ReservationsPage;
+import campsite.reservation.service.ReservationAdminService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.time.LocalDate;
+
+/**
+ * Provides the REST API to list and export the reservations, for the administration tools
+ */
+@RestController
+@RequestMapping(path = "/admin/reservations")
+public class ReservationAdminController {
+
+    @Autowired
+    ReservationAdminService adminService;
+
+    /**
+     * Returns a page of the reservations having a check-in date between two dates.
+     * The next page is returned when passing the cursor returned with the page.
+     */
+    @GetMapping
+    ReservationsPage getReservationsByCheckInDate(@RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                  @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                  @RequestParam(required = false) String cursor,
+                                                  @RequestParam(defaultValue = "100") int pageSize) {
+        return adminService.getReservationsByCheckInDate(from, to, cursor, pageSize);
+    }
+
+    /**
+     * Returns a page of the reservations made with an email.
+     * The next page is returned when passing the cursor returned with the page.
+     */
+    @GetMapping(value = "/byEmail")
+    ReservationsPage getReservationsByEmail(@RequestParam String email,
+                                            @RequestParam(required = false) String cursor,
+                                            @RequestParam(defaultValue = "100") int pageSize) {
+        return adminService.getReservationsByEmail(email, cursor, pageSize);
+    }
+
+    /**
+     * Exports all the reservations having a check-in date between two dates as a JSON array,
+     * streamed to the response as the rows are read from the database
+     */
+    @GetMapping(value = "/export")
+    ResponseEntity<StreamingResponseBody> exportReservationsByCheckInDate(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        if (from.isAfter(to)) {
+            throw new IllegalArgumentException("From date must not be after to date"); // before the response starts
+        }
+        StreamingResponseBody body = outputStream -> adminService.exportReservationsByCheckInDate(from, to, outputStream);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+}
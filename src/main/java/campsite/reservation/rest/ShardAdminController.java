@@ -0,0 +1,89 @@
+package campsite.reservation.rest;
+
+import campsite.reservation.serialization.types.MovedHold;
+import campsite.reservation.serialization.types.MovedReservation;
+import campsite.reservation.serialization.types.ShardMembers;
+import campsite.reservation.serialization.types.SitesList;
+import campsite.reservation.service.ReservationService;
+import campsite.reservation.sharding.ShardRouter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Provides the REST API to change the instances sharing the sites, and to move the reservations of a site
+ * between instances, when the sites are shared between several instances
+ */
+@RestController
+@RequestMapping(path = "/admin/shards")
+@ConditionalOnProperty(name = "sharding.enabled", havingValue = "true")
+public class ShardAdminController {
+
+    @Autowired
+    ShardRouter router;
+
+    @Autowired
+    ReservationService reservationService;
+
+    @GetMapping
+    ShardMembers getMembers() {
+        return new ShardMembers(router.getSelf(), router.getMembers());
+    }
+
+    /**
+     * Changes the instances sharing the sites. Must be called on every instance, old and new:
+     * each instance moves the reservations of the sites it gains from their previous owner.
+     * Returns the sites moved to this instance.
+     */
+    @PutMapping(value = "/members", consumes = MediaType.APPLICATION_JSON_VALUE)
+    SitesList rebalance(@RequestBody List<String> members) {
+        return new SitesList(router.rebalance(members));
+    }
+
+    /**
+     * Returns all the reservations of a site moved to another instance, after stopping serving the site
+     */
+    @GetMapping(value = "/sites/{siteId}/reservations")
+    List<MovedReservation> getSiteReservations(@PathVariable("siteId") int siteId) {
+        router.releaseSite(siteId);
+        return reservationService.getSiteReservations(siteId).stream()
+                .map(MovedReservation::of)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the holds of a site moved to another instance, after stopping serving the site
+     */
+    @GetMapping(value = "/sites/{siteId}/holds")
+    List<MovedHold> getSiteHolds(@PathVariable("siteId") int siteId) {
+        router.releaseSite(siteId);
+        return reservationService.getSiteHolds(siteId);
+    }
+
+    /**
+     * Removes the reservations and holds of a site, once they were added by the instance the site was moved to.
+     * Rejected with a 409 status while this instance serves the site, so that a stray call never removes
+     * the reservations of a site from its owner.
+     */
+    @DeleteMapping(value = "/sites/{siteId}/reservations")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    void removeSiteReservations(@PathVariable("siteId") int siteId) {
+        if (router.isServed(siteId)) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Site " + siteId + " is served by this instance");
+        }
+        reservationService.removeSiteReservations(siteId);
+    }
+}
@@ -0,0 +1,33 @@
+package campsite.reservation.serialization.types;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Java type used to serialize a change of the available dates pushed to the availability stream to JSON format.
+ * The dates before the first reservable day are no longer available, and the available and unavailable dates
+ * are the dates that changed since the previous event, or all the available dates for the first event.
+ */
+public class AvailabilityChange {
+    private LocalDate from;
+    private List<LocalDate> available;
+    private List<LocalDate> unavailable;
+
+    public AvailabilityChange(LocalDate from, List<LocalDate> available, List<LocalDate> unavailable) {
+        this.from = from;
+        this.available = available;
+        this.unavailable = unavailable;
+    }
+
+    public LocalDate getFrom() {
+        return from;
+    }
+
+    public List<LocalDate> getAvailable() {
+        return available;
+    }
+
+    public List<LocalDate> getUnavailable() {
+        return unavailable;
+    }
+}
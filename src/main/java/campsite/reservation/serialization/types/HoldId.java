@@ -0,0 +1,24 @@
+package campsite.reservation.serialization.types;
+
+import java.time.Instant;
+
+/**
+ *  Java type used to serialize a hold id and its expiry time to JSON format
+ */
+public class HoldId {
+    private String holdId;
+    private Instant expiresAt;
+
+    public HoldId(String holdId, Instant expiresAt) {
+        this.holdId = holdId;
+        this.expiresAt = expiresAt;
+    }
+
+    public String getHoldId() {
+        return holdId;
+    }
+
+    public Instant getExpiresAt() {
+        return expiresAt;
+    }
+}
@@ -0,0 +1,37 @@
+package campsite.reservation.serialization.types;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.Instant;
+
+/**
+ * Java type used to serialize a hold moved between instances to JSON format,
+ * so that the hold can still be confirmed on the instance the site was moved to
+ */
+public class MovedHold {
+    private String holdId;
+    private Instant expiresAt;
+    private MovedReservation reservation;
+
+    @JsonCreator
+    public MovedHold(@JsonProperty("holdId") String holdId,
+                     @JsonProperty("expiresAt") Instant expiresAt,
+                     @JsonProperty("reservation") MovedReservation reservation) {
+        this.holdId = holdId;
+        this.expiresAt = expiresAt;
+        this.reservation = reservation;
+    }
+
+    public String getHoldId() {
+        return holdId;
+    }
+
+    public Instant getExpiresAt() {
+        return expiresAt;
+    }
+
+    public MovedReservation getReservation() {
+        return reservation;
+    }
+}
@@ -0,0 +1,94 @@
+package campsite.reservation.serialization.types;
+
+import campsite.reservation.data.entity.Reservation;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.LocalDate;
+
+/**
+ * Java type used to serialize a reservation moved between instances to JSON format.
+ * Unlike a reservation request, it holds the identifier and the state of the reservation,
+ * and is read without validating the dates, as the reservations of a site include past reservations.
+ */
+public class MovedReservation {
+    private String id;
+    private int siteId;
+    private LocalDate checkInDate;
+    private LocalDate checkOutDate;
+    private String email;
+    private String fullName;
+    private boolean cancelled;
+    private String idempotencyKey;
+    private String requestHash;
+
+    @JsonCreator
+    public MovedReservation(@JsonProperty("id") String id,
+                            @JsonProperty("siteId") int siteId,
+                            @JsonProperty("checkInDate") LocalDate checkInDate,
+                            @JsonProperty("checkOutDate") LocalDate checkOutDate,
+                            @JsonProperty("email") String email,
+                            @JsonProperty("fullName") String fullName,
+                            @JsonProperty("cancelled") boolean cancelled,
+                            @JsonProperty("idempotencyKey") String idempotencyKey,
+                            @JsonProperty("requestHash") String requestHash) {
+        this.id = id;
+        this.siteId = siteId;
+        this.checkInDate = checkInDate;
+        this.checkOutDate = checkOutDate;
+        this.email = email;
+        this.fullName = fullName;
+        this.cancelled = cancelled;
+        this.idempotencyKey = idempotencyKey;
+        this.requestHash = requestHash;
+    }
+
+    public static MovedReservation of(Reservation reservation) {
+        return new MovedReservation(reservation.getId(), reservation.getSiteId(), reservation.getCheckInDate(),
+                reservation.getCheckOutDate(), reservation.getEmail(), reservation.getFullName(),
+                reservation.isCancelled(), reservation.getIdempotencyKey(), reservation.getRequestHash());
+    }
+
+    public Reservation toReservation() {
+        Reservation reservation = Reservation.copyOf(id, siteId, checkInDate, checkOutDate, email, fullName, cancelled);
+        reservation.setIdempotencyKey(idempotencyKey);
+        reservation.setRequestHash(requestHash);
+        return reservation;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getSiteId() {
+        return siteId;
+    }
+
+    public LocalDate getCheckInDate() {
+        return checkInDate;
+    }
+
+    public LocalDate getCheckOutDate() {
+        return checkOutDate;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getFullName() {
+        return fullName;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public String getRequestHash() {
+        return requestHash;
+    }
+}
@@ -0,0 +1,40 @@
+package campsite.reservation.serialization.types;
+
+/**
+ * Java type used to serialize the replication status of a read replica to JSON format
+ */
+public class ReplicaStatus {
+    private String sourceUrl;
+    private long appliedSequence;
+    private long lastSequence;
+    private long lagChanges;
+    private long lagMillis;
+
+    public ReplicaStatus(String sourceUrl, long appliedSequence, long lastSequence, long lagChanges, long lagMillis) {
+        this.sourceUrl = sourceUrl;
+        this.appliedSequence = appliedSequence;
+        this.lastSequence = lastSequence;
+        this.lagChanges = lagChanges;
+        this.lagMillis = lagMillis;
+    }
+
+    public String getSourceUrl() {
+        return sourceUrl;
+    }
+
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    public long getLagChanges() {
+        return lagChanges;
+    }
+
+    public long getLagMillis() {
+        return lagMillis;
+    }
+}
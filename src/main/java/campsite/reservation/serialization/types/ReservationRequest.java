@@ -0,0 +1,71 @@
+package campsite.reservation.serialization.types;
+
+import campsite.reservation.data.entity.Reservation;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Java type used to read a reservation of a batch from JSON format.
+ * Unlike a reservation, it is read without any check, dates included, so that a malformed reservation
+ * is reported as the failure of its own item rather than failing the whole batch.
+ */
+public class ReservationRequest {
+    private Integer siteId;
+    private String checkInDate;
+    private String checkOutDate;
+    private String email;
+    private String fullName;
+
+    @JsonCreator
+    public ReservationRequest(@JsonProperty("siteId") Integer siteId,
+                              @JsonProperty("checkInDate") String checkInDate,
+                              @JsonProperty("checkOutDate") String checkOutDate,
+                              @JsonProperty("email") String email,
+                              @JsonProperty("fullName") String fullName) {
+        this.siteId = siteId;
+        this.checkInDate = checkInDate;
+        this.checkOutDate = checkOutDate;
+        this.email = email;
+        this.fullName = fullName;
+    }
+
+    /**
+     * Checks the reservation as it is checked when read as a single reservation
+     * @return the reservation
+     * @throws IllegalArgumentException if the reservation is malformed
+     */
+    public Reservation toReservation() throws IllegalArgumentException {
+        return Reservation.of(siteId, parseDate(checkInDate), parseDate(checkOutDate), email, fullName);
+    }
+
+    public Integer getSiteId() {
+        return siteId;
+    }
+
+    public String getCheckInDate() {
+        return checkInDate;
+    }
+
+    public String getCheckOutDate() {
+        return checkOutDate;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getFullName() {
+        return fullName;
+    }
+
+    private static LocalDate parseDate(String date) throws IllegalArgumentException {
+        try {
+            return date == null ? null : LocalDate.parse(date);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date " + date, e);
+        }
+    }
+}
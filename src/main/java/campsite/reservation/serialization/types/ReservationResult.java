@@ -0,0 +1,34 @@
+package campsite.reservation.serialization.types;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Java type used to serialize the result of a reservation of a batch to JSON format:
+ * the reservation id if the reservation succeeded, the error message otherwise
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ReservationResult {
+    private String reservationId;
+    private String error;
+
+    private ReservationResult(String reservationId, String error) {
+        this.reservationId = reservationId;
+        this.error = error;
+    }
+
+    public static ReservationResult success(String reservationId) {
+        return new ReservationResult(reservationId, null);
+    }
+
+    public static ReservationResult failure(String error) {
+        return new ReservationResult(null, error);
+    }
+
+    public String getReservationId() {
+        return reservationId;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,19 @@
+package campsite.reservation.serialization.types;
+
+import java.util.List;
+
+/**
+ * Java type used to serialize the results of a batch of reservations to JSON format,
+ * in the order of the reservations of the batch
+ */
+public class ReservationResultsList {
+    private List<ReservationResult> results;
+
+    public ReservationResultsList(List<ReservationResult> results) {
+        this.results = results;
+    }
+
+    public List<ReservationResult> getResults() {
+        return results;
+    }
+}
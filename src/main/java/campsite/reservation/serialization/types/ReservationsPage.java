@@ -0,0 +1,27 @@
+package campsite.reservation.serialization.types;
+
+import campsite.reservation.data.entity.Reservation;
+
+import java.util.List;
+
+/**
+ * Java type used to serialize a page of reservations to JSON format,
+ * with the cursor to pass to get the next page, null on the last page
+ */
+public class ReservationsPage {
+    private List<Reservation> reservations;
+    private String nextCursor;
+
+    public ReservationsPage(List<Reservation> reservations, String nextCursor) {
+        this.reservations = reservations;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Reservation> getReservations() {
+        return reservations;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,24 @@
+package campsite.reservation.serialization.types;
+
+import java.util.List;
+
+/**
+ * Java type used to serialize the instances sharing the sites of the campsite to JSON format
+ */
+public class ShardMembers {
+    private String self;
+    private List<String> members;
+
+    public ShardMembers(String self, List<String> members) {
+        this.self = self;
+        this.members = members;
+    }
+
+    public String getSelf() {
+        return self;
+    }
+
+    public List<String> getMembers() {
+        return members;
+    }
+}
@@ -0,0 +1,18 @@
+package campsite.reservation.serialization.types;
+
+import java.util.List;
+
+/**
+ * Java type used to serialize a list of site identifiers to JSON format
+ */
+public class SitesList {
+    private List<Integer> sites;
+
+    public SitesList(List<Integer> sites) {
+        this.sites = sites;
+    }
+
+    public List<Integer> getSites() {
+        return sites;
+    }
+}
@@ -0,0 +1,36 @@
+package campsite.reservation.service;
+
+/**
+ * Receives the changes made to the availability of the campsite sites.
+ * Days are identified by their epoch day so that changes do not depend on the current date.
+ * Listeners are called synchronously by the thread making the change, right after it is applied in memory,
+ * and before any other change of the same days is applied: the changes of a day are notified in the order
+ * they were applied, so that replaying them rebuilds the in-memory availability.
+ */
+public interface AvailabilityListener {
+
+    /**
+     * Called when days of a site become reserved
+     * @param siteId identifier of the site
+     * @param firstEpochDay epoch day of the first reserved day
+     * @param lastEpochDay epoch day of the last reserved day (inclusive)
+     */
+    void onDaysReserved(int siteId, long firstEpochDay, long lastEpochDay);
+
+    /**
+     * Called when days of a site become free
+     * @param siteId identifier of the site
+     * @param firstEpochDay epoch day of the first released day
+     * @param lastEpochDay epoch day of the last released day (inclusive)
+     */
+    void onDaysReleased(int siteId, long firstEpochDay, long lastEpochDay);
+
+    /**
+     * Tells whether the listener is notified of the days of the holds as they are held and released.
+     * The other listeners are only notified of the days of a hold once it is confirmed, as reserved days.
+     * @return true to be notified of the days of the holds, false by default
+     */
+    default boolean receivesHolds() {
+        return false;
+    }
+}
@@ -0,0 +1,219 @@
+package campsite.reservation.service;
+
+import campsite.reservation.serialization.types.DatesList;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Immutable snapshot of the days where at least one site of the campsite is available,
+ * for a version of the availability. The available days are held as words of free days,
+ * from which the serializations of the available dates of each number of days ahead are computed once, on first use:
+ * - JSON: a {@link DatesList} of ISO dates
+ * - compact JSON: {@code {"firstEpochDay":<epoch day>,"nbDays":<number of days>,"bitmask":"<base64 bitmask>"}}
+ * - binary: | first epoch day (4 bytes) | number of days (2 bytes) | bitmask |
+ * Bit i of the bitmask, bit {@code i % 8} of byte {@code i / 8}, is set when day {@code firstEpochDay + i} is available.
+ */
+public class AvailabilitySnapshot {
+
+    private static final int BINARY_HEADER_SIZE = 6;
+
+    private final long version;
+    private final String eTag;
+    private final long firstEpochDay;
+    private final long[] freeDays;
+    private final ObjectMapper objectMapper;
+    private final AtomicReferenceArray<byte[]> jsonByNbDays;
+    private final AtomicReferenceArray<byte[]> compactJsonByNbDays;
+    private final AtomicReferenceArray<byte[]> binaryByNbDays;
+    private volatile List<LocalDate> dates; // available dates of the window, computed on first use
+
+    /**
+     * Builds an AvailabilitySnapshot
+     * @param version version of the availability
+     * @param eTag entity tag identifying the version, unique across restarts
+     * @param firstEpochDay epoch day of the first reservable day
+     * @param nbDays number of reservable days of the window
+     * @param freeDays words where bit i is set when day {@code firstEpochDay + i} is available
+     * @param objectMapper object mapper serializing the available dates
+     */
+    AvailabilitySnapshot(long version, String eTag, long firstEpochDay, int nbDays, long[] freeDays,
+                         ObjectMapper objectMapper) {
+        this.version = version;
+        this.eTag = eTag;
+        this.firstEpochDay = firstEpochDay;
+        this.freeDays = freeDays;
+        this.objectMapper = objectMapper;
+        this.jsonByNbDays = new AtomicReferenceArray<>(nbDays + 1);
+        this.compactJsonByNbDays = new AtomicReferenceArray<>(nbDays + 1);
+        this.binaryByNbDays = new AtomicReferenceArray<>(nbDays + 1);
+    }
+
+    /**
+     * Merges the binary serializations of the snapshots of instances serving some sites of the campsite each
+     * into a snapshot of the whole campsite, where a day is available when it is available on any instance
+     * @param binaries binary serializations of the snapshots of the instances, of the same days
+     * @param eTag entity tag identifying the versions of the snapshots of the instances
+     * @param objectMapper object mapper serializing the available dates
+     * @return the snapshot of the campsite, at version 0 as the instances have versions of their own
+     * @throws IllegalArgumentException if the serializations are not of the same days
+     */
+    public static AvailabilitySnapshot merge(List<byte[]> binaries, String eTag, ObjectMapper objectMapper)
+            throws IllegalArgumentException {
+        long firstEpochDay = 0;
+        int nbDays = 0;
+        long[] freeDays = null;
+        for (byte[] binary : binaries) {
+            ByteBuffer buffer = ByteBuffer.wrap(binary);
+            long binaryFirstEpochDay = buffer.getInt();
+            int binaryNbDays = Short.toUnsignedInt(buffer.getShort());
+            if (freeDays == null) {
+                firstEpochDay = binaryFirstEpochDay;
+                nbDays = binaryNbDays;
+                freeDays = new long[(nbDays + Long.SIZE - 1) / Long.SIZE];
+            } else if (binaryFirstEpochDay != firstEpochDay || binaryNbDays != nbDays) {
+                throw new IllegalArgumentException("The instances do not answer over the same days");
+            }
+            for (int i = 0; buffer.hasRemaining(); i++) {
+                freeDays[i / Long.BYTES] |= (buffer.get() & 0xFFL) << (i % Long.BYTES * Byte.SIZE);
+            }
+        }
+        if (freeDays == null) {
+            throw new IllegalArgumentException("No snapshot to merge");
+        }
+        return new AvailabilitySnapshot(0, eTag, firstEpochDay, nbDays, freeDays, objectMapper);
+    }
+
+    /**
+     * @return entity tag identifying the version of the availability
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    /**
+     * Returns the available dates of a number of days ahead
+     * @param nbDays number of days ahead
+     * @return the available dates, in increasing order
+     */
+    public List<LocalDate> getDates(int nbDays) {
+        List<LocalDate> allDates = getAllDates();
+        long endEpochDay = firstEpochDay + getNbDays(nbDays);
+        int count = 0;
+        while (count < allDates.size() && allDates.get(count).toEpochDay() < endEpochDay) {
+            count++;
+        }
+        return allDates.subList(0, count);
+    }
+
+    /**
+     * Returns the JSON serialization of the available dates of a number of days ahead, as a {@link DatesList}
+     * @param nbDays number of days ahead
+     * @return the UTF-8 JSON bytes, shared by all callers and not to be modified
+     */
+    public byte[] getJson(int nbDays) {
+        int nbDaysAhead = getNbDays(nbDays);
+        byte[] json = jsonByNbDays.get(nbDaysAhead);
+        if (json == null) {
+            try {
+                json = objectMapper.writeValueAsBytes(new DatesList(getDates(nbDaysAhead)));
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException("Failed to serialize available dates", e);
+            }
+            jsonByNbDays.set(nbDaysAhead, json);
+        }
+        return json;
+    }
+
+    /**
+     * Returns the compact JSON serialization of the available dates of a number of days ahead,
+     * the first epoch day and the bitmask of the available days
+     * @param nbDays number of days ahead
+     * @return the UTF-8 JSON bytes, shared by all callers and not to be modified
+     */
+    public byte[] getCompactJson(int nbDays) {
+        int nbDaysAhead = getNbDays(nbDays);
+        byte[] json = compactJsonByNbDays.get(nbDaysAhead);
+        if (json == null) {
+            byte[] binary = getBinary(nbDaysAhead);
+            String bitmask = Base64.getEncoder().encodeToString(Arrays.copyOfRange(binary, BINARY_HEADER_SIZE, binary.length));
+            json = ("{\"firstEpochDay\":" + firstEpochDay + ",\"nbDays\":" + nbDaysAhead + ",\"bitmask\":\"" + bitmask + "\"}")
+                    .getBytes(StandardCharsets.UTF_8);
+            compactJsonByNbDays.set(nbDaysAhead, json);
+        }
+        return json;
+    }
+
+    /**
+     * Returns the binary serialization of the available dates of a number of days ahead,
+     * the first epoch day, the number of days and the bitmask of the available days, written from the words
+     * of free days a byte at a time
+     * @param nbDays number of days ahead
+     * @return the bytes, shared by all callers and not to be modified
+     */
+    public byte[] getBinary(int nbDays) {
+        int nbDaysAhead = getNbDays(nbDays);
+        byte[] binary = binaryByNbDays.get(nbDaysAhead);
+        if (binary == null) {
+            int nbBytes = (nbDaysAhead + Byte.SIZE - 1) / Byte.SIZE;
+            ByteBuffer buffer = ByteBuffer.allocate(BINARY_HEADER_SIZE + nbBytes);
+            buffer.putInt((int) firstEpochDay).putShort((short) nbDaysAhead);
+            for (int i = 0; i < nbBytes; i++) {
+                long bits = freeDays[i / Long.BYTES] >>> (i % Long.BYTES * Byte.SIZE);
+                int remainingDays = nbDaysAhead - i * Byte.SIZE;
+                if (remainingDays < Byte.SIZE) {
+                    bits &= (1L << remainingDays) - 1;
+                }
+                buffer.put((byte) bits);
+            }
+            binary = buffer.array();
+            binaryByNbDays.set(nbDaysAhead, binary);
+        }
+        return binary;
+    }
+
+    /**
+     * @return version of the availability
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return epoch day of the first reservable day
+     */
+    public long getFirstEpochDay() {
+        return firstEpochDay;
+    }
+
+    private List<LocalDate> getAllDates() {
+        List<LocalDate> allDates = dates;
+        if (allDates == null) {
+            List<LocalDate> availableDates = new ArrayList<>();
+            for (int w = 0; w < freeDays.length; w++) {
+                long bits = freeDays[w];
+                while (bits != 0) {
+                    availableDates.add(LocalDate.ofEpochDay(firstEpochDay + (long) w * Long.SIZE + Long.numberOfTrailingZeros(bits)));
+                    bits &= bits - 1; // clear lowest set bit
+                }
+            }
+            allDates = Collections.unmodifiableList(availableDates);
+            dates = allDates;
+        }
+        return allDates;
+    }
+
+    private int getNbDays(int nbDays) {
+        return Math.max(0, Math.min(nbDays, jsonByNbDays.length() - 1));
+    }
+}
@@ -0,0 +1,15 @@
+package campsite.reservation.service;
+
+/**
+ * Strategy used to commit a batch of reservations
+ */
+public enum BatchMode {
+    /**
+     * Makes all the reservations of the batch, or none of them if any reservation fails
+     */
+    ALL_OR_NOTHING,
+    /**
+     * Makes every reservation of the batch that succeeds, and reports the failure of the others
+     */
+    PER_ITEM
+}
@@ -0,0 +1,16 @@
+package campsite.reservation.service;
+
+/**
+ * Strategy used to commit a reservation's days to the in-memory availability
+ */
+public enum CommitMode {
+    /**
+     * Acquires one striped lock per day of the reservation, then checks and marks the days
+     */
+    LOCKS,
+    /**
+     * Claims the days with a compare-and-set on the availability bitmap words,
+     * persists the reservation, then releases the days if persisting failed
+     */
+    CAS
+}
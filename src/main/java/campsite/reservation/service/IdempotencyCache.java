@@ -0,0 +1,132 @@
+package campsite.reservation.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of the results of the requests made with an idempotency key.
+ * Retries of a request are answered from the cache without running the request again,
+ * and a key sent with another request than the one it was first sent with is rejected.
+ * Keys expire after a time to live, and the oldest keys are evicted when the cache is full.
+ */
+@Component
+public class IdempotencyCache {
+
+    public static final int MAX_KEY_LENGTH = 255;
+
+    @Value("${idempotency.maxKeys:10000}")
+    private int maxKeys; // maximum number of keys held by the cache
+
+    @Value("${idempotency.ttlSeconds:86400}")
+    private long ttlSeconds; // time after which a key is evicted from the cache
+
+    // Keys in insertion order: as all keys have the same time to live, the first key is the first to expire
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * Returns the result of the request made with an idempotency key, running the request
+     * if the key is not in the cache. Concurrent requests with the same key wait for the first one
+     * and get its result. A request that fails is not cached, so that it runs again when retried.
+     * @param key idempotency key of the request
+     * @param requestHash hash of the request, the same for all retries of the request
+     * @param request function running the request
+     * @return the result of the request
+     * @throws IllegalArgumentException if the key is blank or too long
+     * @throws IdempotencyKeyReuseException if the key was first sent with another request
+     */
+    public String computeIfAbsent(String key, String requestHash, Supplier<String> request) throws IllegalArgumentException {
+        if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Idempotency key must have between 1 and " + MAX_KEY_LENGTH + " characters");
+        }
+
+        Entry entry;
+        boolean isFirstRequest = false;
+        synchronized (this) {
+            long now = System.nanoTime();
+            evictExpiredKeys(now);
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry(requestHash, now + TimeUnit.SECONDS.toNanos(ttlSeconds));
+                entries.put(key, entry);
+                evictOldestKeys();
+                isFirstRequest = true;
+            }
+        }
+
+        if (!isFirstRequest) {
+            if (!entry.requestHash.equals(requestHash)) {
+                throw new IdempotencyKeyReuseException("Idempotency key " + key + " was already used for another request");
+            }
+            return awaitResult(entry.result);
+        }
+
+        try {
+            String result = request.get();
+            entry.result.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                entries.remove(key, entry);
+            }
+            entry.result.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * @return number of keys held by the cache
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // Used for tests to empty the cache
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    private void evictExpiredKeys(long now) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext() && iterator.next().expiresAtNanos - now <= 0) {
+            iterator.remove();
+        }
+    }
+
+    private void evictOldestKeys() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (entries.size() > maxKeys && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private static String awaitResult(CompletableFuture<String> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static class Entry {
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private final String requestHash;
+        private final long expiresAtNanos;
+
+        private Entry(String requestHash, long expiresAtNanos) {
+            this.requestHash = requestHash;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+}
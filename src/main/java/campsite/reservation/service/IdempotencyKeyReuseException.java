@@ -0,0 +1,11 @@
+package campsite.reservation.service;
+
+/**
+ * Thrown when an idempotency key already used by a request is sent with a different request
+ */
+public class IdempotencyKeyReuseException extends IllegalArgumentException {
+
+    public IdempotencyKeyReuseException(String message) {
+        super(message);
+    }
+}
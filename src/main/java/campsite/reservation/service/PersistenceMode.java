@@ -0,0 +1,17 @@
+package campsite.reservation.service;
+
+/**
+ * Strategy used to make reservation writes durable
+ */
+public enum PersistenceMode {
+    /**
+     * Saves each reservation in the database while its days are being committed
+     */
+    SYNC,
+    /**
+     * Commits the reservation days in memory, then queues the reservation for the
+     * {@link ReservationWriter} which saves queued reservations in batches.
+     * The request is answered once the batch holding its reservation is durable.
+     */
+    WRITE_BEHIND
+}
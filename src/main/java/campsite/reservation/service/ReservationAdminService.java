@@ -0,0 +1,148 @@
+package campsite.reservation.service;
+
+import campsite.reservation.data.entity.Reservation;
+import campsite.reservation.data.repository.ReservationRepository;
+import campsite.reservation.serialization.types.ReservationsPage;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Provides the administration queries on the reservations.
+ * Listings are paginated with a keyset cursor instead of an offset, so that every page is read from an index
+ * whatever its position, and exports stream the rows to the output instead of loading them in memory.
+ */
+@Component
+public class ReservationAdminService {
+    private final static Logger logger = LoggerFactory.getLogger(ReservationAdminService.class.getName());
+
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    private static final char CURSOR_SEPARATOR = '_';
+
+    @Autowired
+    ReservationRepository repository;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * Returns a page of the reservations having a check-in date between two dates, ordered by check-in date
+     * @param from first check-in date
+     * @param to last check-in date (inclusive)
+     * @param cursor cursor returned with the previous page, or null to get the first page
+     * @param pageSize maximum number of reservations of the page
+     * @return the page of reservations
+     * @throws IllegalArgumentException if the page size or the cursor are invalid, or if the from date is after the to date
+     */
+    public ReservationsPage getReservationsByCheckInDate(LocalDate from, LocalDate to, String cursor, int pageSize)
+            throws IllegalArgumentException {
+        logger.info("Getting reservations with check-in date from {} to {} after cursor {}", from, to, cursor);
+        checkPageSize(pageSize);
+        checkDates(from, to);
+
+        LocalDate afterCheckInDate = from;
+        String afterId = "";
+        if (cursor != null) {
+            int separatorIndex = cursor.indexOf(CURSOR_SEPARATOR);
+            try {
+                afterCheckInDate = LocalDate.parse(cursor.substring(0, Math.max(separatorIndex, 0)));
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid cursor " + cursor, e);
+            }
+            afterId = cursor.substring(separatorIndex + 1);
+        }
+
+        List<Reservation> reservations = repository.findPageByCheckInDate(from, to, afterCheckInDate, afterId,
+                PageRequest.of(0, pageSize));
+        String nextCursor = null;
+        if (reservations.size() == pageSize) {
+            Reservation last = reservations.get(reservations.size() - 1);
+            nextCursor = last.getCheckInDate().toString() + CURSOR_SEPARATOR + last.getId();
+        }
+        return new ReservationsPage(reservations, nextCursor);
+    }
+
+    /**
+     * Returns a page of the reservations made with an email
+     * @param email email of the reservations
+     * @param cursor cursor returned with the previous page, or null to get the first page
+     * @param pageSize maximum number of reservations of the page
+     * @return the page of reservations
+     * @throws IllegalArgumentException if the page size is invalid
+     */
+    public ReservationsPage getReservationsByEmail(String email, String cursor, int pageSize)
+            throws IllegalArgumentException {
+        logger.info("Getting reservations of email {} after cursor {}", email, cursor);
+        checkPageSize(pageSize);
+
+        List<Reservation> reservations = repository.findPageByEmail(email, cursor == null ? "" : cursor,
+                PageRequest.of(0, pageSize));
+        String nextCursor = reservations.size() == pageSize ? reservations.get(reservations.size() - 1).getId() : null;
+        return new ReservationsPage(reservations, nextCursor);
+    }
+
+    /**
+     * Writes the reservations having a check-in date between two dates as a JSON array, ordered by check-in date.
+     * Rows are read from the database as they are written, and detached once written, so that the memory used
+     * does not grow with the number of reservations.
+     * @param from first check-in date
+     * @param to last check-in date (inclusive)
+     * @param outputStream stream to write the reservations to, not closed
+     * @throws IllegalArgumentException if the from date is after the to date
+     * @throws UncheckedIOException if writing to the stream fails
+     */
+    @Transactional(readOnly = true)
+    public void exportReservationsByCheckInDate(LocalDate from, LocalDate to, OutputStream outputStream)
+            throws IllegalArgumentException, UncheckedIOException {
+        logger.info("Exporting reservations with check-in date from {} to {}", from, to);
+        checkDates(from, to);
+
+        try (Stream<Reservation> reservations = repository.streamByCheckInDate(from, to);
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)
+                     .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+            generator.writeStartArray();
+            reservations.forEach(reservation -> {
+                try {
+                    generator.writeObject(reservation);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                entityManager.detach(reservation);
+            });
+            generator.writeEndArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void checkPageSize(int pageSize) throws IllegalArgumentException {
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+    }
+
+    private static void checkDates(LocalDate from, LocalDate to) throws IllegalArgumentException {
+        if (from.isAfter(to)) {
+            throw new IllegalArgumentException("From date must not be after to date");
+        }
+    }
+}
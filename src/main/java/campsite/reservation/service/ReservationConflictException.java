@@ -0,0 +1,15 @@
+package campsite.reservation.service;
+
+/**
+ * Thrown when a reservation cannot be made because one of its days is already reserved
+ */
+public class ReservationConflictException extends IllegalArgumentException {
+
+    public ReservationConflictException(String message) {
+        super(message);
+    }
+
+    public ReservationConflictException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,54 @@
+package campsite.reservation.service;
+
+import campsite.reservation.concurrent.HashedTimingWheel;
+import campsite.reservation.data.entity.Reservation;
+
+import java.time.Instant;
+
+/**
+ * Days of a site held for a reservation until the hold is confirmed or expires.
+ * A hold only lives in memory: the reservation is saved when the hold is confirmed.
+ */
+public class ReservationHold {
+
+    private final String id;
+    private final Reservation reservation;
+    private final Instant expiresAt;
+    private volatile HashedTimingWheel.Timeout expiry; // set once the hold is registered
+
+    ReservationHold(Reservation reservation, Instant expiresAt) {
+        this(Reservation.newId(reservation.getSiteId()), reservation, expiresAt);
+    }
+
+    ReservationHold(String id, Reservation reservation, Instant expiresAt) {
+        this.id = id;
+        this.reservation = reservation;
+        this.expiresAt = expiresAt;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Instant getExpiresAt() {
+        return expiresAt;
+    }
+
+    Reservation getReservation() {
+        return reservation;
+    }
+
+    /**
+     * Cancels the expiry of the hold, if it is already scheduled
+     */
+    void cancelExpiry() {
+        HashedTimingWheel.Timeout timeout = expiry;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    void setExpiry(HashedTimingWheel.Timeout expiry) {
+        this.expiry = expiry;
+    }
+}
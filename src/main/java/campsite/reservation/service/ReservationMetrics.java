@@ -0,0 +1,191 @@
+package campsite.reservation.service;
+
+import campsite.reservation.concurrent.StripedLocks;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.TimeUnit;
+
+import static campsite.reservation.data.entity.Reservation.MAX_NB_DAYS_IN_MONTH;
+
+/**
+ * Metrics of the reservation service, exposed by the actuator metrics and prometheus endpoints:
+ * - campsite.lock.wait: time waited to acquire the locks of a stay, tagged by the number of days
+ *   between the first reservable day and the first locked day, to show which days are contended
+ * - campsite.lock.held: time the locks of a stay are held
+ * - campsite.lock.acquisitions, campsite.lock.contended and campsite.lock.contention.wait: contention statistics
+ *   of the striped locks, the number of stays locked, the number of stays locked after waiting for another request,
+ *   and the total time waited
+ * - campsite.reservation.save: time to make a reservation write durable
+ * - campsite.reservation.failures: failed reservation writes, tagged by reason (timeout, conflict, rejected or version)
+ * - campsite.reservation.retries: reservation writes retried because a concurrent write modified the reservation
+ * - campsite.availability.query: latency of the available dates queries
+ */
+@Component
+public class ReservationMetrics {
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    private Timer[] lockWaitTimers; // one timer per day of the window, indexed by days ahead
+    private Timer lockHeldTimer;
+    private Timer saveTimer;
+    private Counter timeoutCounter;
+    private Counter conflictCounter;
+    private Counter rejectedCounter;
+    private Counter versionConflictCounter;
+    private Counter versionRetryCounter;
+    private Counter lookupHitCounter;
+    private Counter lookupMissCounter;
+    private Timer availabilityQueryTimer;
+
+    @PostConstruct
+    public void init() {
+        lockWaitTimers = new Timer[MAX_NB_DAYS_IN_MONTH];
+        for (int daysAhead = 0; daysAhead < lockWaitTimers.length; daysAhead++) {
+            lockWaitTimers[daysAhead] = Timer.builder("campsite.lock.wait")
+                    .description("Time waited to acquire the locks of a stay")
+                    .tag("daysAhead", String.valueOf(daysAhead))
+                    .register(meterRegistry);
+        }
+        lockHeldTimer = Timer.builder("campsite.lock.held")
+                .description("Time the locks of a stay are held")
+                .register(meterRegistry);
+        saveTimer = Timer.builder("campsite.reservation.save")
+                .description("Time to make a reservation write durable")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        timeoutCounter = Counter.builder("campsite.reservation.failures")
+                .description("Reservation writes that failed")
+                .tag("reason", "timeout")
+                .register(meterRegistry);
+        conflictCounter = Counter.builder("campsite.reservation.failures")
+                .description("Reservation writes that failed")
+                .tag("reason", "conflict")
+                .register(meterRegistry);
+        rejectedCounter = Counter.builder("campsite.reservation.failures")
+                .description("Reservation writes that failed")
+                .tag("reason", "rejected")
+                .register(meterRegistry);
+        versionConflictCounter = Counter.builder("campsite.reservation.failures")
+                .description("Reservation writes that failed")
+                .tag("reason", "version")
+                .register(meterRegistry);
+        versionRetryCounter = Counter.builder("campsite.reservation.retries")
+                .description("Reservation writes retried after a concurrent write")
+                .tag("reason", "version")
+                .register(meterRegistry);
+        lookupHitCounter = Counter.builder("campsite.reservation.lookups")
+                .description("Reservation lookups by id")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        lookupMissCounter = Counter.builder("campsite.reservation.lookups")
+                .description("Reservation lookups by id")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        availabilityQueryTimer = Timer.builder("campsite.availability.query")
+                .description("Latency of the available dates queries")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * Registers the contention statistics of the striped locks of the days
+     * @param stripedLocks striped locks of the days
+     */
+    public void registerLockStats(StripedLocks stripedLocks) {
+        FunctionCounter.builder("campsite.lock.acquisitions", stripedLocks, StripedLocks::getNbAcquisitions)
+                .description("Stays whose locks were acquired")
+                .register(meterRegistry);
+        FunctionCounter.builder("campsite.lock.contended", stripedLocks, StripedLocks::getNbContendedAcquisitions)
+                .description("Stays whose locks were acquired after waiting for another request")
+                .register(meterRegistry);
+        FunctionCounter.builder("campsite.lock.contention.wait", stripedLocks,
+                locks -> locks.getTotalWaitNanos() / (double) TimeUnit.SECONDS.toNanos(1))
+                .description("Total time waited for locks held by another request")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Records the time waited to acquire the locks of a stay.
+     * Stays starting after the first month are recorded with the last timer, so that the number of timers
+     * does not grow with the horizon.
+     * @param daysAhead number of days between the first reservable day and the first locked day
+     * @param waitNanos time waited in nanoseconds
+     */
+    public void recordLockWait(int daysAhead, long waitNanos) {
+        lockWaitTimers[Math.min(Math.max(daysAhead, 0), lockWaitTimers.length - 1)].record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the time the locks of a stay were held
+     * @param heldNanos time held in nanoseconds
+     */
+    public void recordLockHeld(long heldNanos) {
+        lockHeldTimer.record(heldNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the time to make a reservation write durable
+     * @param saveNanos time in nanoseconds
+     */
+    public void recordSave(long saveNanos) {
+        saveTimer.record(saveNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Counts a reservation write that failed to acquire its locks in time
+     */
+    public void countTimeout() {
+        timeoutCounter.increment();
+    }
+
+    /**
+     * Counts a reservation write that failed because a day was already reserved
+     */
+    public void countConflict() {
+        conflictCounter.increment();
+    }
+
+    /**
+     * Counts a reservation write rejected because too many writes already waited for its days
+     */
+    public void countRejected() {
+        rejectedCounter.increment();
+    }
+
+    /**
+     * Counts a reservation write that failed because the reservation was modified by a concurrent write
+     */
+    public void countVersionConflict() {
+        versionConflictCounter.increment();
+    }
+
+    /**
+     * Counts a reservation write retried because the reservation was modified by a concurrent write
+     */
+    public void countVersionRetry() {
+        versionRetryCounter.increment();
+    }
+
+    /**
+     * Counts a reservation lookup by id
+     * @param hit true if the reservation was found in the read model, false if it was loaded from the database
+     */
+    public void countLookup(boolean hit) {
+        (hit ? lookupHitCounter : lookupMissCounter).increment();
+    }
+
+    /**
+     * @return the timer of the available dates queries
+     */
+    public Timer availabilityQueryTimer() {
+        return availabilityQueryTimer;
+    }
+}
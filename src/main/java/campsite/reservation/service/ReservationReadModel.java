@@ -0,0 +1,98 @@
+package campsite.reservation.service;
+
+import campsite.reservation.data.entity.Reservation;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+
+/**
+ * Bounded in-memory read model of the reservations, by id.
+ * Lookups are answered from the read model without querying the database, the least recently used
+ * reservations being evicted when it is full.
+ *
+ * The read model is kept coherent by the writes of the reservation service: a write replaces the reservation
+ * by its new version once it is durable, while a reservation loaded from the database on a miss is only added
+ * if no write added it in the meantime, so that a slow lookup never replaces a more recent write.
+ * Reservations are copied in and out, so that callers never modify the cached reservations.
+ */
+@Component
+public class ReservationReadModel {
+
+    @Value("${readModel.maxReservations:10000}")
+    private int maxReservations; // maximum number of reservations held by the read model
+
+    // Reservations in access order: the first reservation is the least recently used
+    private final LinkedHashMap<String, Reservation> reservations = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Returns a copy of a reservation of the read model
+     * @param reservationId id of the reservation
+     * @return the reservation, or an empty optional if it is not in the read model
+     */
+    public synchronized Optional<Reservation> get(String reservationId) {
+        Reservation reservation = reservations.get(reservationId);
+        return reservation == null ? Optional.empty() : Optional.of(Reservation.copyOf(reservation));
+    }
+
+    /**
+     * Adds or replaces a reservation that was written, once the write is durable.
+     * A reservation is never replaced by an older version, whatever the order in which concurrent writes end.
+     * @param reservation written reservation
+     */
+    public synchronized void put(Reservation reservation) {
+        Reservation cachedReservation = reservations.get(reservation.getId());
+        if (cachedReservation == null || cachedReservation.getVersion() <= reservation.getVersion()) {
+            reservations.put(reservation.getId(), Reservation.copyOf(reservation));
+            evictLeastRecentlyUsed();
+        }
+    }
+
+    /**
+     * Adds a reservation loaded from the database, unless the read model already holds it
+     * @param reservation loaded reservation
+     */
+    public synchronized void putIfAbsent(Reservation reservation) {
+        if (reservations.putIfAbsent(reservation.getId(), Reservation.copyOf(reservation)) == null) {
+            evictLeastRecentlyUsed();
+        }
+    }
+
+    /**
+     * Removes a reservation, so that it is loaded from the database by the next lookup
+     * @param reservationId id of the reservation
+     */
+    public synchronized void remove(String reservationId) {
+        reservations.remove(reservationId);
+    }
+
+    /**
+     * Removes the reservations of a site, when the site is moved to another instance
+     * @param siteId identifier of the site
+     */
+    public synchronized void removeSite(int siteId) {
+        reservations.values().removeIf(reservation -> reservation.getSiteId() == siteId);
+    }
+
+    /**
+     * @return number of reservations held by the read model
+     */
+    public synchronized int size() {
+        return reservations.size();
+    }
+
+    // Used for tests to empty the read model
+    synchronized void clear() {
+        reservations.clear();
+    }
+
+    private void evictLeastRecentlyUsed() {
+        Iterator<String> iterator = reservations.keySet().iterator();
+        while (reservations.size() > maxReservations && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+}
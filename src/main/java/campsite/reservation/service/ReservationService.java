@@ -1,30 +1,56 @@
 package campsite.reservation.service;
 
+import campsite.reservation.concurrent.AvailabilityBitmap;
+import campsite.reservation.concurrent.DayRangeConsumer;
+import campsite.reservation.concurrent.HashedTimingWheel;
+import campsite.reservation.concurrent.LockTimeoutException;
+import campsite.reservation.concurrent.SiteAvailabilityIndex;
 import campsite.reservation.concurrent.StripedLocks;
+import campsite.reservation.concurrent.TooManyWaitersException;
 import campsite.reservation.data.entity.Reservation;
 import campsite.reservation.data.repository.ReservationRepository;
+import campsite.reservation.journal.ReservationJournal;
+import campsite.reservation.replication.AvailabilityChangeLog;
+import campsite.reservation.serialization.types.MovedHold;
+import campsite.reservation.serialization.types.MovedReservation;
+import campsite.reservation.serialization.types.ReservationResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.persistence.EntityNotFoundException;
-import javax.transaction.Transactional;
+import javax.persistence.OptimisticLockException;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-
-import static campsite.reservation.data.entity.Reservation.MAX_NB_DAYS_IN_MONTH;
-import static java.time.temporal.ChronoUnit.DAYS;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.stream.LongStream;
 
 /**
  * Provides services to process reservations
  */
 @Component
-@Transactional
 public class ReservationService {
 
     private final static Logger logger = LoggerFactory.getLogger(ReservationService.class.getName());
@@ -32,90 +58,615 @@ public class ReservationService {
     @Value("${request.maxWaitSeconds}")
     private int maxWaitSeconds; // maximum number of seconds to wait to acquire a lock
 
+    @Value("${request.maxWaitersPerDay:16}")
+    private int maxWaitersPerDay; // maximum number of requests waiting for the lock of a day of a site
+
+    @Value("${request.commitMode:LOCKS}")
+    private CommitMode commitMode; // how reservation days are committed to the in-memory availability
+
+    @Value("${persistence.mode:SYNC}")
+    private PersistenceMode persistenceMode; // how reservation writes are made durable
+
+    @Value("${campsite.nbSites:1}")
+    private int nbSites; // number of sites that can be reserved on the campsite
+
+    @Value("${campsite.horizonDays:31}")
+    private int horizonDays; // number of days ahead that can be reserved
+
+    @Value("${request.maxVersionRetries:3}")
+    private int maxVersionRetries; // number of times a write is retried when the reservation was modified concurrently
+
+    @Value("${request.lockStripesPerSite:64}")
+    private int lockStripesPerSite; // number of locks of the days of a site, whatever the horizon
+
+    @Value("${hold.ttlSeconds:600}")
+    private int holdTtlSeconds; // time after which a hold that was not confirmed is released
+
+    @Value("${hold.tickMillis:100}")
+    private int holdTickMillis; // precision of the hold expiry
+
+    @Value("${hold.nbBuckets:512}")
+    private int holdNbBuckets; // number of buckets of the hold expiry timing wheel
+
     @Autowired
     ReservationRepository repository;
 
     @Autowired
     DateResolver dateResolver;
 
-    // StripedLocks is used to acquire a subset of locks representing a subset of dates
-    // It allows to handle concurrent reservation requests on the same days
+    @Autowired
+    ReservationWriter reservationWriter;
+
+    @Autowired
+    IdempotencyCache idempotencyCache;
+
+    @Autowired
+    ReservationReadModel readModel;
+
+    @Autowired
+    ReservationMetrics metrics;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired(required = false)
+    ReservationJournal journal; // only present when the journal is enabled
+
+    @Autowired(required = false)
+    AvailabilityChangeLog changeLog; // only present when this instance publishes its changes to read replicas
+
+    @Autowired(required = false)
+    List<AvailabilityListener> availabilityListeners = new ArrayList<>();
+
+    // StripedLocks is used to acquire a subset of locks representing a subset of (site, date) pairs
+    // It allows to handle concurrent reservation requests on the same days of the same site,
+    // while reservations on different sites never contend for the same lock.
+    // The days of a site are hashed to a bounded number of locks, so that the number of locks does not grow
+    // with the horizon: days far apart may share a lock, which only serializes their reservations
     private StripedLocks stripedLocks;
 
-    // Boolean array representing the next month days availability.
-    // A true value for index i means the campsite is reserved for the <current day + i day(s)>
-    // A false value for index i means the campsite is free for the <current day + i day(s)>
+    // One bitmap per site representing the availability of the reservable days, keyed by epoch day.
+    // A set bit means the site is reserved for the day, a cleared bit means the site is free for the day.
+    // The reservable days are a rolling window starting the day after the current date,
+    // moved forward by the daily rollover, or on the first request of a day if the rollover was missed.
     //
-    // The in-memory reservedDates array allows handling large volumes of requests
+    // The in-memory reservedDates index allows handling large volumes of requests
     // to get the campsite availability as it removes the need to query the database
-    private volatile boolean[] reservedDates;
+    private SiteAvailabilityIndex reservedDates;
+
+    // Orders the changes of the reserved days notified to the availability listeners: a change is applied in memory
+    // and notified under this lock, so that the listeners record the changes of a day in the order they were applied.
+    // The listeners already serialize their records, so the lock is only taken when there are listeners.
+    private final Object availabilityChangeLock = new Object();
+
+    // Version of the availability, incremented on every change of the reserved days and on every rollover
+    private final AtomicLong availabilityVersion = new AtomicLong();
+
+    // Identifies the versions of this instance, as versions restart from 0 when the application restarts
+    private final String availabilityVersionPrefix = Long.toHexString(System.currentTimeMillis());
+
+    // Read-only transactions streaming the reserved days from the database on startup
+    private TransactionTemplate readOnlyTransactionTemplate;
+
+    // Transactions adding or removing the reservations of a site moved between instances
+    private TransactionTemplate transactionTemplate;
+
+    // Latest snapshot of the days where at least one site is available
+    private volatile AvailabilitySnapshot availabilitySnapshot;
+
+    // Holds by id. The days of a hold are reserved in reservedDates, but are neither journaled nor saved
+    // until the hold is confirmed, so that abandoned holds generate no writes.
+    private final Map<String, ReservationHold> holds = new ConcurrentHashMap<>();
+
+    // Releases the days of the holds that are not confirmed in time
+    private HashedTimingWheel holdExpiryWheel;
 
     @PostConstruct
     public void init() {
-        stripedLocks = new StripedLocks(MAX_NB_DAYS_IN_MONTH, maxWaitSeconds);
-        reservedDates = new boolean[MAX_NB_DAYS_IN_MONTH];
-        restoreReservations();
+        if (horizonDays <= 0) {
+            throw new IllegalArgumentException("The booking horizon must be at least one day");
+        }
+        reservedDates = new SiteAvailabilityIndex(nbSites, horizonDays);
+        readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        readOnlyTransactionTemplate.setReadOnly(true);
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        if (Integer.bitCount(lockStripesPerSite) != 1) {
+            throw new IllegalArgumentException("The number of lock stripes per site must be a power of two");
+        }
+        stripedLocks = new StripedLocks(nbSites * lockStripesPerSite, maxWaitSeconds, maxWaitersPerDay, false);
+        metrics.registerLockStats(stripedLocks);
+        getFirstEpochDay(); // anchors the window to the current date
+        holdExpiryWheel = new HashedTimingWheel(holdTickMillis, TimeUnit.MILLISECONDS, holdNbBuckets);
+        holdExpiryWheel.start();
+        if (changeLog != null) {
+            changeLog.setSnapshotSource(listener -> replayReservedDays(listener, true));
+        }
+
+        if (journal == null) {
+            restoreReservations();
+            return;
+        }
+
+        journal.setSnapshotSource(listener -> replayReservedDays(listener, false));
+        if (journal.isEmpty() || !journal.isClosedCleanly()) {
+            // after a crash, the journal may hold the days of reservations that were never saved
+            if (!journal.isEmpty()) {
+                logger.warn("Availability journal was not closed cleanly, restoring the availability from the database");
+            }
+            restoreReservations();
+            journal.writeSnapshot(); // the journal starts from the availability restored from the database
+        } else {
+            restoreReservationsFromJournal();
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        holdExpiryWheel.stop();
+        // the queued reservations are saved, or their days released, before the journal is closed
+        reservationWriter.flush();
     }
 
     /**
-     * Restore the reserved dates in-memory array using the database
+     * Restore the reserved dates in-memory index by replaying the journal
      */
-    private void restoreReservations() {
-        List<Reservation> reservations = repository.findReservationsFromDate(dateResolver.getCurrentDate());
-        for (Reservation reservation : reservations) {
-            int reservationIndex = getDateIndex(reservation.getCheckInDate());
-            reservedDates[reservationIndex] = true;
+    private void restoreReservationsFromJournal() {
+        journal.replay(new AvailabilityListener() {
+            @Override
+            public void onDaysReserved(int siteId, long firstEpochDay, long lastEpochDay) {
+                forEachRangeInWindow(firstEpochDay, lastEpochDay, reservedDates.site(siteId)::set);
+            }
+
+            @Override
+            public void onDaysReleased(int siteId, long firstEpochDay, long lastEpochDay) {
+                forEachRangeInWindow(firstEpochDay, lastEpochDay, reservedDates.site(siteId)::clear);
+            }
+        });
+    }
+
+    /**
+     * Replays the reserved days of every site into a listener.
+     * The days are copied under the availability change lock, as the days of a hold are claimed and released
+     * with the registration and the removal of the hold: the copy never finds the days of a hold without the hold.
+     * @param listener listener receiving the reserved days
+     * @param withHolds true to replay the days of the holds, false to leave them out
+     */
+    private void replayReservedDays(AvailabilityListener listener, boolean withHolds) {
+        long firstEpochDay = reservedDates.getFirstEpochDay();
+        long lastEpochDay = firstEpochDay + reservedDates.nbDays() - 1;
+        AvailabilityBitmap[] replayedDays = new AvailabilityBitmap[reservedDates.nbSites()];
+        runNotifiedChange(() -> {
+            for (int siteId = 0; siteId < reservedDates.nbSites(); siteId++) {
+                replayedDays[siteId] = new AvailabilityBitmap(reservedDates.nbDays());
+                reservedDates.site(siteId).forEachReservedRange(firstEpochDay, lastEpochDay, replayedDays[siteId]::set);
+            }
+            if (!withHolds) {
+                for (ReservationHold hold : holds.values()) {
+                    Reservation reservation = hold.getReservation();
+                    forEachRangeInWindow(reservation.getCheckInDate().toEpochDay(), reservation.getCheckOutDate().toEpochDay(),
+                            replayedDays[reservation.getSiteId()]::clear);
+                }
+            }
+        });
+        for (int siteId = 0; siteId < reservedDates.nbSites(); siteId++) {
+            int replayedSiteId = siteId;
+            replayedDays[siteId].forEachReservedRange(firstEpochDay, lastEpochDay, (firstDay, lastDay) ->
+                    listener.onDaysReserved(replayedSiteId, firstDay, lastDay));
         }
     }
 
     /**
-     * Returns a list of days where the campsite is available for reservation
+     * Restore the reserved dates in-memory index using the database.
+     * Only the days of the stays that are not cancelled and overlap the window are read, as epoch days, and they are
+     * set in the index as the rows are fetched, so that the restore does not load the past reservations.
+     */
+    private void restoreReservations() {
+        long startNanos = System.nanoTime();
+        long firstEpochDay = reservedDates.getFirstEpochDay();
+        LocalDate from = LocalDate.ofEpochDay(firstEpochDay);
+        LocalDate to = LocalDate.ofEpochDay(firstEpochDay + reservedDates.nbDays() - 1);
+        // A stay overlapping the window checks in at most MAX_NB_NIGHTS days before the window
+        long nbStays = readOnlyTransactionTemplate.execute(status -> repository.forEachReservedStay(
+                from.minusDays(Reservation.MAX_NB_NIGHTS), to, from, reservedDates.nbSites(),
+                (siteId, firstDay, lastDay) -> forEachRangeInWindow(firstDay, lastDay, reservedDates.site(siteId)::set)));
+        logger.info("Restored the reserved days of {} reservations from the database in {} ms",
+                nbStays, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    /**
+     * Returns a list of days where at least one site of the campsite is available for reservation
      * @param nbDays number of days ahead to check
      * @return a list of days where the campsite is available for reservation
      */
     public List<LocalDate> getAvailableDates(int nbDays) {
+        return getAvailabilitySnapshot().getDates(nbDays);
+    }
+
+    /**
+     * Returns the snapshot of the days where at least one site of the campsite is available.
+     * The snapshot is computed once per version of the availability and shared by all the callers.
+     * @return the snapshot of the current version of the availability
+     */
+    public AvailabilitySnapshot getAvailabilitySnapshot() {
         logger.info("Getting available dates list");
 
-        if (nbDays > MAX_NB_DAYS_IN_MONTH) {
-            nbDays = MAX_NB_DAYS_IN_MONTH; // nbDays can't be more that MAX_NB_DAYS_IN_MONTH
-        }
+        return metrics.availabilityQueryTimer().record(() -> {
+            long firstEpochDay = getFirstEpochDay();
+            // the version is read before the days: a change made while computing the snapshot bumps the version
+            // again after the snapshot is built, so the snapshot is never served as more recent than it is
+            long version = availabilityVersion.get();
+            AvailabilitySnapshot snapshot = availabilitySnapshot;
+            if (snapshot != null && snapshot.getVersion() == version && snapshot.getFirstEpochDay() == firstEpochDay) {
+                return snapshot;
+            }
+
+            long[] freeDays = reservedDates.getDaysWithFreeSite(firstEpochDay, reservedDates.nbDays());
+            snapshot = new AvailabilitySnapshot(version, availabilityVersionPrefix + "-" + version,
+                    firstEpochDay, reservedDates.nbDays(), freeDays, objectMapper);
+            availabilitySnapshot = snapshot;
+            return snapshot;
+        });
+    }
 
-        List<LocalDate> localDates = new ArrayList<>();
-        LocalDate localDate = dateResolver.getCurrentDate();
-        for (int i = 0; i < nbDays; i++) {
-            localDate = localDate.plusDays(1);
-            if (!reservedDates[i]) {
-                localDates.add(localDate);
+    /**
+     * @return version of the availability, incremented on every change of the reserved days and on every rollover
+     */
+    public long getAvailabilityVersion() {
+        return availabilityVersion.get();
+    }
+
+    /**
+     * Returns a list of days where a site is available for reservation
+     * @param siteId identifier of the site
+     * @param nbDays number of days ahead to check
+     * @return a list of days where the site is available for reservation
+     * @throws IllegalArgumentException if the site does not exist
+     */
+    public List<LocalDate> getAvailableDates(int siteId, int nbDays) throws IllegalArgumentException {
+        logger.info("Getting available dates list of site {}", siteId);
+
+        return metrics.availabilityQueryTimer().record(() -> {
+            List<LocalDate> localDates = new ArrayList<>();
+            long firstEpochDay = getFirstEpochDay();
+            int nbDaysToCheck = getNbDaysToCheck(nbDays);
+            if (nbDaysToCheck > 0) {
+                reservedDates.site(siteId).forEachFree(firstEpochDay, firstEpochDay + nbDaysToCheck - 1,
+                        day -> localDates.add(LocalDate.ofEpochDay(day)));
             }
+            return localDates;
+        });
+    }
+
+    /**
+     * Returns the sites that are available for every day of a stay
+     * @param checkInDate check-in date of the stay
+     * @param checkOutDate check-out date of the stay
+     * @return the identifiers of the available sites in increasing order
+     * @throws IllegalArgumentException if the stay is not within the reservable days
+     */
+    public List<Integer> getAvailableSites(LocalDate checkInDate, LocalDate checkOutDate) throws IllegalArgumentException {
+        logger.info("Getting available sites from {} to {}", checkInDate, checkOutDate);
+
+        long firstEpochDay = getFirstEpochDay();
+        long checkInEpochDay = checkInDate.toEpochDay();
+        long checkOutEpochDay = checkOutDate.toEpochDay();
+        if (checkInEpochDay < firstEpochDay || checkOutEpochDay >= firstEpochDay + reservedDates.nbDays()
+                || checkInEpochDay > checkOutEpochDay) {
+            throw new IllegalArgumentException("Dates must be between tomorrow and " + reservedDates.nbDays()
+                    + " days ahead, with check-out date after check-in date");
         }
 
-        return localDates;
+        return reservedDates.getFreeSites(checkInEpochDay, checkOutEpochDay);
+    }
+
+    /**
+     * Returns the check-in dates of the stays of a number of nights where at least one site is available
+     * @param nbNights number of nights of the stays, the check-out date being nbNights days after the check-in date
+     * @param from first check-in date to check, or null to start tomorrow
+     * @param to last check-in date to check (inclusive), or null to check until the end of the reservable days
+     * @return the check-in dates of the available stays in increasing order
+     * @throws IllegalArgumentException if the number of nights is not valid or the from date is after the to date
+     */
+    public List<LocalDate> getAvailableStays(int nbNights, LocalDate from, LocalDate to) throws IllegalArgumentException {
+        logger.info("Getting available stays of {} nights from {} to {}", nbNights, from, to);
+        return findAvailableStays(null, nbNights, from, to);
+    }
+
+    /**
+     * Returns the check-in dates of the stays of a number of nights where a site is available
+     * @param siteId identifier of the site
+     * @param nbNights number of nights of the stays, the check-out date being nbNights days after the check-in date
+     * @param from first check-in date to check, or null to start tomorrow
+     * @param to last check-in date to check (inclusive), or null to check until the end of the reservable days
+     * @return the check-in dates of the available stays in increasing order
+     * @throws IllegalArgumentException if the site does not exist, the number of nights is not valid
+     * or the from date is after the to date
+     */
+    public List<LocalDate> getAvailableStays(int siteId, int nbNights, LocalDate from, LocalDate to)
+            throws IllegalArgumentException {
+        logger.info("Getting available stays of {} nights from {} to {} of site {}", nbNights, from, to, siteId);
+        reservedDates.checkSite(siteId);
+        return findAvailableStays(siteId, nbNights, from, to);
+    }
+
+    /**
+     * Returns a reservation by id, from the read model, or from the database if the read model does not hold it
+     * @param reservationId id of the reservation
+     * @return the reservation
+     * @throws EntityNotFoundException if there is no existing reservation with the reservation id
+     */
+    public Reservation getReservation(String reservationId) throws EntityNotFoundException {
+        logger.info("Getting reservation with id {}", reservationId);
+
+        Optional<Reservation> cachedReservation = readModel.get(reservationId);
+        metrics.countLookup(cachedReservation.isPresent());
+        return cachedReservation.orElseGet(() -> {
+            Reservation reservation = repository.findById(reservationId)
+                    .orElseThrow(() -> new EntityNotFoundException("Unable to find reservation with id " + reservationId));
+            readModel.putIfAbsent(reservation);
+            return Reservation.copyOf(reservation);
+        });
     }
 
     /**
-     * Makes a reservation, stores it in the database and updates the reserved dates array
+     * Makes a reservation, stores it in the database and updates the reserved dates
      * @param reservation Reservation to store
      * @return the reservation id, if reservation was successful
-     * @throws IllegalArgumentException if any of the reservation days are already booked
+     * @throws ReservationConflictException if any of the reservation days are already booked
+     * @throws IllegalArgumentException if the reservation is invalid
+     * @throws TooManyWaitersException if too many requests already wait for the reservation days
+     * @throws LockTimeoutException if the reservation days could not be locked in time
      */
-    public String createReservation(Reservation reservation) throws IllegalArgumentException {
+    public String createReservation(Reservation reservation) throws IllegalArgumentException, TooManyWaitersException {
         logger.info("Creating new reservation {}", reservation);
 
-        int startIndex = getDateIndex(reservation.getCheckInDate());
-        int endIndex = getDateIndex(reservation.getCheckOutDate());
+        int siteId = reservation.getSiteId();
+        reservedDates.checkSite(siteId);
+        long firstDay = reservation.getCheckInDate().toEpochDay();
+        long lastDay = reservation.getCheckOutDate().toEpochDay();
+        checkInWindow(firstDay, lastDay);
+        // fail fast without waiting for the locks when a day is already reserved
+        throwExceptionIfDayIsReserved(reservedDates.site(siteId).firstReserved(firstDay, lastDay));
+
+        Supplier<CompletableFuture<Void>> createFunction = () -> {
+            throwExceptionIfDayIsReserved(claimDays(siteId, firstDay, lastDay, -1, -1));
+            return persist(reservation, true, () -> releaseDays(siteId, firstDay, lastDay, -1, -1));
+        };
+
+        awaitDurable(commit(siteId, firstDay, lastDay, createFunction));
+        readModel.put(reservation);
+
+        return reservation.getId();
+    }
+
+    /**
+     * Makes a reservation at most once for an idempotency key.
+     * Retries of a request are answered with the id of the reservation made by the first request,
+     * from the idempotency cache, or from the database if the key was evicted from the cache.
+     * The key is stored with a hash of the request, so that a key reused for another request is rejected.
+     * @param reservation Reservation to store
+     * @param idempotencyKey idempotency key of the request, or null to make the reservation unconditionally
+     * @return the reservation id, if reservation was successful
+     * @throws IllegalArgumentException if any of the reservation days are already booked, or if the key is invalid
+     * @throws IdempotencyKeyReuseException if the key was first sent with another request
+     */
+    public String createReservation(Reservation reservation, String idempotencyKey) throws IllegalArgumentException {
+        if (idempotencyKey == null) {
+            return createReservation(reservation);
+        }
+
+        String requestHash = reservation.hashRequest();
+        return idempotencyCache.computeIfAbsent(idempotencyKey, requestHash, () -> repository.findByIdempotencyKey(idempotencyKey)
+                .map(existingReservation -> {
+                    if (!requestHash.equals(existingReservation.getRequestHash())) {
+                        throw new IdempotencyKeyReuseException("Idempotency key " + idempotencyKey + " was already used for another request");
+                    }
+                    return existingReservation.getId();
+                })
+                .orElseGet(() -> {
+                    reservation.setIdempotencyKey(idempotencyKey);
+                    reservation.setRequestHash(requestHash);
+                    return createReservation(reservation);
+                }));
+    }
+
+    /**
+     * Holds the days of a reservation without saving it: the days are unavailable to other reservations
+     * until the hold is confirmed, cancelled, or expires after hold.ttlSeconds seconds.
+     * @param reservation reservation to hold the days of
+     * @return the hold, identifying the held days until it is confirmed
+     * @throws ReservationConflictException if any of the reservation days are already booked
+     * @throws IllegalArgumentException if the reservation is invalid
+     * @throws TooManyWaitersException if too many requests already wait for the reservation days
+     * @throws LockTimeoutException if the reservation days could not be locked in time
+     */
+    public ReservationHold createHold(Reservation reservation) throws IllegalArgumentException, TooManyWaitersException {
+        logger.info("Holding days of reservation {}", reservation);
+
+        int siteId = reservation.getSiteId();
+        reservedDates.checkSite(siteId);
+        long firstDay = reservation.getCheckInDate().toEpochDay();
+        long lastDay = reservation.getCheckOutDate().toEpochDay();
+        checkInWindow(firstDay, lastDay);
+        throwExceptionIfDayIsReserved(reservedDates.site(siteId).firstReserved(firstDay, lastDay));
 
-        Runnable saveFunction = () -> {
-            throwExceptionIfAnyReservationDayIsAlreadyBooked(startIndex, endIndex);
-            repository.save(reservation);
-            updateReservedDates(startIndex, endIndex, true);
+        ReservationHold hold = new ReservationHold(reservation, Instant.now().plusSeconds(holdTtlSeconds));
+        Supplier<CompletableFuture<Void>> holdFunction = () -> {
+            throwExceptionIfDayIsReserved(claimHeldDays(hold));
+            return CompletableFuture.completedFuture(null);
         };
+        commit(siteId, firstDay, lastDay, holdFunction);
 
-        // acquire lock on the days, then perform the save operations
-        stripedLocks.runSync(startIndex, endIndex, saveFunction);
+        // registered with its days before its expiry is scheduled, so that the expiry always finds the hold to release
+        hold.setExpiry(holdExpiryWheel.schedule(() -> expireHold(hold), holdTtlSeconds, TimeUnit.SECONDS));
+        return hold;
+    }
+
+    /**
+     * Confirms a hold: saves its reservation, whose days are already held
+     * @param holdId id of the hold
+     * @return the reservation id
+     * @throws EntityNotFoundException if there is no hold with the hold id, or if it expired
+     */
+    public String confirmHold(String holdId) throws EntityNotFoundException {
+        logger.info("Confirming hold with id {}", holdId);
+
+        // the held days become reserved days: they are journaled before the reservation is saved
+        ReservationHold hold = callNotifiedChange(() -> {
+            ReservationHold confirmedHold = removeHold(holdId);
+            Reservation heldReservation = confirmedHold.getReservation();
+            notifyHeldDays(heldReservation.getSiteId(), heldReservation.getCheckInDate().toEpochDay(),
+                    heldReservation.getCheckOutDate().toEpochDay(), true, false);
+            return confirmedHold;
+        });
+        Reservation reservation = hold.getReservation();
+        int siteId = reservation.getSiteId();
+        long firstDay = reservation.getCheckInDate().toEpochDay();
+        long lastDay = reservation.getCheckOutDate().toEpochDay();
+
+        awaitDurable(persist(reservation, true, () -> releaseDays(siteId, firstDay, lastDay, -1, -1)));
+        readModel.put(reservation);
 
         return reservation.getId();
     }
 
+    /**
+     * Cancels a hold, releasing its days
+     * @param holdId id of the hold
+     * @throws EntityNotFoundException if there is no hold with the hold id, or if it expired
+     */
+    public void cancelHold(String holdId) throws EntityNotFoundException {
+        logger.info("Cancelling hold with id {}", holdId);
+
+        runNotifiedChange(() -> releaseHeldDays(removeHold(holdId).getReservation()));
+    }
+
+    /**
+     * Removes a hold that is confirmed or cancelled, and cancels its expiry
+     * @throws EntityNotFoundException if there is no hold with the hold id
+     */
+    private ReservationHold removeHold(String holdId) throws EntityNotFoundException {
+        ReservationHold hold = holds.remove(holdId);
+        if (hold == null) {
+            throw new EntityNotFoundException("Unable to find hold with id " + holdId);
+        }
+        hold.cancelExpiry();
+        return hold;
+    }
+
+    /**
+     * Releases the days of a hold that was not confirmed in time, run by the hold expiry timing wheel
+     */
+    private void expireHold(ReservationHold hold) {
+        boolean expired = callNotifiedChange(() -> {
+            if (!holds.remove(hold.getId(), hold)) {
+                return false; // confirmed or cancelled in the meantime
+            }
+            releaseHeldDays(hold.getReservation());
+            return true;
+        });
+        if (expired) {
+            logger.info("Hold with id {} expired", hold.getId());
+        }
+    }
+
+    /**
+     * Makes a batch of reservations in one pass: the locks of the days of all the reservations
+     * are acquired once, and the reservations are saved in one transaction with JDBC batching.
+     * @param reservations reservations to make
+     * @param batchMode ALL_OR_NOTHING to make all the reservations or none of them,
+     *                  PER_ITEM to make every reservation that succeeds
+     * @return the result of every reservation, in the order of the reservations
+     * @throws IllegalArgumentException with the ALL_OR_NOTHING batch mode, if any reservation fails
+     */
+    public List<ReservationResult> createReservations(List<Reservation> reservations, BatchMode batchMode)
+            throws IllegalArgumentException {
+        logger.info("Creating batch of {} reservations", reservations.size());
+
+        ReservationResult[] results = new ReservationResult[reservations.size()];
+        List<Integer> candidates = new ArrayList<>(reservations.size()); // indexes of the valid reservations
+        for (int i = 0; i < reservations.size(); i++) {
+            Reservation reservation = reservations.get(i);
+            try {
+                reservedDates.checkSite(reservation.getSiteId());
+                checkInWindow(reservation.getCheckInDate().toEpochDay(), reservation.getCheckOutDate().toEpochDay());
+                candidates.add(i);
+            } catch (IllegalArgumentException e) {
+                results[i] = getFailedResult(i, e, batchMode);
+            }
+        }
+
+        Runnable commitFunction = () -> {
+            List<Integer> claimed = new ArrayList<>(candidates.size()); // indexes of the claimed reservations
+            try {
+                for (int i : candidates) {
+                    Reservation reservation = reservations.get(i);
+                    long reservedDay = claimDays(reservation.getSiteId(), reservation.getCheckInDate().toEpochDay(),
+                            reservation.getCheckOutDate().toEpochDay(), -1, -1);
+                    if (reservedDay < 0) {
+                        claimed.add(i);
+                    } else {
+                        metrics.countConflict();
+                        results[i] = getFailedResult(i, new ReservationConflictException("Day already reserved "
+                                + LocalDate.ofEpochDay(reservedDay)), batchMode);
+                    }
+                }
+
+                List<Reservation> claimedReservations = new ArrayList<>(claimed.size());
+                claimed.forEach(i -> claimedReservations.add(reservations.get(i)));
+                long saveStart = System.nanoTime();
+                List<Reservation> savedReservations = repository.saveAll(claimedReservations); // a batch is already a group commit, whatever the persistence mode
+                for (int j = 0; j < claimedReservations.size(); j++) {
+                    claimedReservations.get(j).setVersion(savedReservations.get(j).getVersion());
+                }
+                metrics.recordSave(System.nanoTime() - saveStart);
+            } catch (RuntimeException e) {
+                for (int i : claimed) {
+                    Reservation reservation = reservations.get(i);
+                    releaseDays(reservation.getSiteId(), reservation.getCheckInDate().toEpochDay(),
+                            reservation.getCheckOutDate().toEpochDay(), -1, -1);
+                }
+                throw e;
+            }
+            claimed.forEach(i -> {
+                readModel.put(reservations.get(i));
+                results[i] = ReservationResult.success(reservations.get(i).getId());
+            });
+        };
+
+        if (commitMode == CommitMode.CAS) {
+            commitFunction.run();
+        } else {
+            // acquire the locks of the union of the days of the batch at once
+            int[] lockIndexes = candidates.stream().flatMapToInt(i -> {
+                Reservation reservation = reservations.get(i);
+                return LongStream.rangeClosed(reservation.getCheckInDate().toEpochDay(),
+                        reservation.getCheckOutDate().toEpochDay())
+                        .mapToInt(day -> getLockIndex(reservation.getSiteId(), day));
+            }).toArray();
+            runSync(lockIndexes, commitFunction);
+        }
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Returns the result of a failed reservation of a batch
+     * @throws IllegalArgumentException with the ALL_OR_NOTHING batch mode, failing the whole batch
+     */
+    private static ReservationResult getFailedResult(int index, IllegalArgumentException e, BatchMode batchMode)
+            throws IllegalArgumentException {
+        if (batchMode == BatchMode.ALL_OR_NOTHING) {
+            String message = "Reservation " + index + " of the batch failed: " + e.getMessage();
+            throw e instanceof ReservationConflictException
+                    ? new ReservationConflictException(message, e) : new IllegalArgumentException(message, e);
+        }
+        return ReservationResult.failure(e.getMessage());
+    }
+
     /**
      * Updates an existing reservation.
      * Only the non-null fields in the reservationUpdate parameter
@@ -123,43 +674,90 @@ public class ReservationService {
      * @param reservationId id of the reservation to update
      * @param reservationUpdate reservation update information
      * @return the updated reservation
-     * @throws IllegalArgumentException if any of the reservation days are already booked
+     * @throws ReservationConflictException if any of the reservation days are already booked
+     * @throws IllegalArgumentException if the reservation update is invalid
+     * @throws TooManyWaitersException if too many requests already wait for the reservation days
+     * @throws LockTimeoutException if the reservation days could not be locked in time
      * @throws EntityNotFoundException if there is no existing reservation with the reservation id
      */
     public Reservation updateReservation(String reservationId, Reservation reservationUpdate)
-            throws IllegalArgumentException, EntityNotFoundException {
+            throws IllegalArgumentException, TooManyWaitersException, EntityNotFoundException {
+        return updateReservation(reservationId, reservationUpdate, null);
+    }
+
+    /**
+     * Updates an existing reservation if it is at an expected version.
+     * Only the non-null fields in the reservationUpdate parameter
+     * are applied to the reservation.
+     * Without expected version, an update conflicting with a concurrent update of the same reservation
+     * is applied again to the reservation saved by the concurrent update.
+     * @param reservationId id of the reservation to update
+     * @param reservationUpdate reservation update information
+     * @param expectedVersion version the reservation must be at, or null to update any version
+     * @return the updated reservation
+     * @throws StaleReservationException if the reservation is not at the expected version
+     * @throws ReservationConflictException if any of the reservation days are already booked,
+     * or if concurrent updates of the reservation kept conflicting with the update
+     * @throws IllegalArgumentException if the reservation update is invalid
+     * @throws TooManyWaitersException if too many requests already wait for the reservation days
+     * @throws LockTimeoutException if the reservation days could not be locked in time
+     * @throws EntityNotFoundException if there is no existing reservation with the reservation id
+     */
+    public Reservation updateReservation(String reservationId, Reservation reservationUpdate, Long expectedVersion)
+            throws IllegalArgumentException, TooManyWaitersException, EntityNotFoundException {
         logger.info("Updating reservation having id {} with {}", reservationId, reservationUpdate);
 
-        Reservation reservation = repository.getOne(reservationId);
+        return writeReservation(reservationId, expectedVersion, reservation -> update(reservation, reservationUpdate));
+    }
 
-        Reservation originalReservation = Reservation.of(reservation, dateResolver);
+    /**
+     * Applies an update to a reservation and commits it
+     * @param reservation copy of the reservation to update
+     * @param reservationUpdate reservation update information
+     * @return the updated reservation
+     */
+    private Reservation update(Reservation reservation, Reservation reservationUpdate) {
+        Reservation originalReservation = Reservation.of(reservation, dateResolver, horizonDays);
         reservation.update(reservationUpdate);
 
         if (originalReservation.equals(reservation)) {
             return reservation; // Nothing changed, no need to update
         }
 
-        // indexes of the reserved days on the original reservation
-        int originalStartIndex = getDateIndex(originalReservation.getCheckInDate());
-        int originalEndIndex = getDateIndex(originalReservation.getCheckOutDate());
+        int siteId = reservation.getSiteId();
+
+        // epoch days of the reserved days on the original reservation
+        long originalFirstDay = originalReservation.getCheckInDate().toEpochDay();
+        long originalLastDay = originalReservation.getCheckOutDate().toEpochDay();
 
-        // indexes of the reserved days on the updated reservation
-        int newStartIndex = getDateIndex(reservation.getCheckInDate());
-        int newEndIndex = getDateIndex(reservation.getCheckOutDate());
+        // epoch days of the reserved days on the updated reservation
+        long newFirstDay = reservation.getCheckInDate().toEpochDay();
+        long newLastDay = reservation.getCheckOutDate().toEpochDay();
 
-        int lowestIndex = Math.min(originalStartIndex, newStartIndex);
-        int highestIndex = Math.max(originalEndIndex, newEndIndex);
+        if (newFirstDay < originalFirstDay || newLastDay > originalLastDay) {
+            checkInWindow(newFirstDay, newLastDay); // new days to claim
+            // fail fast without waiting for the locks when a new day is already reserved
+            throwExceptionIfDayIsReserved(reservedDates.site(siteId).firstReservedExcept(newFirstDay, newLastDay,
+                    originalFirstDay, originalLastDay));
+        }
 
-        Runnable updateFunction = () -> {
-            updateReservedDates(originalStartIndex, originalEndIndex, false);
-            throwExceptionIfAnyReservationDayIsAlreadyBooked(newStartIndex, newEndIndex);
-            repository.save(reservation);
-            updateReservedDates(newStartIndex, newEndIndex, true);
+        Supplier<CompletableFuture<Void>> updateFunction = () -> {
+            // claim only the days that the original reservation does not already hold
+            throwExceptionIfDayIsReserved(claimDays(siteId, newFirstDay, newLastDay,
+                    originalFirstDay, originalLastDay));
+            return persist(reservation, false,
+                    () -> releaseDays(siteId, newFirstDay, newLastDay, originalFirstDay, originalLastDay));
         };
 
-        stripedLocks.runSync(lowestIndex, highestIndex, updateFunction);
+        awaitDurable(commit(siteId, Math.min(originalFirstDay, newFirstDay), Math.max(originalLastDay, newLastDay),
+                updateFunction));
+
+        readModel.put(reservation);
+
+        // the original days are released only once the updated reservation is durable
+        releaseDays(siteId, originalFirstDay, originalLastDay, newFirstDay, newLastDay);
 
-        return Reservation.of(reservation, dateResolver);
+        return Reservation.of(reservation, dateResolver, horizonDays);
     }
 
     /**
@@ -171,68 +769,669 @@ public class ReservationService {
     public Reservation cancelReservation(String reservationId) throws EntityNotFoundException {
         logger.info("Cancelling reservation with id {}", reservationId);
 
-        Reservation reservation = repository.getOne(reservationId);
+        return writeReservation(reservationId, null, this::cancel);
+    }
+
+    /**
+     * Cancels a reservation and commits it
+     * @param reservation copy of the reservation to cancel
+     * @return the cancelled reservation
+     */
+    private Reservation cancel(Reservation reservation) {
+        if (reservation.isCancelled()) {
+            return reservation; // already cancelled, e.g. by a concurrent cancellation: its days are already released
+        }
         reservation.setCancelled(true);
-        int startIndex = getDateIndex(reservation.getCheckInDate());
-        int endIndex = getDateIndex(reservation.getCheckOutDate());
+        int siteId = reservation.getSiteId();
+        long firstDay = reservation.getCheckInDate().toEpochDay();
+        long lastDay = reservation.getCheckOutDate().toEpochDay();
 
-        Runnable cancelFunction = () -> {
-            repository.save(reservation);
-            updateReservedDates(startIndex, endIndex, false);
-        };
+        Supplier<CompletableFuture<Void>> cancelFunction = () -> persist(reservation, false, () -> {});
+
+        awaitDurable(commit(siteId, firstDay, lastDay, cancelFunction));
+        readModel.put(reservation);
 
-        stripedLocks.runSync(startIndex, endIndex, cancelFunction);
+        // the days are released only once the cancellation is durable
+        releaseDays(siteId, firstDay, lastDay, -1, -1);
 
-        return Reservation.of(reservation, dateResolver);
+        return Reservation.of(reservation, dateResolver, horizonDays);
     }
 
     /**
-     * This method should be called at the end of a day as it shifts the reserved days array
-     * to start from the next element (representing the next day)
+     * Moves the reservable days window to start the day after the current date.
+     * This method should be called at the start of a day. It is idempotent and catches up
+     * any number of missed days: requests also move the window when they find it late.
      */
     public void moveReservedDatesToNextDay() {
         logger.info("Moving reserved dates to next day");
-        System.arraycopy(reservedDates, 1, reservedDates, 0, reservedDates.length - 1);
+        getFirstEpochDay();
     }
 
-    // Used for tests to get a copy of the reserved dates array
+    /**
+     * Sets the sites served by this instance, the other sites being served by other instances.
+     * Park-wide availability queries only consider the served sites.
+     * @param isServed predicate telling whether a site identifier is served by this instance
+     */
+    public void serveSites(IntPredicate isServed) {
+        reservedDates.setServedSites(isServed);
+        availabilityVersion.incrementAndGet();
+    }
+
+    /**
+     * Returns all the reservations of a site, including the past and cancelled reservations,
+     * to move the site to another instance
+     * @param siteId identifier of the site
+     * @return the reservations of the site
+     * @throws IllegalArgumentException if the site does not exist
+     */
+    public List<Reservation> getSiteReservations(int siteId) throws IllegalArgumentException {
+        logger.info("Getting the reservations of site {}", siteId);
+        reservedDates.checkSite(siteId);
+        return repository.findBySiteId(siteId);
+    }
+
+    /**
+     * Adds the reservations of a site moved from another instance, and reserves the days of the reservations
+     * that are not cancelled. The site must not be served while its reservations are added.
+     * @param siteId identifier of the site
+     * @param reservations all the reservations of the site
+     * @throws IllegalArgumentException if the site does not exist or a reservation is not a reservation of the site
+     */
+    public void addSiteReservations(int siteId, List<Reservation> reservations) throws IllegalArgumentException {
+        logger.info("Adding {} reservations of site {}", reservations.size(), siteId);
+        reservedDates.checkSite(siteId);
+        for (Reservation reservation : reservations) {
+            if (reservation.getSiteId() != siteId) {
+                throw new IllegalArgumentException("Reservation " + reservation.getId() + " is not a reservation of site " + siteId);
+            }
+        }
+
+        List<Reservation> savedReservations = transactionTemplate.execute(status -> repository.saveAll(reservations));
+        for (Reservation reservation : savedReservations) {
+            if (!reservation.isCancelled()) {
+                runNotifiedChange(() -> forEachRangeInWindow(reservation.getCheckInDate().toEpochDay(),
+                        reservation.getCheckOutDate().toEpochDay(), (firstDayInWindow, lastDayInWindow) -> {
+                            reservedDates.site(siteId).set(firstDayInWindow, lastDayInWindow);
+                            availabilityVersion.incrementAndGet();
+                            notifyDaysReserved(siteId, firstDayInWindow, lastDayInWindow, -1, -1);
+                        }));
+            }
+            readModel.put(reservation);
+        }
+    }
+
+    /**
+     * Returns the holds of a site that are not expired, to move the site to another instance
+     * @param siteId identifier of the site
+     * @return the holds of the site
+     * @throws IllegalArgumentException if the site does not exist
+     */
+    public List<MovedHold> getSiteHolds(int siteId) throws IllegalArgumentException {
+        logger.info("Getting the holds of site {}", siteId);
+        reservedDates.checkSite(siteId);
+        Instant now = Instant.now();
+        List<MovedHold> siteHolds = new ArrayList<>();
+        for (ReservationHold hold : holds.values()) {
+            if (hold.getReservation().getSiteId() == siteId && hold.getExpiresAt().isAfter(now)) {
+                siteHolds.add(new MovedHold(hold.getId(), hold.getExpiresAt(), MovedReservation.of(hold.getReservation())));
+            }
+        }
+        return siteHolds;
+    }
+
+    /**
+     * Adds the holds of a site moved from another instance, and holds their days until the holds expire
+     * at the time set by the previous owner. The site must not be served while its holds are added.
+     * @param siteId identifier of the site
+     * @param movedHolds the holds of the site
+     * @throws IllegalArgumentException if the site does not exist or a hold is not a hold of the site
+     */
+    public void addSiteHolds(int siteId, List<MovedHold> movedHolds) throws IllegalArgumentException {
+        logger.info("Adding {} holds of site {}", movedHolds.size(), siteId);
+        reservedDates.checkSite(siteId);
+        for (MovedHold movedHold : movedHolds) {
+            if (movedHold.getReservation().getSiteId() != siteId) {
+                throw new IllegalArgumentException("Hold " + movedHold.getHoldId() + " is not a hold of site " + siteId);
+            }
+        }
+
+        for (MovedHold movedHold : movedHolds) {
+            long ttlMillis = Duration.between(Instant.now(), movedHold.getExpiresAt()).toMillis();
+            if (ttlMillis <= 0) {
+                continue; // expired while it was moved
+            }
+            Reservation reservation = movedHold.getReservation().toReservation();
+            ReservationHold hold = new ReservationHold(movedHold.getHoldId(), reservation, movedHold.getExpiresAt());
+            runNotifiedChange(() -> {
+                forEachRangeInWindow(reservation.getCheckInDate().toEpochDay(), reservation.getCheckOutDate().toEpochDay(),
+                        (firstDayInWindow, lastDayInWindow) -> {
+                            reservedDates.site(siteId).set(firstDayInWindow, lastDayInWindow);
+                            availabilityVersion.incrementAndGet();
+                            notifyHeldDays(siteId, firstDayInWindow, lastDayInWindow, true, true);
+                        });
+                holds.put(hold.getId(), hold);
+            });
+            hold.setExpiry(holdExpiryWheel.schedule(() -> expireHold(hold), ttlMillis, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /**
+     * Removes the reservations and holds of a site moved to another instance, and releases the days of the site.
+     * The site must not be served while its reservations are removed, and its holds must have been moved
+     * with its reservations.
+     * @param siteId identifier of the site
+     * @throws IllegalArgumentException if the site does not exist
+     */
+    public void removeSiteReservations(int siteId) throws IllegalArgumentException {
+        logger.info("Removing the reservations of site {}", siteId);
+        reservedDates.checkSite(siteId);
+
+        holds.values().removeIf(hold -> {
+            if (hold.getReservation().getSiteId() != siteId) {
+                return false;
+            }
+            hold.cancelExpiry();
+            return true;
+        });
+        transactionTemplate.execute(status -> repository.deleteBySiteId(siteId));
+        long firstEpochDay = getFirstEpochDay();
+        releaseDays(siteId, firstEpochDay, firstEpochDay + reservedDates.nbDays() - 1, -1, -1);
+        readModel.removeSite(siteId);
+    }
+
+    /**
+     * Clears the reserved days of a read replica before it loads a snapshot of the availability of the writer instance.
+     * Queries answered while the snapshot is loaded may find free days that are reserved.
+     */
+    public void resetReplicatedAvailability() {
+        logger.info("Resetting the replicated availability");
+        reservedDates.clearAll();
+        getFirstEpochDay();
+        availabilityVersion.incrementAndGet();
+    }
+
+    /**
+     * Applies a change of the availability of the writer instance to a read replica,
+     * without notifying the availability listeners. Days outside of the reservable days are ignored.
+     * @param siteId identifier of the site
+     * @param firstEpochDay epoch day of the first changed day
+     * @param lastEpochDay epoch day of the last changed day (inclusive)
+     * @param reserved true if the days became reserved, false if they became free
+     * @throws IllegalArgumentException if the site does not exist
+     */
+    public void applyReplicatedChange(int siteId, long firstEpochDay, long lastEpochDay, boolean reserved)
+            throws IllegalArgumentException {
+        reservedDates.checkSite(siteId);
+        forEachRangeInWindow(firstEpochDay, lastEpochDay, (firstDayInWindow, lastDayInWindow) -> {
+            if (reserved) {
+                reservedDates.site(siteId).set(firstDayInWindow, lastDayInWindow);
+            } else {
+                reservedDates.site(siteId).clear(firstDayInWindow, lastDayInWindow);
+            }
+            availabilityVersion.incrementAndGet();
+        });
+    }
+
+    // Used for tests to read a snapshot of the availability as written to the journal
+    void replayJournaledDays(AvailabilityListener listener) {
+        replayReservedDays(listener, false);
+    }
+
+    // Used for tests to get a copy of the reserved dates of the default site, starting with the first reservable day
     boolean[] getReservedDates() {
-        return Arrays.copyOf(reservedDates, MAX_NB_DAYS_IN_MONTH);
+        return reservedDates.site(Reservation.DEFAULT_SITE_ID).toBooleanArray(getFirstEpochDay(), reservedDates.nbDays());
     }
 
-    // Used for tests to reset the reserved dates array
+    // Used for tests to reset the reserved dates and the holds, the window is anchored again by the next request
     void resetReservedDates() {
-        reservedDates = new boolean[MAX_NB_DAYS_IN_MONTH];
+        holds.values().forEach(ReservationHold::cancelExpiry);
+        holds.clear();
+        reservedDates.clearAll();
+        availabilityVersion.incrementAndGet();
+    }
+
+    // Used for tests to rebuild the reserved dates from the database, as on startup without a journal
+    void restoreReservedDates() {
+        resetReservedDates();
+        getFirstEpochDay();
+        restoreReservations();
+    }
+
+    // Used for tests to empty the idempotency cache
+    void resetIdempotencyCache() {
+        idempotencyCache.clear();
+    }
+
+    // Used for tests to empty the read model
+    void resetReadModel() {
+        readModel.clear();
+    }
+
+    // Used for tests to switch between commit modes
+    void setCommitMode(CommitMode commitMode) {
+        this.commitMode = commitMode;
+    }
+
+    // Used for tests to switch between persistence modes
+    void setPersistenceMode(PersistenceMode persistenceMode) {
+        this.persistenceMode = persistenceMode;
+    }
+
+    /**
+     * Claims the days of a site between two days, skipping the days of a range already owned,
+     * and notifies the availability listeners of the claimed days
+     * @return -1 if all the days were claimed, or the epoch day of the first day already reserved
+     */
+    private long claimDays(int siteId, long firstDay, long lastDay, long ownedFirstDay, long ownedLastDay) {
+        if (availabilityListeners.isEmpty()) {
+            return holdDays(siteId, firstDay, lastDay, ownedFirstDay, ownedLastDay);
+        }
+        synchronized (availabilityChangeLock) {
+            long reservedDay = holdDays(siteId, firstDay, lastDay, ownedFirstDay, ownedLastDay);
+            if (reservedDay < 0) {
+                notifyDaysReserved(siteId, firstDay, lastDay, ownedFirstDay, ownedLastDay);
+            }
+            return reservedDay;
+        }
+    }
+
+    /**
+     * Claims the days of a site between two days, skipping the days of a range already owned,
+     * without notifying the availability listeners
+     * @return -1 if all the days were claimed, or the epoch day of the first day already reserved
+     */
+    private long holdDays(int siteId, long firstDay, long lastDay, long ownedFirstDay, long ownedLastDay) {
+        // the days checked by the request may have left the window since: only the days still within it are claimed
+        long firstEpochDay = reservedDates.getFirstEpochDay();
+        long firstDayInWindow = Math.max(firstDay, firstEpochDay);
+        long lastDayInWindow = Math.min(lastDay, firstEpochDay + reservedDates.nbDays() - 1);
+        if (firstDayInWindow > lastDayInWindow) {
+            return -1;
+        }
+        long reservedDay = reservedDates.site(siteId).tryClaimExcept(firstDayInWindow, lastDayInWindow,
+                ownedFirstDay, ownedLastDay);
+        if (reservedDay < 0) {
+            availabilityVersion.incrementAndGet();
+        }
+        return reservedDay;
+    }
+
+    /**
+     * Notifies the availability listeners of the reserved days of a site between two days,
+     * skipping the days of a range already owned
+     */
+    private void notifyDaysReserved(int siteId, long firstDay, long lastDay, long ownedFirstDay, long ownedLastDay) {
+        forEachRangeExcept(firstDay, lastDay, ownedFirstDay, ownedLastDay, (first, last) -> {
+            for (AvailabilityListener listener : availabilityListeners) {
+                listener.onDaysReserved(siteId, first, last);
+            }
+        });
+    }
+
+    /**
+     * Claims the days of a hold and registers the hold, notifying the availability listeners receiving the holds.
+     * The days are claimed and the hold registered under the availability change lock, so that the snapshots
+     * of the availability never find the days of the hold without the hold.
+     * @return -1 if all the days were claimed, or the epoch day of the first day already reserved
+     */
+    private long claimHeldDays(ReservationHold hold) {
+        Reservation reservation = hold.getReservation();
+        int siteId = reservation.getSiteId();
+        long firstDay = reservation.getCheckInDate().toEpochDay();
+        long lastDay = reservation.getCheckOutDate().toEpochDay();
+        return callNotifiedChange(() -> {
+            long reservedDay = holdDays(siteId, firstDay, lastDay, -1, -1);
+            if (reservedDay < 0) {
+                holds.put(hold.getId(), hold);
+                notifyHeldDays(siteId, firstDay, lastDay, true, true);
+            }
+            return reservedDay;
+        });
+    }
+
+    /**
+     * Releases the days of a hold that are within the window, notifying the availability listeners receiving the holds.
+     * Runs under the availability change lock with the removal of the hold.
+     */
+    private void releaseHeldDays(Reservation reservation) {
+        int siteId = reservation.getSiteId();
+        forEachRangeInWindow(reservation.getCheckInDate().toEpochDay(), reservation.getCheckOutDate().toEpochDay(),
+                (firstDayInWindow, lastDayInWindow) -> {
+                    reservedDates.site(siteId).clear(firstDayInWindow, lastDayInWindow);
+                    availabilityVersion.incrementAndGet();
+                    notifyHeldDays(siteId, firstDayInWindow, lastDayInWindow, false, true);
+                });
+    }
+
+    /**
+     * Notifies the days of a hold that became reserved or free either to the availability listeners receiving
+     * the holds, as the hold is claimed or released, or to the other listeners, as the hold is confirmed
+     */
+    private void notifyHeldDays(int siteId, long firstDay, long lastDay, boolean reserved, boolean receivesHolds) {
+        for (AvailabilityListener listener : availabilityListeners) {
+            if (listener.receivesHolds() != receivesHolds) {
+                continue;
+            }
+            if (reserved) {
+                listener.onDaysReserved(siteId, firstDay, lastDay);
+            } else {
+                listener.onDaysReleased(siteId, firstDay, lastDay);
+            }
+        }
+    }
+
+    /**
+     * Releases the days of a site between two days that are within the window, keeping the days
+     * of another range reserved, and notifies the availability listeners of the released days
+     */
+    private void releaseDays(int siteId, long firstDay, long lastDay, long keptFirstDay, long keptLastDay) {
+        runNotifiedChange(() -> forEachRangeInWindow(firstDay, lastDay, (firstDayInWindow, lastDayInWindow) -> {
+            reservedDates.site(siteId).clearExcept(firstDayInWindow, lastDayInWindow, keptFirstDay, keptLastDay);
+            availabilityVersion.incrementAndGet();
+            forEachRangeExcept(firstDayInWindow, lastDayInWindow, keptFirstDay, keptLastDay, (first, last) -> {
+                for (AvailabilityListener listener : availabilityListeners) {
+                    listener.onDaysReleased(siteId, first, last);
+                }
+            });
+        }));
+    }
+
+    /**
+     * Runs a change of the reserved days that notifies the availability listeners under the availability change lock,
+     * so that a concurrent change of the same days cannot be applied in between and notified first
+     */
+    private void runNotifiedChange(Runnable change) {
+        callNotifiedChange(() -> {
+            change.run();
+            return null;
+        });
+    }
+
+    /**
+     * Calls a change of the reserved days that notifies the availability listeners under the availability change lock
+     * @return the result of the change
+     */
+    private <T> T callNotifiedChange(Supplier<T> change) {
+        if (availabilityListeners.isEmpty()) {
+            return change.get();
+        }
+        synchronized (availabilityChangeLock) {
+            return change.get();
+        }
+    }
+
+    /**
+     * Calls an action with the (at most two) ranges of days between two days that are outside an excluded range
+     */
+    private static void forEachRangeExcept(long firstDay, long lastDay, long excludedFirstDay, long excludedLastDay,
+                                           DayRangeConsumer action) {
+        if (excludedFirstDay < 0 || excludedLastDay < firstDay || excludedFirstDay > lastDay) {
+            action.accept(firstDay, lastDay);
+            return;
+        }
+        if (firstDay < excludedFirstDay) {
+            action.accept(firstDay, excludedFirstDay - 1);
+        }
+        if (lastDay > excludedLastDay) {
+            action.accept(excludedLastDay + 1, lastDay);
+        }
     }
 
-    private void throwExceptionIfAnyReservationDayIsAlreadyBooked(int newStartIndex, int newEndIndex) throws IllegalArgumentException {
-        for (int i = newStartIndex; i <= newEndIndex; i++) {
-            if (reservedDates[i]) {
-                throw new IllegalArgumentException("Day already reserved " + dateResolver.getCurrentDate().plusDays(i + 1));
+    /**
+     * Commits the days of a site to the in-memory availability.
+     * With the LOCKS commit mode, the commit function runs while holding the locks of the days within the window,
+     * with the CAS commit mode it runs without locks, claiming the days with compare-and-set.
+     * @param siteId identifier of the site
+     * @param firstDay epoch day of the first day to commit
+     * @param lastDay epoch day of the last day to commit (inclusive)
+     * @param commitFunction function updating the site days and persisting the reservation
+     * @return a future completed once the reservation is durable
+     */
+    private CompletableFuture<Void> commit(int siteId, long firstDay, long lastDay,
+                                           Supplier<CompletableFuture<Void>> commitFunction) {
+        if (commitMode == CommitMode.CAS) {
+            return commitFunction.get();
+        }
+
+        long firstEpochDay = getFirstEpochDay();
+        long firstLockedDay = Math.max(firstDay, firstEpochDay);
+        long lastLockedDay = Math.min(lastDay, firstEpochDay + reservedDates.nbDays() - 1);
+        if (firstLockedDay > lastLockedDay) {
+            return commitFunction.get(); // no day of the window to lock
+        }
+
+        List<CompletableFuture<Void>> durable = new ArrayList<>(1);
+        long lockStart = System.nanoTime();
+        Runnable commitRunnable = () -> {
+            long lockedAt = System.nanoTime();
+            metrics.recordLockWait((int) (firstLockedDay - firstEpochDay), lockedAt - lockStart);
+            try {
+                durable.add(commitFunction.get());
+            } finally {
+                metrics.recordLockHeld(System.nanoTime() - lockedAt);
             }
+        };
+
+        // acquire lock on the days of the site, then perform the commit
+        // the locks of a site follow the circular bitmap of the site, so the locked range may wrap around:
+        // the striped locks acquire them in index order against one deadline
+        runSync(LongStream.rangeClosed(firstLockedDay, lastLockedDay).mapToInt(day -> getLockIndex(siteId, day)).toArray(),
+                commitRunnable);
+        return durable.get(0);
+    }
+
+    /**
+     * Runs a runnable once the striped locks at a set of indexes are acquired, counting the failures to acquire them
+     * @throws TooManyWaitersException if too many requests already wait for one of the locks
+     * @throws LockTimeoutException if the locks could not be acquired in time
+     */
+    private void runSync(int[] lockIndexes, Runnable runnable) throws TooManyWaitersException, LockTimeoutException {
+        try {
+            stripedLocks.runSync(lockIndexes, runnable);
+        } catch (TooManyWaitersException e) {
+            metrics.countRejected();
+            throw e;
+        } catch (LockTimeoutException e) {
+            metrics.countTimeout();
+            throw e;
         }
     }
 
-    private void updateReservedDates(int startIndex, int endIndex, boolean isReserved) {
-        for (int i = startIndex; i <= endIndex; i++) {
-            reservedDates[i] = isReserved;
+    /**
+     * Persists a reservation according to the persistence mode.
+     * With the SYNC persistence mode, the reservation is saved before returning,
+     * with the WRITE_BEHIND persistence mode, it is queued to the reservation writer.
+     * @param reservation reservation to persist
+     * @param isNew true if the reservation is not yet in the database, false otherwise
+     * @param rollback function releasing the days committed in memory if persisting fails
+     * @return a future completed once the reservation is durable
+     */
+    private CompletableFuture<Void> persist(Reservation reservation, boolean isNew, Runnable rollback) {
+        long saveStart = System.nanoTime();
+        if (persistenceMode == PersistenceMode.WRITE_BEHIND) {
+            return reservationWriter.write(reservation, isNew).whenComplete((result, e) -> {
+                if (e != null) {
+                    rollback.run();
+                } else {
+                    metrics.recordSave(System.nanoTime() - saveStart);
+                }
+            });
         }
+
+        try {
+            reservation.setVersion(repository.saveAndFlush(reservation).getVersion());
+        } catch (RuntimeException e) {
+            rollback.run();
+            throw e;
+        }
+        metrics.recordSave(System.nanoTime() - saveStart);
+        return CompletableFuture.completedFuture(null);
     }
 
     /**
-     * Returns the number of days between the current date and the parameter date
-     * @param date parameter date
-     * @return number of days between the current date and the parameter date
+     * Waits until a reservation write is durable
+     * @param durable future completed once the reservation is durable
      */
-    private int getDateIndex(LocalDate date) {
+    private void awaitDurable(CompletableFuture<Void> durable) {
         try {
-            return Math.toIntExact(DAYS.between(dateResolver.getCurrentDate(), date)) - 1;
-        } catch (ArithmeticException e) {
-            throw new RuntimeException("Difference between current date "
-                    + dateResolver.getCurrentDate()
-                    + " and date "
-                    + date
-                    + " is too big");
+            durable.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a reservation with optimistic concurrency control: the write is computed from a copy of the reservation
+     * at its current version, and saving it fails if a concurrent write saved another version in the meantime.
+     * The days of the failed write are released, then the write is retried from the saved version,
+     * at most request.maxVersionRetries times. Writes of different reservations never wait for each other.
+     * @param reservationId id of the reservation to write
+     * @param expectedVersion version the reservation must be at, or null to write any version
+     * @param write function modifying and committing a copy of the reservation
+     * @return the written reservation
+     * @throws StaleReservationException if the reservation is not at the expected version
+     * @throws ReservationConflictException if concurrent writes of the reservation kept conflicting with the write
+     */
+    private Reservation writeReservation(String reservationId, Long expectedVersion, Function<Reservation, Reservation> write)
+            throws StaleReservationException, ReservationConflictException {
+        for (int attempt = 0; ; attempt++) {
+            Reservation reservation = getReservationToWrite(reservationId);
+            if (expectedVersion != null && reservation.getVersion() != expectedVersion) {
+                metrics.countVersionConflict();
+                throw new StaleReservationException("Reservation " + reservationId + " is at version "
+                        + reservation.getVersion() + ", not at version " + expectedVersion);
+            }
+            try {
+                return write.apply(reservation);
+            } catch (RuntimeException e) {
+                if (!isVersionConflict(e)) {
+                    throw e;
+                }
+                readModel.remove(reservationId); // the next attempt reads the saved version
+                if (expectedVersion != null) {
+                    metrics.countVersionConflict();
+                    throw new StaleReservationException("Reservation " + reservationId
+                            + " was modified since version " + expectedVersion, e);
+                }
+                if (attempt >= maxVersionRetries) {
+                    metrics.countVersionConflict();
+                    throw new ReservationConflictException("Reservation " + reservationId
+                            + " was modified concurrently, please try again", e);
+                }
+                metrics.countVersionRetry();
+                logger.debug("Reservation with id {} was modified concurrently, retrying", reservationId);
+            }
+        }
+    }
+
+    private static boolean isVersionConflict(RuntimeException e) {
+        return e instanceof OptimisticLockingFailureException || e instanceof OptimisticLockException;
+    }
+
+    /**
+     * Returns a detached copy of the reservation to modify, looked up in the read model first.
+     * The service methods do not run in a transaction, so that no database connection is held
+     * while waiting for locks or for a write-behind batch: the changes of the copy are saved
+     * by the repository or the reservation writer in their own transaction.
+     * @param reservationId id of the reservation
+     * @return the reservation to modify
+     * @throws EntityNotFoundException if there is no existing reservation with the reservation id
+     */
+    private Reservation getReservationToWrite(String reservationId) throws EntityNotFoundException {
+        return Reservation.of(getReservation(reservationId), dateResolver, horizonDays);
+    }
+
+    private void throwExceptionIfDayIsReserved(long reservedDay) throws ReservationConflictException {
+        if (reservedDay >= 0) {
+            metrics.countConflict();
+            throw new ReservationConflictException("Day already reserved " + LocalDate.ofEpochDay(reservedDay));
+        }
+    }
+
+    /**
+     * Returns the check-in dates of the available stays of a site, or of any site if the site is null.
+     * A stay reserves its days from check-in to check-out, so a stay of n nights needs n + 1 free days.
+     */
+    private List<LocalDate> findAvailableStays(Integer siteId, int nbNights, LocalDate from, LocalDate to) {
+        if (nbNights < 1 || nbNights > Reservation.MAX_NB_NIGHTS) {
+            throw new IllegalArgumentException("Stay length must be between 1 and " + Reservation.MAX_NB_NIGHTS + " nights");
+        }
+        if (from != null && to != null && from.isAfter(to)) {
+            throw new IllegalArgumentException("From date must not be after to date");
+        }
+
+        return metrics.availabilityQueryTimer().record(() -> {
+            List<LocalDate> localDates = new ArrayList<>();
+            long firstEpochDay = getFirstEpochDay();
+            // check-in dates are clipped to the reservable days, with the check-out date on the last reservable day at most
+            long firstStartDay = from == null ? firstEpochDay : Math.max(from.toEpochDay(), firstEpochDay);
+            long lastStartDay = firstEpochDay + reservedDates.nbDays() - 1 - nbNights;
+            if (to != null) {
+                lastStartDay = Math.min(lastStartDay, to.toEpochDay());
+            }
+            if (firstStartDay <= lastStartDay) {
+                LongConsumer addDate = day -> localDates.add(LocalDate.ofEpochDay(day));
+                if (siteId == null) {
+                    reservedDates.forEachFreeRunStartOnAnySite(firstStartDay, lastStartDay, nbNights + 1, addDate);
+                } else {
+                    reservedDates.site(siteId).forEachFreeRunStart(firstStartDay, lastStartDay, nbNights + 1, addDate);
+                }
+            }
+            return localDates;
+        });
+    }
+
+    private int getNbDaysToCheck(int nbDays) {
+        return Math.min(nbDays, reservedDates.nbDays()); // nbDays can't be more than the horizon
+    }
+
+    /**
+     * Returns the index of the lock guarding a day of a site.
+     * A day keeps the same lock as the window moves, as its lock only depends on its epoch day.
+     */
+    private int getLockIndex(int siteId, long day) {
+        return siteId * lockStripesPerSite + (int) (day & (lockStripesPerSite - 1));
+    }
+
+    /**
+     * Calls an action with the part of an epoch day range that is within the reservable days
+     */
+    private void forEachRangeInWindow(long firstDay, long lastDay, DayRangeConsumer action) {
+        long firstEpochDay = reservedDates.getFirstEpochDay();
+        long firstDayInWindow = Math.max(firstDay, firstEpochDay);
+        long lastDayInWindow = Math.min(lastDay, firstEpochDay + reservedDates.nbDays() - 1);
+        if (firstDayInWindow <= lastDayInWindow) {
+            action.accept(firstDayInWindow, lastDayInWindow);
+        }
+    }
+
+    /**
+     * Checks that days are within the reservable days
+     * @param firstDay epoch day of the first day
+     * @param lastDay epoch day of the last day (inclusive)
+     * @throws IllegalArgumentException if a day is outside of the reservable days
+     */
+    private void checkInWindow(long firstDay, long lastDay) throws IllegalArgumentException {
+        long firstEpochDay = getFirstEpochDay();
+        if (firstDay < firstEpochDay || lastDay > firstEpochDay + reservedDates.nbDays() - 1) {
+            throw new IllegalArgumentException("Days must be within the next " + reservedDates.nbDays() + " days");
+        }
+    }
+
+    /**
+     * Moves the window of reservable days to the current date if the daily rollover did not run yet,
+     * then returns the first day of the window. Readers use the returned day for the whole request
+     * and writers address days by epoch day, so a concurrent rollover does not move the days they work on.
+     * @return the epoch day of the first reservable day
+     */
+    private long getFirstEpochDay() {
+        if (reservedDates.rollOverTo(dateResolver.getCurrentDate().toEpochDay() + 1)) {
+            availabilityVersion.incrementAndGet();
+            logger.info("Moved reservable days window to start on {}", LocalDate.ofEpochDay(reservedDates.getFirstEpochDay()));
         }
+        return reservedDates.getFirstEpochDay();
     }
 }
@@ -0,0 +1,189 @@
+package campsite.reservation.service;
+
+import campsite.reservation.data.entity.Reservation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Write-behind persistence of reservations with group commit.
+ * Reservations are queued by request threads and saved by a single writer thread,
+ * which groups the queued reservations in batches saved in one transaction.
+ * A batch is flushed when it reaches the maximum batch size, or when the maximum latency
+ * has elapsed since its first reservation was taken from the queue.
+ */
+@Component
+public class ReservationWriter {
+
+    private final static Logger logger = LoggerFactory.getLogger(ReservationWriter.class.getName());
+
+    @Value("${persistence.maxBatchSize:100}")
+    private int maxBatchSize; // maximum number of reservations saved in one transaction
+
+    @Value("${persistence.maxBatchLatencyMillis:5}")
+    private long maxBatchLatencyMillis; // maximum time to wait for more reservations before saving a batch
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final BlockingQueue<PendingWrite> pendingWrites = new LinkedBlockingQueue<>();
+    private final AtomicInteger nbUnsaved = new AtomicInteger(); // writes queued or being saved
+
+    private TransactionTemplate transactionTemplate;
+    private Thread writerThread;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        running = true;
+        writerThread = new Thread(this::writeBatches, "reservation-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        writerThread.interrupt();
+        writerThread.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    /**
+     * Waits until the queued reservations are saved, or failed to be saved, for at most 10 seconds
+     */
+    public void flush() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (nbUnsaved.get() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Queues a reservation to be saved
+     * @param reservation reservation to save
+     * @param isNew true if the reservation is not yet in the database, false otherwise
+     * @return a future completed once the reservation is durable,
+     * or completed exceptionally if the reservation could not be saved
+     */
+    public CompletableFuture<Void> write(Reservation reservation, boolean isNew) {
+        PendingWrite pendingWrite = new PendingWrite(reservation, isNew);
+        if (!running) {
+            pendingWrite.durable.completeExceptionally(new IllegalStateException("Reservation writer is stopped"));
+        } else {
+            nbUnsaved.incrementAndGet();
+            pendingWrites.add(pendingWrite);
+        }
+        return pendingWrite.durable;
+    }
+
+    private void writeBatches() {
+        List<PendingWrite> batch = new ArrayList<>(maxBatchSize);
+        while (running) {
+            try {
+                batch.add(pendingWrites.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxBatchLatencyMillis);
+                while (batch.size() < maxBatchSize) {
+                    PendingWrite pendingWrite = pendingWrites.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (pendingWrite == null) {
+                        break;
+                    }
+                    batch.add(pendingWrite);
+                }
+            } catch (InterruptedException e) {
+                logger.debug("Reservation writer interrupted, saving the remaining reservations");
+            }
+            saveBatch(batch);
+            batch.clear();
+        }
+        pendingWrites.drainTo(batch);
+        saveBatch(batch);
+    }
+
+    /**
+     * Saves a batch of reservations in one transaction.
+     * If the transaction fails, each reservation is saved in its own transaction
+     * so that one failing reservation does not fail the whole batch.
+     */
+    private void saveBatch(List<PendingWrite> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            save(batch);
+            logger.debug("Saved batch of {} reservations", batch.size());
+            batch.forEach(pendingWrite -> pendingWrite.durable.complete(null));
+        } catch (RuntimeException batchException) {
+            logger.warn("Failed to save batch of {} reservations, saving them one by one", batch.size(), batchException);
+            for (PendingWrite pendingWrite : batch) {
+                try {
+                    save(List.of(pendingWrite));
+                    pendingWrite.durable.complete(null);
+                } catch (RuntimeException e) {
+                    pendingWrite.durable.completeExceptionally(e);
+                }
+            }
+        } finally {
+            nbUnsaved.addAndGet(-batch.size()); // counted once the days of the failed writes are released
+        }
+    }
+
+    private void save(List<PendingWrite> batch) {
+        long[] versions = transactionTemplate.execute(status -> {
+            List<Reservation> managedReservations = new ArrayList<>(batch.size());
+            Set<String> reservationIds = new HashSet<>();
+            for (PendingWrite pendingWrite : batch) {
+                if (!reservationIds.add(pendingWrite.reservation.getId())) {
+                    // the version of a reservation written twice in the batch is incremented by the first write
+                    // before merging the second one, so that the second one fails if it was computed from the first version
+                    entityManager.flush();
+                }
+                if (pendingWrite.isNew) {
+                    entityManager.persist(pendingWrite.reservation);
+                    managedReservations.add(pendingWrite.reservation);
+                } else {
+                    managedReservations.add(entityManager.merge(pendingWrite.reservation));
+                }
+            }
+            entityManager.flush();
+            entityManager.clear();
+            return managedReservations.stream().mapToLong(Reservation::getVersion).toArray();
+        });
+        // the saved versions are only set once the transaction is committed, a failed batch being saved again
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).reservation.setVersion(versions[i]);
+        }
+    }
+
+    private static class PendingWrite {
+        private final Reservation reservation;
+        private final boolean isNew;
+        private final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+        private PendingWrite(Reservation reservation, boolean isNew) {
+            this.reservation = reservation;
+            this.isNew = isNew;
+        }
+    }
+}
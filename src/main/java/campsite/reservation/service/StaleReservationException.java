@@ -0,0 +1,15 @@
+package campsite.reservation.service;
+
+/**
+ * Thrown when a reservation cannot be modified because it is not at the version expected by the caller
+ */
+public class StaleReservationException extends IllegalArgumentException {
+
+    public StaleReservationException(String message) {
+        super(message);
+    }
+
+    public StaleReservationException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
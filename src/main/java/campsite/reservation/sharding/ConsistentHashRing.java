@@ -0,0 +1,76 @@
+package campsite.reservation.sharding;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring assigning the sites of the campsite to the instances of the application.
+ * Each instance is placed on the ring at several virtual nodes, and a site is owned by the first virtual node
+ * following the hash of the site, so that adding or removing an instance only moves the sites of its virtual nodes.
+ * A ring is immutable: a membership change builds a new ring.
+ */
+public class ConsistentHashRing {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final List<String> members;
+    private final TreeMap<Long, String> virtualNodes = new TreeMap<>();
+
+    /**
+     * Builds a ring
+     * @param members base URLs of the instances
+     * @param nbVirtualNodes number of virtual nodes of each instance
+     * @throws IllegalArgumentException if there is no instance or no virtual node
+     */
+    public ConsistentHashRing(List<String> members, int nbVirtualNodes) throws IllegalArgumentException {
+        if (members.isEmpty()) {
+            throw new IllegalArgumentException("The ring must have at least one instance");
+        }
+        if (nbVirtualNodes <= 0) {
+            throw new IllegalArgumentException("Each instance must have at least one virtual node");
+        }
+        this.members = Collections.unmodifiableList(new ArrayList<>(members));
+        for (String member : members) {
+            for (int i = 0; i < nbVirtualNodes; i++) {
+                virtualNodes.put(hash(member + "#" + i), member);
+            }
+        }
+    }
+
+    /**
+     * @return base URLs of the instances
+     */
+    public List<String> getMembers() {
+        return members;
+    }
+
+    /**
+     * Returns the instance owning a site
+     * @param siteId site identifier
+     * @return base URL of the instance owning the site
+     */
+    public String getOwner(int siteId) {
+        Map.Entry<Long, String> virtualNode = virtualNodes.ceilingEntry(hash("site-" + siteId));
+        return virtualNode != null ? virtualNode.getValue() : virtualNodes.firstEntry().getValue();
+    }
+
+    /**
+     * 64-bit FNV-1a hash of a key, mixed so that keys differing by their last characters spread over the ring
+     */
+    static long hash(String key) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
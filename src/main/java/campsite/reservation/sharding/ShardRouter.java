@@ -0,0 +1,301 @@
+package campsite.reservation.sharding;
+
+import campsite.reservation.data.entity.Reservation;
+import campsite.reservation.serialization.types.MovedHold;
+import campsite.reservation.serialization.types.MovedReservation;
+import campsite.reservation.service.ReservationService;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.Collectors;
+
+/**
+ * Assigns the sites of the campsite to the instances of the application with a {@link ConsistentHashRing},
+ * so that booking writes scale with the number of instances. Each instance holds the availability and the
+ * reservations of the sites it owns in its own database.
+ *
+ * An instance joining the campsite starts with the current members, without itself, so that it owns no site.
+ * When the membership changes, every instance is given the new members: an instance gaining a site pulls the
+ * reservations of the site from its previous owner, then has the previous owner remove them. While a site
+ * is moved, the requests of the site are rejected by both instances, as neither of them holds all its days.
+ */
+@Component
+@ConditionalOnProperty(name = "sharding.enabled", havingValue = "true")
+public class ShardRouter {
+    private final static Logger logger = LoggerFactory.getLogger(ShardRouter.class.getName());
+
+    // Header of the park-wide queries sent to every instance, answered over the sites of the instance only
+    public static final String LOCAL_QUERY_HEADER = "X-Shard-Local";
+
+    @Value("${sharding.self}")
+    private String self; // base URL of this instance
+
+    @Value("${sharding.members}")
+    private String[] members; // base URLs of the instances sharing the sites, without this instance when it joins
+
+    @Value("${sharding.virtualNodes:128}")
+    private int nbVirtualNodes; // number of virtual nodes of each instance on the ring
+
+    @Value("${sharding.drainTimeoutSeconds:10}")
+    private int drainTimeoutSeconds; // maximum time to wait for the requests of a moved site to end
+
+    @Value("${campsite.nbSites:1}")
+    private int nbSites;
+
+    @Autowired
+    ReservationService reservationService;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+
+    private volatile ConsistentHashRing ring;
+
+    // Sites owned by this instance whose reservations are still held by their previous owner, by previous owner
+    private final Map<Integer, String> incomingSites = new ConcurrentHashMap<>();
+
+    // Sites whose reservations were moved to another instance, before this instance is given the new members
+    private final Set<Integer> outgoingSites = ConcurrentHashMap.newKeySet();
+
+    // Number of requests being processed for each site, so that a site is only moved once they are done
+    private AtomicIntegerArray inFlightRequests;
+
+    @PostConstruct
+    public void init() {
+        self = normalize(self);
+        ring = new ConsistentHashRing(normalize(Arrays.asList(members)), nbVirtualNodes);
+        inFlightRequests = new AtomicIntegerArray(nbSites);
+        reservationService.serveSites(this::isServed);
+        logger.info("Serving sites {} of {} instances", getServedSites(), ring.getMembers().size());
+    }
+
+    /**
+     * @return base URL of this instance
+     */
+    public String getSelf() {
+        return self;
+    }
+
+    /**
+     * @return base URLs of the instances sharing the sites
+     */
+    public List<String> getMembers() {
+        return ring.getMembers();
+    }
+
+    /**
+     * Returns the instance owning a site
+     * @param siteId site identifier
+     * @return base URL of the owner, or null if the site does not exist
+     */
+    public String getOwner(int siteId) {
+        return siteId >= 0 && siteId < nbSites ? ring.getOwner(siteId) : null;
+    }
+
+    /**
+     * @return true if the site is being moved between this instance and another instance
+     */
+    public boolean isMoving(int siteId) {
+        return incomingSites.containsKey(siteId) || outgoingSites.contains(siteId);
+    }
+
+    /**
+     * @return true if this instance owns the site and holds all its reservations
+     */
+    public boolean isServed(int siteId) {
+        return self.equals(getOwner(siteId)) && !isMoving(siteId);
+    }
+
+    /**
+     * Counts a request of a site being processed, before checking that the site is served
+     * @param siteId site identifier
+     */
+    public void requestStarted(int siteId) {
+        inFlightRequests.incrementAndGet(siteId);
+    }
+
+    /**
+     * Counts a request of a site that ended
+     * @param siteId site identifier
+     */
+    public void requestEnded(int siteId) {
+        inFlightRequests.decrementAndGet(siteId);
+    }
+
+    /**
+     * Changes the instances sharing the sites, then moves the reservations of the sites gained by this instance
+     * from their previous owners. Sites whose reservations could not be moved stay rejected,
+     * and are moved again on the next call.
+     * @param newMembers base URLs of the instances sharing the sites
+     * @return the sites moved to this instance
+     * @throws IllegalArgumentException if there is no instance
+     */
+    public synchronized List<Integer> rebalance(List<String> newMembers) throws IllegalArgumentException {
+        ConsistentHashRing oldRing = ring;
+        ConsistentHashRing newRing = new ConsistentHashRing(normalize(newMembers), nbVirtualNodes);
+        for (int siteId = 0; siteId < nbSites; siteId++) {
+            String oldOwner = oldRing.getOwner(siteId);
+            if (!self.equals(newRing.getOwner(siteId))) {
+                incomingSites.remove(siteId);
+            } else if (!self.equals(oldOwner)) {
+                incomingSites.putIfAbsent(siteId, oldOwner);
+                outgoingSites.remove(siteId);
+            }
+        }
+        ring = newRing;
+        reservationService.serveSites(this::isServed);
+        logger.info("Instances changed to {}, moving sites {} to this instance", newRing.getMembers(), incomingSites.keySet());
+
+        List<Integer> movedSites = new ArrayList<>();
+        for (Map.Entry<Integer, String> incomingSite : incomingSites.entrySet()) {
+            try {
+                moveSite(incomingSite.getKey(), incomingSite.getValue());
+                incomingSites.remove(incomingSite.getKey());
+                movedSites.add(incomingSite.getKey());
+            } catch (RuntimeException e) {
+                logger.error("Failed to move site {} from {}", incomingSite.getKey(), incomingSite.getValue(), e);
+            }
+        }
+        reservationService.serveSites(this::isServed);
+        return movedSites;
+    }
+
+    /**
+     * Stops serving a site moved to another instance, and waits for the requests of the site to end,
+     * so that the reservations of the site can be read by its new owner
+     * @param siteId site identifier
+     * @throws IllegalStateException if the requests of the site did not end in time
+     */
+    public void releaseSite(int siteId) throws IllegalStateException {
+        outgoingSites.add(siteId);
+        reservationService.serveSites(this::isServed);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(drainTimeoutSeconds);
+        while (inFlightRequests.get(siteId) > 0) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Requests of site " + siteId + " did not end in time");
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the requests of site " + siteId, e);
+            }
+        }
+    }
+
+    /**
+     * Sends a park-wide query to every instance, each instance answering over the sites it serves
+     * @param pathAndQuery path and query string of the query
+     * @param accept media type of the answers of the instances
+     * @return the responses of the instances
+     * @throws UncheckedIOException if an instance did not answer, as the answer would miss the days of its sites
+     */
+    public List<HttpResponse<byte[]>> queryAllMembers(String pathAndQuery, String accept) throws UncheckedIOException {
+        List<String> queriedMembers = ring.getMembers();
+        List<CompletableFuture<HttpResponse<byte[]>>> responses = queriedMembers.stream()
+                .map(member -> httpClient.sendAsync(HttpRequest.newBuilder(URI.create(member + pathAndQuery))
+                        .header(LOCAL_QUERY_HEADER, "true")
+                        .header(HttpHeaders.ACCEPT, accept)
+                        .timeout(Duration.ofSeconds(10))
+                        .GET().build(), HttpResponse.BodyHandlers.ofByteArray()))
+                .collect(Collectors.toList());
+        List<HttpResponse<byte[]>> memberResponses = new ArrayList<>(responses.size());
+        for (int i = 0; i < responses.size(); i++) {
+            try {
+                memberResponses.add(responses.get(i).join());
+            } catch (CompletionException e) {
+                IOException cause = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                throw new UncheckedIOException("Instance " + queriedMembers.get(i) + " did not answer the park-wide query", cause);
+            }
+        }
+        return memberResponses;
+    }
+
+    /**
+     * Copies the reservations and holds of a site from its previous owner, then has the previous owner remove them
+     */
+    private void moveSite(int siteId, String previousOwner) {
+        String siteUri = previousOwner + "/admin/shards/sites/" + siteId;
+        List<MovedReservation> movedReservations = read(siteUri + "/reservations", new TypeReference<>() {
+        });
+        List<MovedHold> movedHolds = read(siteUri + "/holds", new TypeReference<>() {
+        });
+        List<Reservation> reservations = movedReservations.stream()
+                .map(MovedReservation::toReservation)
+                .collect(Collectors.toList());
+        reservationService.addSiteReservations(siteId, reservations);
+        reservationService.addSiteHolds(siteId, movedHolds);
+        send(HttpRequest.newBuilder(URI.create(siteUri + "/reservations")).DELETE().build());
+        logger.info("Moved {} reservations and {} holds of site {} from {}", reservations.size(), movedHolds.size(),
+                siteId, previousOwner);
+    }
+
+    private <T> T read(String uri, TypeReference<T> type) {
+        HttpResponse<byte[]> response = send(HttpRequest.newBuilder(URI.create(uri)).GET().build());
+        try {
+            return objectMapper.readValue(response.body(), type);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + uri, e);
+        }
+    }
+
+    private HttpResponse<byte[]> send(HttpRequest request) {
+        try {
+            HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() / 100 != 2) {
+                throw new IllegalStateException(request.method() + " " + request.uri() + " failed with status " + response.statusCode());
+            }
+            return response;
+        } catch (IOException e) {
+            throw new UncheckedIOException(request.method() + " " + request.uri() + " failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(request.method() + " " + request.uri() + " was interrupted", e);
+        }
+    }
+
+    private List<Integer> getServedSites() {
+        List<Integer> servedSites = new ArrayList<>();
+        for (int siteId = 0; siteId < nbSites; siteId++) {
+            if (isServed(siteId)) {
+                servedSites.add(siteId);
+            }
+        }
+        return servedSites;
+    }
+
+    private static List<String> normalize(List<String> members) {
+        return members.stream().map(ShardRouter::normalize).distinct().collect(Collectors.toList());
+    }
+
+    private static String normalize(String member) {
+        String trimmed = member.trim();
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+}
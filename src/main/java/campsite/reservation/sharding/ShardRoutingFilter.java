@@ -0,0 +1,333 @@
+package campsite.reservation.sharding;
+
+import campsite.reservation.data.entity.Reservation;
+import campsite.reservation.rest.AvailabilityFormat;
+import campsite.reservation.serialization.types.DatesList;
+import campsite.reservation.serialization.types.SitesList;
+import campsite.reservation.service.AvailabilitySnapshot;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeSet;
+
+/**
+ * Routes the reservation requests to the instance owning their site, with the {@link ShardRouter}.
+ * The site of a request is read from its siteId parameter, from the identifier of the reservation or hold
+ * in its path, or from the reservations of its body. A request of a site owned by another instance is
+ * redirected to it with a 307 status, so that the client repeats the request, body included, on the owner.
+ * Park-wide availability queries are sent to every instance and their answers are merged: the available dates
+ * are merged from the bitmasks of the instances, then served in the format and with the ETag handling of the controller.
+ * The availability stream is refused with a 503 status, as an instance would only stream the days of its own sites.
+ */
+@Component
+@ConditionalOnProperty(name = "sharding.enabled", havingValue = "true")
+public class ShardRoutingFilter extends OncePerRequestFilter {
+
+    private static final String RESERVATIONS_PATH = "/reservations";
+    private static final Set<String> PARK_WIDE_QUERIES = Set.of("availableDates", "availableSites", "availableStays");
+    private static final String AVAILABILITY_STREAM = "availability";
+    private static final Set<String> COLLECTIONS = Set.of("", "holds", "batch");
+    private static final int UNKNOWN_SITE = -1;
+
+    @Autowired
+    ShardRouter router;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !request.getRequestURI().startsWith(RESERVATIONS_PATH);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String[] pathSegments = request.getRequestURI().substring(RESERVATIONS_PATH.length()).split("/");
+        String resource = pathSegments.length > 1 ? pathSegments[1] : "";
+        String siteIdParameter = request.getParameter("siteId");
+
+        if (resource.equals(AVAILABILITY_STREAM)) {
+            // each instance only pushes the changes of its own sites, which clients would take for the whole park
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(),
+                    "The availability stream is not served when the sites are sharded, query the available dates instead");
+            return;
+        }
+        if (PARK_WIDE_QUERIES.contains(resource) && siteIdParameter == null) {
+            if (request.getHeader(ShardRouter.LOCAL_QUERY_HEADER) != null) {
+                chain.doFilter(request, response);
+            } else {
+                queryAllMembers(resource, request, response);
+            }
+            return;
+        }
+
+        int siteId = UNKNOWN_SITE;
+        if (siteIdParameter != null) {
+            siteId = parseSiteId(siteIdParameter);
+        } else if (resource.equals("holds") && pathSegments.length > 2) {
+            siteId = Reservation.siteIdOf(pathSegments[2]); // hold id
+        } else if (pathSegments.length == 2 && !COLLECTIONS.contains(resource)) {
+            siteId = Reservation.siteIdOf(resource); // reservation id
+        } else if (request.getMethod().equals("POST")) {
+            BodyCachingRequest bodyCachingRequest = new BodyCachingRequest(request);
+            request = bodyCachingRequest;
+            try {
+                JsonNode body = objectMapper.readTree(bodyCachingRequest.body);
+                siteId = body != null ? getSiteId(body) : UNKNOWN_SITE;
+            } catch (JsonProcessingException e) {
+                siteId = UNKNOWN_SITE; // rejected by the controller
+            } catch (IllegalArgumentException e) {
+                response.sendError(HttpStatus.BAD_REQUEST.value(), e.getMessage());
+                return;
+            }
+        }
+
+        String owner = router.getOwner(siteId);
+        if (owner == null) {
+            chain.doFilter(request, response); // not a request of a site, or of an unknown site rejected by the service
+        } else if (!owner.equals(router.getSelf())) {
+            String query = request.getQueryString();
+            response.setStatus(HttpStatus.TEMPORARY_REDIRECT.value());
+            response.setHeader(HttpHeaders.LOCATION, owner + request.getRequestURI() + (query == null ? "" : "?" + query));
+        } else {
+            processOnOwner(siteId, request, response, chain);
+        }
+    }
+
+    /**
+     * Processes a request of a site owned by this instance, unless the site is being moved
+     */
+    private void processOnOwner(int siteId, HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        router.requestStarted(siteId);
+        boolean ended = true;
+        try {
+            if (router.isMoving(siteId)) {
+                response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "Site " + siteId + " is being moved between instances");
+                return;
+            }
+            chain.doFilter(request, response);
+            if (request.isAsyncStarted()) {
+                ended = false; // booking requests end when their future completes
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override // also called after a timeout or an error
+                    public void onComplete(AsyncEvent event) {
+                        router.requestEnded(siteId);
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onError(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                    }
+                });
+            }
+        } finally {
+            if (ended) {
+                router.requestEnded(siteId);
+            }
+        }
+    }
+
+    /**
+     * Sends a park-wide query to every instance and merges their answers.
+     * Answers 503 if an instance does not answer, rather than merging answers missing the days of its sites.
+     */
+    private void queryAllMembers(String resource, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        boolean availableDates = resource.equals("availableDates");
+        String query = request.getQueryString();
+        List<HttpResponse<byte[]>> memberResponses;
+        try {
+            // the available dates are merged from the bitmasks of the instances, whatever the format of the response
+            memberResponses = router.queryAllMembers(request.getRequestURI() + (query == null ? "" : "?" + query),
+                    availableDates ? AvailabilityFormat.BINARY.getMediaType().toString() : MediaType.APPLICATION_JSON_VALUE);
+        } catch (UncheckedIOException e) {
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), e.getMessage());
+            return;
+        }
+
+        for (HttpResponse<byte[]> memberResponse : memberResponses) {
+            if (memberResponse.statusCode() != HttpStatus.OK.value()) {
+                response.setStatus(memberResponse.statusCode()); // relays the error of the instance
+                response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+                response.getOutputStream().write(memberResponse.body());
+                return;
+            }
+        }
+        if (availableDates) {
+            writeAvailableDates(memberResponses, request, response);
+            return;
+        }
+
+        Set<LocalDate> dates = new TreeSet<>();
+        Set<Integer> sites = new TreeSet<>();
+        for (HttpResponse<byte[]> memberResponse : memberResponses) {
+            JsonNode answer = objectMapper.readTree(memberResponse.body());
+            answer.path("dates").forEach(date -> dates.add(LocalDate.parse(date.asText())));
+            answer.path("sites").forEach(site -> sites.add(site.asInt()));
+        }
+
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        Object merged = resource.equals("availableSites") ? new SitesList(List.copyOf(sites)) : new DatesList(List.copyOf(dates));
+        objectMapper.writeValue(response.getOutputStream(), merged);
+    }
+
+    /**
+     * Merges the bitmasks of the available days of the instances, and writes the available dates in the format
+     * negotiated with the Accept header of the request, as the controller does. The entity tag is made of the
+     * entity tags of the instances, so that a request with a matching If-None-Match header gets a 304
+     * until an instance changes its availability.
+     */
+    private void writeAvailableDates(List<HttpResponse<byte[]>> memberResponses, HttpServletRequest request,
+                                     HttpServletResponse response) throws IOException {
+        List<byte[]> binaries = new ArrayList<>(memberResponses.size());
+        StringJoiner eTag = new StringJoiner("+");
+        for (HttpResponse<byte[]> memberResponse : memberResponses) {
+            binaries.add(memberResponse.body());
+            eTag.add(memberResponse.headers().firstValue(HttpHeaders.ETAG).orElse("").replace("\"", ""));
+        }
+        AvailabilitySnapshot snapshot;
+        try {
+            snapshot = AvailabilitySnapshot.merge(binaries, eTag.toString(), objectMapper);
+        } catch (IllegalArgumentException e) {
+            // e.g. the instances do not agree on the first reservable day around midnight
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), e.getMessage());
+            return;
+        }
+
+        AvailabilityFormat format = AvailabilityFormat.negotiate(request.getHeader(HttpHeaders.ACCEPT));
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT); // caches keep one representation per format
+        if (new ServletWebRequest(request, response).checkNotModified(format.getETag(snapshot))) {
+            return; // 304 with the ETag header set by checkNotModified
+        }
+        response.setContentType(format.getMediaType().toString());
+        response.getOutputStream().write(format.write(snapshot, Integer.parseInt(request.getParameter("nbDays"))));
+    }
+
+    /**
+     * Returns the site of the reservations of a request body, the default site if a reservation has no site
+     * @throws IllegalArgumentException if the reservations are on sites owned by several instances
+     */
+    private int getSiteId(JsonNode body) throws IllegalArgumentException {
+        if (!body.isArray()) {
+            return body.path("siteId").asInt(Reservation.DEFAULT_SITE_ID);
+        }
+        int siteId = UNKNOWN_SITE;
+        String owner = null;
+        for (JsonNode reservation : body) {
+            int reservationSiteId = reservation.path("siteId").asInt(Reservation.DEFAULT_SITE_ID);
+            String reservationOwner = router.getOwner(reservationSiteId);
+            if (owner != null && reservationOwner != null && !owner.equals(reservationOwner)) {
+                throw new IllegalArgumentException("The reservations of a batch must be on sites served by the same instance");
+            }
+            if (reservationOwner != null) {
+                siteId = reservationSiteId;
+                owner = reservationOwner;
+            }
+        }
+        return siteId;
+    }
+
+    private static int parseSiteId(String siteId) {
+        try {
+            return Integer.parseInt(siteId);
+        } catch (NumberFormatException e) {
+            return UNKNOWN_SITE; // rejected by the controller
+        }
+    }
+
+    /**
+     * Request whose body is read once to find its site, then read again by the controller
+     */
+    private static class BodyCachingRequest extends HttpServletRequestWrapper {
+
+        private final byte[] body;
+
+        BodyCachingRequest(HttpServletRequest request) throws IOException {
+            super(request);
+            this.body = StreamUtils.copyToByteArray(request.getInputStream());
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream inputStream = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public boolean isFinished() {
+                    return inputStream.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override // the body is already read: all the data is available at once
+                public void setReadListener(ReadListener readListener) {
+                    try {
+                        if (!isFinished()) {
+                            readListener.onDataAvailable();
+                        }
+                        readListener.onAllDataRead();
+                    } catch (IOException e) {
+                        readListener.onError(e);
+                    }
+                }
+
+                @Override
+                public int read() {
+                    return inputStream.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    return inputStream.read(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            return new BufferedReader(new InputStreamReader(getInputStream(), StandardCharsets.UTF_8));
+        }
+    }
+}
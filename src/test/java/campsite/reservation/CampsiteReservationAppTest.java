@@ -1,5 +1,6 @@
 package campsite.reservation;
 
+import campsite.reservation.rest.AvailabilityFormat;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -11,8 +12,14 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
 
+import java.nio.ByteBuffer;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
@@ -25,6 +32,37 @@ class CampsiteReservationAppTest {
     @Autowired
     private MockMvc mockMvc;
 
+    // Booking endpoints return futures with the ASYNC execution mode: dispatches their result to get the response
+    private ResultActions perform(RequestBuilder bookingRequest) throws Exception {
+        ResultActions resultActions = mockMvc.perform(bookingRequest);
+        MvcResult result = resultActions.andReturn();
+        return result.getRequest().isAsyncStarted() ? mockMvc.perform(asyncDispatch(result)) : resultActions;
+    }
+
+    @Test
+    void malformedReservationsOfABatchFailOneByOne() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        ArrayNode batch = mapper.createArrayNode();
+        for (String checkInDate : List.of(LocalDate.now().plusDays(10).toString(), "2020-13-01",
+                LocalDate.now().plusDays(12).toString())) {
+            ObjectNode reservation = batch.addObject();
+            reservation.put("checkInDate", checkInDate);
+            reservation.put("checkOutDate", LocalDate.now().plusDays(13).toString());
+            reservation.put("email", "john.doe@email.com");
+            reservation.put("fullName", "JohnDoe");
+        }
+        ((ObjectNode) batch.get(2)).remove("email");
+
+        MvcResult batchResult = perform(post("/reservations/batch").param("mode", "PER_ITEM")
+                .content(batch.toString())
+                .contentType(MediaType.APPLICATION_JSON)
+        ).andExpect(status().isCreated()).andReturn();
+        JsonNode results = mapper.readTree(batchResult.getResponse().getContentAsString()).get("results");
+        assertThat(results.get(0).has("reservationId")).isTrue();
+        assertThat(results.get(1).get("error").asText()).isEqualTo("Invalid date 2020-13-01");
+        assertThat(results.get(2).has("error")).isTrue();
+    }
+
     @Test
     void restAPIIntegrationTest() throws Exception {
         ObjectMapper mapper = new ObjectMapper();
@@ -42,7 +80,7 @@ class CampsiteReservationAppTest {
         reservation.put("email", email);
         reservation.put("fullName", fullName);
 
-        MvcResult createReservationResult = mockMvc.perform(post("/reservations")
+        MvcResult createReservationResult = perform(post("/reservations")
                 .content(reservation.toString())
                 .contentType(MediaType.APPLICATION_JSON)
                 .accept(MediaType.APPLICATION_JSON)
@@ -62,7 +100,7 @@ class CampsiteReservationAppTest {
         reservation.put("email", newEmail);
         reservation.put("fullName", newFullName);
 
-        MvcResult updateReservationResult = mockMvc.perform(put("/reservations/{id}", reservationId)
+        MvcResult updateReservationResult = perform(put("/reservations/{id}", reservationId)
                 .content(reservation.toString())
                 .contentType(MediaType.APPLICATION_JSON)
                 .accept(MediaType.APPLICATION_JSON)
@@ -75,6 +113,27 @@ class CampsiteReservationAppTest {
         assertThat(updatedReservationJson.get("email").asText()).isEqualTo(newEmail);
         assertThat(updatedReservationJson.get("fullName").asText()).isEqualTo(newFullName);
 
+        // Get the reservation
+
+        MvcResult getReservationResult = mockMvc.perform(get("/reservations/{id}", reservationId)
+                .accept(MediaType.APPLICATION_JSON)
+        ).andExpect(status().is(200)).andReturn();
+
+        JsonNode reservationJson = mapper.readTree(getReservationResult.getResponse().getContentAsString());
+        assertThat(reservationJson.get("checkInDate").asText()).isEqualTo(newCheckInDate);
+        assertThat(reservationJson.get("fullName").asText()).isEqualTo(newFullName);
+        assertThat(getReservationResult.getResponse().getHeader("ETag")).isEqualTo("\"1\"");
+
+        // Update the reservation at its current version
+
+        reservation.put("fullName", fullName);
+        MvcResult conditionalUpdateResult = perform(put("/reservations/{id}", reservationId)
+                .content(reservation.toString())
+                .contentType(MediaType.APPLICATION_JSON)
+                .header("If-Match", getReservationResult.getResponse().getHeader("ETag"))
+        ).andExpect(status().is(200)).andReturn();
+        assertThat(conditionalUpdateResult.getResponse().getHeader("ETag")).isEqualTo("\"2\"");
+
         // Get available dates
 
         MvcResult availableDatesResult = mockMvc.perform(get("/reservations/availableDates")
@@ -94,7 +153,7 @@ class CampsiteReservationAppTest {
 
         // Cancel the reservation
 
-        MvcResult cancelReservationResult = mockMvc.perform(delete("/reservations/{id}", reservationId)
+        MvcResult cancelReservationResult = perform(delete("/reservations/{id}", reservationId)
                 .content(reservation.toString())
                 .contentType(MediaType.APPLICATION_JSON)
                 .accept(MediaType.APPLICATION_JSON)
@@ -105,4 +164,113 @@ class CampsiteReservationAppTest {
         assertThat(cancelledReservationJson.get("cancelled").asBoolean()).isTrue();
     }
 
+    @Test
+    void availableDatesAreNotModifiedUntilAReservationChanges() throws Exception {
+        MvcResult availableDatesResult = mockMvc.perform(get("/reservations/availableDates").param("nbDays", "7"))
+                .andExpect(status().is(200)).andReturn();
+        String eTag = availableDatesResult.getResponse().getHeader("ETag");
+        assertThat(eTag).isNotNull();
+
+        mockMvc.perform(get("/reservations/availableDates").param("nbDays", "7").header("If-None-Match", eTag))
+                .andExpect(status().isNotModified());
+
+        ObjectNode reservation = new ObjectMapper().createObjectNode();
+        reservation.put("checkInDate", LocalDate.now().plusDays(20).toString());
+        reservation.put("checkOutDate", LocalDate.now().plusDays(21).toString());
+        reservation.put("email", "john.doe@email.com");
+        reservation.put("fullName", "JohnDoe");
+        perform(post("/reservations").content(reservation.toString()).contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated());
+
+        MvcResult changedResult = mockMvc.perform(get("/reservations/availableDates").param("nbDays", "7")
+                .header("If-None-Match", eTag))
+                .andExpect(status().is(200)).andReturn();
+        assertThat(changedResult.getResponse().getHeader("ETag")).isNotEqualTo(eTag);
+    }
+
+    @Test
+    void availableDatesAreNegotiatedAsCompactFormats() throws Exception {
+        MvcResult jsonResult = mockMvc.perform(get("/reservations/availableDates").param("nbDays", "10"))
+                .andExpect(status().is(200)).andReturn();
+        JsonNode dates = new ObjectMapper().readTree(jsonResult.getResponse().getContentAsString()).get("dates");
+
+        MvcResult binaryResult = mockMvc.perform(get("/reservations/availableDates").param("nbDays", "10")
+                .accept(MediaType.APPLICATION_OCTET_STREAM))
+                .andExpect(status().is(200)).andReturn();
+        assertThat(binaryResult.getResponse().getContentType()).isEqualTo(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        assertThat(binaryResult.getResponse().getHeader("Vary")).isEqualTo("Accept");
+        assertThat(binaryResult.getResponse().getHeader("ETag")).isNotEqualTo(jsonResult.getResponse().getHeader("ETag"));
+        ByteBuffer binary = ByteBuffer.wrap(binaryResult.getResponse().getContentAsByteArray());
+        long firstEpochDay = binary.getInt();
+        assertThat(firstEpochDay).isEqualTo(LocalDate.now().plusDays(1).toEpochDay());
+        assertThat(binary.getShort()).isEqualTo((short) 10);
+        assertThat(binary.remaining()).isEqualTo(2);
+        int bitmask = (binary.get() & 0xff) | (binary.get() & 0xff) << 8;
+
+        MvcResult compactResult = mockMvc.perform(get("/reservations/availableDates").param("nbDays", "10")
+                .accept(AvailabilityFormat.COMPACT_JSON_VALUE))
+                .andExpect(status().is(200)).andReturn();
+        JsonNode compact = new ObjectMapper().readTree(compactResult.getResponse().getContentAsString());
+        assertThat(compact.get("firstEpochDay").asLong()).isEqualTo(firstEpochDay);
+        assertThat(compact.get("nbDays").asInt()).isEqualTo(10);
+        assertThat(Base64.getDecoder().decode(compact.get("bitmask").asText()))
+                .containsExactly((byte) bitmask, (byte) (bitmask >>> 8));
+
+        List<String> decodedDates = new ArrayList<>();
+        for (int day = 0; day < 10; day++) {
+            if ((bitmask & 1 << day) != 0) {
+                decodedDates.add(LocalDate.ofEpochDay(firstEpochDay + day).toString());
+            }
+        }
+        List<String> jsonDates = new ArrayList<>();
+        dates.forEach(date -> jsonDates.add(date.asText()));
+        assertThat(decodedDates).isEqualTo(jsonDates);
+    }
+
+    @Test
+    void availabilityStreamPushesTheChangedDates() throws Exception {
+        MvcResult streamResult = mockMvc.perform(get("/reservations/availability/stream"))
+                .andExpect(status().is(200)).andReturn();
+        awaitContent(streamResult, "event:snapshot");
+
+        String checkInDate = LocalDate.now().plusDays(25).toString();
+        String checkOutDate = LocalDate.now().plusDays(26).toString();
+        ObjectNode reservation = new ObjectMapper().createObjectNode();
+        reservation.put("checkInDate", checkInDate);
+        reservation.put("checkOutDate", checkOutDate);
+        reservation.put("email", "john.doe@email.com");
+        reservation.put("fullName", "JohnDoe");
+        perform(post("/reservations").content(reservation.toString()).contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated());
+
+        String content = awaitContent(streamResult, "event:delta");
+        String delta = content.substring(content.indexOf("event:delta"));
+        assertThat(delta).contains("\"unavailable\":[\"" + checkInDate + "\",\"" + checkOutDate + "\"]");
+    }
+
+    // Waits for the availability stream to push an event, as events are written by the sender threads
+    private static String awaitContent(MvcResult streamResult, String expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        String content = streamResult.getResponse().getContentAsString();
+        while (!content.contains(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            content = streamResult.getResponse().getContentAsString();
+        }
+        assertThat(content).contains(expected);
+        return content;
+    }
+
+    @Test
+    void prometheusEndpointExposesReservationMetrics() throws Exception {
+        mockMvc.perform(get("/reservations/availableDates").param("nbDays", "7")).andExpect(status().is(200));
+
+        MvcResult prometheusResult = mockMvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().is(200)).andReturn();
+
+        String metrics = prometheusResult.getResponse().getContentAsString();
+        assertThat(metrics).contains("campsite_availability_query_seconds_bucket");
+        assertThat(metrics).contains("campsite_lock_wait_seconds_count{daysAhead=\"0\",}");
+        assertThat(metrics).contains("campsite_reservation_failures_total{reason=\"conflict\",}");
+    }
+
 }
\ No newline at end of file
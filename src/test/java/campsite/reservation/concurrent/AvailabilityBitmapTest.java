@@ -0,0 +1,155 @@
+package campsite.reservation.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AvailabilityBitmapTest {
+
+    @Test
+    public void testSetAndFindFirstReserved() {
+        AvailabilityBitmap bitmap = new AvailabilityBitmap(31);
+
+        assertThat(bitmap.firstReserved(0, 30)).isEqualTo(-1);
+
+        bitmap.set(4, 6);
+
+        assertThat(bitmap.firstReserved(0, 3)).isEqualTo(-1);
+        assertThat(bitmap.firstReserved(0, 30)).isEqualTo(4);
+        assertThat(bitmap.firstReserved(6, 9)).isEqualTo(6);
+        assertThat(bitmap.firstReserved(7, 30)).isEqualTo(-1);
+    }
+
+    @Test
+    public void testRangeSpanningWords() {
+        AvailabilityBitmap bitmap = new AvailabilityBitmap(200);
+
+        bitmap.set(62, 130);
+
+        assertThat(bitmap.isReserved(61)).isFalse();
+        assertThat(bitmap.isReserved(62)).isTrue();
+        assertThat(bitmap.isReserved(64)).isTrue();
+        assertThat(bitmap.isReserved(130)).isTrue();
+        assertThat(bitmap.isReserved(131)).isFalse();
+        assertThat(bitmap.firstReserved(100, 199)).isEqualTo(100);
+
+        bitmap.clear(63, 129);
+
+        assertThat(bitmap.isReserved(62)).isTrue();
+        assertThat(bitmap.firstReserved(63, 199)).isEqualTo(130);
+    }
+
+    @Test
+    public void testFindFirstReservedExceptOwnedDays() {
+        AvailabilityBitmap bitmap = new AvailabilityBitmap(31);
+        bitmap.set(4, 6);
+
+        assertThat(bitmap.firstReservedExcept(3, 8, 4, 6)).isEqualTo(-1);
+        assertThat(bitmap.firstReservedExcept(3, 8, 4, 5)).isEqualTo(6);
+        assertThat(bitmap.firstReservedExcept(3, 8, -1, -1)).isEqualTo(4);
+    }
+
+    @Test
+    public void testLongHorizon() {
+        AvailabilityBitmap bitmap = new AvailabilityBitmap(3 * 366);
+
+        bitmap.set(400, 402);
+        assertThat(bitmap.tryClaim(900, 901)).isEqualTo(-1);
+        assertThat(bitmap.firstReserved(0, 1000)).isEqualTo(400);
+
+        bitmap.clear(384, 447);
+        assertThat(bitmap.firstReserved(0, 1000)).isEqualTo(900);
+        assertThat(bitmap.isReserved(901)).isTrue();
+    }
+
+    @Test
+    public void testForEachFreeRunStart() {
+        AvailabilityBitmap bitmap = new AvailabilityBitmap(200);
+        bitmap.set(62, 62);
+        bitmap.set(66, 66);
+        bitmap.set(140, 140);
+
+        List<Long> starts = new ArrayList<>();
+        bitmap.forEachFreeRunStart(55, 140, 3, starts::add);
+
+        List<Long> expectedStarts = new ArrayList<>(Arrays.asList(55L, 56L, 57L, 58L, 59L, 63L));
+        LongStream.rangeClosed(67, 137).forEach(expectedStarts::add); // runs crossing the word of days 64 to 127
+        assertThat(starts).containsExactlyElementsOf(expectedStarts);
+
+        starts.clear();
+        bitmap.forEachFreeRunStart(0, 100, 74, starts::add); // runs longer than a word
+        assertThat(starts).isEmpty();
+        bitmap.forEachFreeRunStart(67, 70, 73, starts::add);
+        assertThat(starts).containsExactly(67L);
+    }
+
+    @Test
+    public void testTryClaim() {
+        AvailabilityBitmap bitmap = new AvailabilityBitmap(31);
+
+        assertThat(bitmap.tryClaim(4, 6)).isEqualTo(-1);
+        assertThat(bitmap.tryClaim(2, 5)).isEqualTo(4);
+        assertThat(bitmap.firstReserved(2, 3)).isEqualTo(-1);
+    }
+
+    @Test
+    public void testTryClaimSpanningWordsReleasesClaimedWordsOnConflict() {
+        AvailabilityBitmap bitmap = new AvailabilityBitmap(200);
+        bitmap.set(130, 130);
+
+        assertThat(bitmap.tryClaim(60, 135)).isEqualTo(130);
+        assertThat(bitmap.firstReserved(0, 129)).isEqualTo(-1);
+    }
+
+    @Test
+    public void testTryClaimExceptOwnedDays() {
+        AvailabilityBitmap bitmap = new AvailabilityBitmap(31);
+        bitmap.set(4, 6);
+
+        assertThat(bitmap.tryClaimExcept(5, 8, 4, 6)).isEqualTo(-1);
+
+        bitmap.clearExcept(4, 6, 5, 8);
+
+        assertThat(bitmap.isReserved(4)).isFalse();
+        assertThat(bitmap.firstReserved(0, 30)).isEqualTo(5);
+        assertThat(bitmap.firstReserved(9, 30)).isEqualTo(-1);
+    }
+
+    @Test
+    public void testForEachFree() {
+        AvailabilityBitmap bitmap = new AvailabilityBitmap(100);
+        bitmap.set(1, 2);
+        bitmap.set(5, 70);
+
+        List<Long> freeDays = new ArrayList<>();
+        bitmap.forEachFree(0, 72, freeDays::add);
+
+        assertThat(freeDays).containsExactly(0L, 3L, 4L, 71L, 72L);
+    }
+
+    @Test
+    public void testDaysWrapAroundTheRing() {
+        AvailabilityBitmap bitmap = new AvailabilityBitmap(31);
+        long firstDay = 18_300; // not a multiple of the capacity
+        long lastDay = firstDay + bitmap.capacity() - 1;
+
+        bitmap.set(lastDay - 2, lastDay);
+
+        assertThat(bitmap.capacity()).isEqualTo(64);
+        assertThat(bitmap.firstReserved(firstDay, lastDay)).isEqualTo(lastDay - 2);
+        assertThat(bitmap.tryClaim(lastDay - 3, lastDay)).isEqualTo(lastDay - 2);
+        assertThat(bitmap.isReserved(lastDay - 3)).isFalse();
+
+        List<long[]> reservedRanges = new ArrayList<>();
+        bitmap.forEachReservedRange(firstDay, lastDay, (first, last) -> reservedRanges.add(new long[]{first, last}));
+        assertThat(reservedRanges).containsExactly(new long[]{lastDay - 2, lastDay});
+
+        // a day keeps its bit: the day one capacity later shares it
+        assertThat(bitmap.isReserved(lastDay + bitmap.capacity())).isTrue();
+    }
+}
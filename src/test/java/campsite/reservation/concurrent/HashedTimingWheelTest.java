@@ -0,0 +1,73 @@
+package campsite.reservation.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HashedTimingWheelTest {
+
+    @Test
+    public void testTimeoutsExpireOnTheirTick() {
+        HashedTimingWheel wheel = new HashedTimingWheel(10, TimeUnit.MILLISECONDS, 4);
+        List<String> expired = new ArrayList<>();
+
+        wheel.schedule(() -> expired.add("a"), 10, TimeUnit.MILLISECONDS);
+        wheel.schedule(() -> expired.add("b"), 25, TimeUnit.MILLISECONDS); // rounded up to 3 ticks
+        wheel.schedule(() -> expired.add("c"), 100, TimeUnit.MILLISECONDS); // several rounds of the wheel
+        assertThat(wheel.nbPendingTimeouts()).isEqualTo(3);
+
+        wheel.tick();
+        assertThat(expired).isEmpty();
+        wheel.tick();
+        assertThat(expired).containsExactly("a");
+        wheel.tick();
+        assertThat(expired).containsExactly("a");
+        wheel.tick();
+        assertThat(expired).containsExactly("a", "b");
+
+        for (int i = 0; i < 6; i++) {
+            wheel.tick();
+        }
+        assertThat(expired).containsExactly("a", "b");
+        wheel.tick();
+        assertThat(expired).containsExactly("a", "b", "c");
+        assertThat(wheel.nbPendingTimeouts()).isEqualTo(0);
+    }
+
+    @Test
+    public void testCancelledTimeoutsDoNotRun() {
+        HashedTimingWheel wheel = new HashedTimingWheel(10, TimeUnit.MILLISECONDS, 4);
+        List<String> expired = new ArrayList<>();
+
+        HashedTimingWheel.Timeout timeout = wheel.schedule(() -> expired.add("a"), 10, TimeUnit.MILLISECONDS);
+        wheel.schedule(() -> expired.add("b"), 10, TimeUnit.MILLISECONDS);
+        assertThat(timeout.cancel()).isTrue();
+        assertThat(timeout.cancel()).isFalse();
+        assertThat(wheel.nbPendingTimeouts()).isEqualTo(1);
+
+        wheel.tick();
+        wheel.tick();
+        assertThat(expired).containsExactly("b");
+    }
+
+    @Test
+    public void testTickerThreadExpiresTimeouts() throws InterruptedException {
+        HashedTimingWheel wheel = new HashedTimingWheel(5, TimeUnit.MILLISECONDS, 64);
+        int nbTimeouts = 10000;
+        CountDownLatch expired = new CountDownLatch(nbTimeouts);
+        wheel.start();
+        try {
+            for (int i = 0; i < nbTimeouts; i++) {
+                wheel.schedule(expired::countDown, i % 100, TimeUnit.MILLISECONDS);
+            }
+            assertThat(expired.await(5, TimeUnit.SECONDS)).isTrue();
+        } finally {
+            wheel.stop();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package campsite.reservation.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SiteAvailabilityIndexTest {
+
+    @Test
+    public void testGetFreeSites() {
+        SiteAvailabilityIndex index = new SiteAvailabilityIndex(4, 31);
+        index.site(0).set(3, 5);
+        index.site(2).set(5, 5);
+        index.site(3).set(10, 12);
+
+        assertThat(index.getFreeSites(4, 6)).containsExactly(1, 3);
+        assertThat(index.getFreeSites(0, 2)).containsExactly(0, 1, 2, 3);
+    }
+
+    @Test
+    public void testGetDaysWithFreeSite() {
+        SiteAvailabilityIndex index = new SiteAvailabilityIndex(2, 100);
+        index.site(0).set(61, 63);
+        index.site(1).set(62, 70);
+
+        long[] freeDays = index.getDaysWithFreeSite(60, 100);
+
+        assertThat(freeDays).containsExactly(~0b1100L, (1L << 36) - 1); // days 62 and 63 are reserved on both sites
+        assertThat(index.getDaysWithFreeSite(60, 3)).containsExactly(0b011L);
+    }
+
+    @Test
+    public void testForEachFreeRunStartOnAnySite() {
+        SiteAvailabilityIndex index = new SiteAvailabilityIndex(2, 31);
+        index.site(0).set(2, 2);
+        index.site(0).set(6, 6);
+        index.site(1).set(0, 3);
+        index.site(1).set(5, 5);
+
+        List<Long> starts = new ArrayList<>();
+        index.forEachFreeRunStartOnAnySite(0, 8, 3, starts::add);
+
+        assertThat(starts).containsExactly(3L, 6L, 7L, 8L);
+    }
+
+    @Test
+    public void testParkWideQueriesOnlyConsiderServedSites() {
+        SiteAvailabilityIndex index = new SiteAvailabilityIndex(3, 31);
+        index.site(0).set(1, 3);
+        index.site(2).set(2, 4);
+        index.setServedSites(siteId -> siteId != 1); // site 1 is free but served by another instance
+
+        assertThat(index.getDaysWithFreeSite(0, 6)).containsExactly(0b110011L);
+        assertThat(index.getFreeSites(0, 0)).containsExactly(0, 2);
+
+        index.setServedSites(siteId -> false);
+        List<Long> runStarts = new ArrayList<>();
+        index.forEachFreeRunStartOnAnySite(0, 10, 2, runStarts::add);
+        assertThat(runStarts).isEmpty();
+        assertThat(index.getFreeSites(0, 0)).isEmpty();
+    }
+
+    @Test
+    public void testRollOverKeepsReservedDaysAndClearsEnteringDays() {
+        SiteAvailabilityIndex index = new SiteAvailabilityIndex(1, 31);
+        index.rollOverTo(100);
+        index.site(0).set(102, 104);
+        index.site(0).set(131 - index.capacity(), 131 - index.capacity()); // past day sharing the bit of day 131
+
+        assertThat(index.rollOverTo(101)).isTrue();
+        assertThat(index.rollOverTo(101)).isFalse();
+
+        assertThat(index.getFirstEpochDay()).isEqualTo(101);
+        assertThat(index.site(0).toBooleanArray(101, 5)).containsExactly(false, true, true, true, false);
+        assertThat(index.site(0).isReserved(131)).isFalse();
+    }
+
+    @Test
+    public void testDayLeavingTheWindowDoesNotShareTheBitOfAnEnteringDay() {
+        SiteAvailabilityIndex index = new SiteAvailabilityIndex(1, 64);
+        assertThat(index.capacity()).isGreaterThanOrEqualTo(64 + Long.SIZE);
+        index.rollOverTo(128);
+
+        index.rollOverTo(129);
+        index.site(0).set(128, 128); // late writer of the day that just left the window
+
+        assertThat(index.site(0).firstReserved(129, 129 + 63)).isEqualTo(-1);
+    }
+
+    @Test
+    public void testRollOverCatchesUpMissedDays() {
+        SiteAvailabilityIndex index = new SiteAvailabilityIndex(1, 31);
+        index.rollOverTo(100);
+        index.site(0).set(110, 130);
+
+        index.rollOverTo(120);
+
+        assertThat(index.site(0).firstReserved(120, 150)).isEqualTo(120);
+        assertThat(index.site(0).firstReserved(131, 150)).isEqualTo(-1);
+
+        index.rollOverTo(1000);
+
+        assertThat(index.site(0).firstReserved(1000, 1030)).isEqualTo(-1);
+    }
+
+    @Test
+    public void testRollOverKeepsReservedDaysOfLongHorizon() {
+        SiteAvailabilityIndex index = new SiteAvailabilityIndex(1, 3 * 366);
+        index.rollOverTo(0);
+        index.site(0).set(10, 12);
+        index.site(0).set(1000, 1002);
+
+        index.rollOverTo(64);
+
+        assertThat(index.site(0).firstReserved(64, 64 + 3 * 366 - 1)).isEqualTo(1000);
+    }
+
+    @Test
+    public void testUnknownSite() {
+        SiteAvailabilityIndex index = new SiteAvailabilityIndex(2, 31);
+
+        assertThatThrownBy(() -> index.site(2))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Unknown site 2");
+    }
+}
@@ -0,0 +1,133 @@
+package campsite.reservation.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class StripedLocksTest {
+
+    @Test
+    public void testRejectsCallersBeyondMaxWaitersWithoutWaiting() throws Exception {
+        StripedLocks stripedLocks = new StripedLocks(8, 5, 1, false);
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        Future<?> holder = executorService.submit(() -> stripedLocks.runSync(2, 4, () -> {
+            locked.countDown();
+            await(release);
+        }));
+        assertThat(locked.await(5, TimeUnit.SECONDS)).isTrue();
+
+        long start = System.nanoTime();
+        assertThatThrownBy(() -> stripedLocks.runSync(4, 6, () -> {}))
+                .isInstanceOf(TooManyWaitersException.class);
+        assertThatThrownBy(() -> stripedLocks.runSync(new int[]{6, 3}, () -> {}))
+                .isInstanceOf(TooManyWaitersException.class);
+        assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(1));
+
+        // locks outside the held range, and locks released by rejected callers, are still admitted
+        AtomicBoolean ran = new AtomicBoolean();
+        stripedLocks.runSync(5, 7, () -> ran.set(true));
+        assertThat(ran).isTrue();
+
+        release.countDown();
+        holder.get(5, TimeUnit.SECONDS);
+        executorService.shutdown();
+
+        ran.set(false);
+        stripedLocks.runSync(new int[]{4, 2, 3}, () -> ran.set(true));
+        assertThat(ran).isTrue();
+        assertThat(stripedLocks.getNbRejections()).isEqualTo(2);
+    }
+
+    @Test
+    public void testWaitsForAllTheLocksAgainstOneDeadline() throws Exception {
+        StripedLocks stripedLocks = new StripedLocks(8, 1);
+        CountDownLatch locked = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        // lock 2 is released after 700 ms, lock 4 is held until the end of the test
+        Future<?> shortHolder = executorService.submit(() -> stripedLocks.runSync(2, 2, () -> {
+            locked.countDown();
+            sleep(700);
+        }));
+        Future<?> longHolder = executorService.submit(() -> stripedLocks.runSync(4, 4, () -> {
+            locked.countDown();
+            await(release);
+        }));
+        assertThat(locked.await(5, TimeUnit.SECONDS)).isTrue();
+
+        AtomicBoolean ran = new AtomicBoolean();
+        long start = System.nanoTime();
+        assertThatThrownBy(() -> stripedLocks.runSync(0, 6, () -> ran.set(true)))
+                .isInstanceOf(LockTimeoutException.class);
+        long waitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // a deadline per lock would wait 700 ms for lock 2, then 1 s for lock 4
+        assertThat(waitMillis).isBetween(900L, 1500L);
+        assertThat(ran).isFalse();
+        assertThat(stripedLocks.getNbTimeouts()).isEqualTo(1);
+
+        release.countDown();
+        shortHolder.get(5, TimeUnit.SECONDS);
+        longHolder.get(5, TimeUnit.SECONDS);
+        executorService.shutdown();
+
+        // the locks acquired before the timeout were released
+        stripedLocks.runSync(0, 6, () -> ran.set(true));
+        assertThat(ran).isTrue();
+        assertThat(stripedLocks.getNbAcquisitions()).isEqualTo(3);
+    }
+
+    @Test
+    public void testSharedCallersHoldReadWriteStripesTogether() throws Exception {
+        StripedLocks stripedLocks = new StripedLocks(8, 1, Integer.MAX_VALUE, true);
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        Future<?> sharedHolder = executorService.submit(() -> stripedLocks.runShared(2, 4, () -> {
+            locked.countDown();
+            await(release);
+        }));
+        assertThat(locked.await(5, TimeUnit.SECONDS)).isTrue();
+
+        AtomicBoolean ran = new AtomicBoolean();
+        stripedLocks.runShared(3, 5, () -> ran.set(true));
+        assertThat(ran).isTrue();
+        assertThat(stripedLocks.getNbContendedAcquisitions()).isEqualTo(0);
+
+        assertThatThrownBy(() -> stripedLocks.runSync(4, 5, () -> {}))
+                .isInstanceOf(LockTimeoutException.class);
+
+        release.countDown();
+        sharedHolder.get(5, TimeUnit.SECONDS);
+        executorService.shutdown();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
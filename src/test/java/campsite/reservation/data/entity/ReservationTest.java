@@ -84,6 +84,23 @@ public class ReservationTest {
                 .hasMessage("Cannot create reservation with missing required field(s)");
     }
 
+    @Test
+    public void testCannotCreateReservationWithNegativeSiteId() {
+        final String currentDate = "2020-03-01";
+        doReturn(LocalDate.parse(currentDate)).when(dateResolver).getCurrentDate();
+
+        final String checkInDate = "2020-03-05";
+        final String checkOutDate = "2020-03-08";
+        final String email = "john.doe@email.com";
+        final String fullName = "JohnDoe";
+
+        assertThatThrownBy(() ->
+                Reservation.of(-1, LocalDate.parse(checkInDate), LocalDate.parse(checkOutDate),
+                        email, fullName, dateResolver)
+        ).isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Site id must not be negative");
+    }
+
     @Test
     public void testCannotCreateReservationWithCheckOutDateBeforeChechInDate() {
         final String currentDate = "2020-03-01";
@@ -169,4 +186,18 @@ public class ReservationTest {
                 .hasMessage("Cannot reserve the campsite more than a month in advance");
     }
 
+    @Test
+    public void testBookingHorizonIsCheckedOnCopy() {
+        final String currentDate = "2020-03-01";
+        doReturn(LocalDate.parse(currentDate)).when(dateResolver).getCurrentDate();
+
+        Reservation reservation = Reservation.copyOf("0.id", 0, LocalDate.parse("2020-05-01"),
+                LocalDate.parse("2020-05-02"), "john.doe@email.com", "JohnDoe", false);
+
+        assertThat(Reservation.of(reservation, dateResolver, 90).getCheckInDate()).isEqualTo("2020-05-01");
+        assertThatThrownBy(() -> Reservation.of(reservation, dateResolver, 45))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Cannot reserve the campsite more than 45 days in advance");
+    }
+
 }
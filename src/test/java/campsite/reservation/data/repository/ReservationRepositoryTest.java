@@ -4,15 +4,21 @@ import campsite.reservation.data.entity.Reservation;
 import campsite.reservation.service.DateResolver;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.Answers;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 
 import javax.transaction.Transactional;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.BDDMockito.given;
 
 @SpringBootTest
@@ -22,7 +28,7 @@ public class ReservationRepositoryTest {
     @Autowired
     ReservationRepository repository;
 
-    @MockBean
+    @MockBean(answer = Answers.CALLS_REAL_METHODS) // the current date is read on startup
     private DateResolver dateResolver;
 
     @BeforeEach
@@ -54,6 +60,50 @@ public class ReservationRepositoryTest {
         assertThat(fetchedReservation.getFullName()).isEqualTo(fullName);
     }
 
+    @Test
+    public void testForEachReservedStayReadsTheEpochDaysOfTheStaysOverlappingTheWindow() {
+        given(dateResolver.getCurrentDate()).willReturn(LocalDate.parse("2020-03-01"));
+        Reservation pastReservation = Reservation.of(LocalDate.parse("2020-03-02"), LocalDate.parse("2020-03-03"),
+                "john.doe@email.com", "JohnDoe", dateResolver);
+        Reservation reservation = Reservation.of(LocalDate.parse("2020-03-09"), LocalDate.parse("2020-03-11"),
+                "john.doe@email.com", "JohnDoe", dateResolver);
+        Reservation cancelledReservation = Reservation.of(LocalDate.parse("2020-03-12"), LocalDate.parse("2020-03-13"),
+                "john.doe@email.com", "JohnDoe", dateResolver);
+        cancelledReservation.setCancelled(true);
+        repository.saveAll(List.of(pastReservation, reservation, cancelledReservation));
+        repository.flush();
+
+        List<String> stays = new ArrayList<>();
+        long nbStays = repository.forEachReservedStay(LocalDate.parse("2020-03-01"), LocalDate.parse("2020-03-31"),
+                LocalDate.parse("2020-03-04"), 1, (siteId, firstDay, lastDay) -> stays.add(siteId + " "
+                        + LocalDate.ofEpochDay(firstDay) + " " + LocalDate.ofEpochDay(lastDay)));
+
+        assertThat(nbStays).isEqualTo(1);
+        assertThat(stays).containsExactly("0 2020-03-09 2020-03-11");
+    }
+
+    @Test
+    public void testIdempotencyKeyIsUnique() {
+        given(dateResolver.getCurrentDate()).willReturn(LocalDate.parse("2020-03-01"));
+
+        // reservations without a key do not conflict
+        repository.save(Reservation.of(LocalDate.parse("2020-03-02"), LocalDate.parse("2020-03-03"),
+                "john.doe@email.com", "JohnDoe", dateResolver));
+        repository.saveAndFlush(Reservation.of(LocalDate.parse("2020-03-04"), LocalDate.parse("2020-03-05"),
+                "john.doe@email.com", "JohnDoe", dateResolver));
+
+        Reservation reservation = Reservation.of(LocalDate.parse("2020-03-06"), LocalDate.parse("2020-03-07"),
+                "john.doe@email.com", "JohnDoe", dateResolver);
+        reservation.setIdempotencyKey("3f1c2a9e-retry");
+        repository.saveAndFlush(reservation);
+        Reservation sameKeyReservation = Reservation.of(LocalDate.parse("2020-03-08"), LocalDate.parse("2020-03-09"),
+                "john.doe@email.com", "JohnDoe", dateResolver);
+        sameKeyReservation.setIdempotencyKey("3f1c2a9e-retry");
+
+        assertThatThrownBy(() -> repository.saveAndFlush(sameKeyReservation))
+                .isInstanceOf(DataIntegrityViolationException.class);
+    }
+
     @Test
     public void testUpdateReservation() {
         final String currentDate = "2020-03-01";
@@ -87,4 +137,39 @@ public class ReservationRepositoryTest {
         assertThat(updatedReservation.getEmail()).isEqualTo(newEmail);
         assertThat(updatedReservation.getFullName()).isEqualTo(newFullName);
     }
+
+    @Test
+    public void testFindPagesByCheckInDateAfterKeyset() {
+        given(dateResolver.getCurrentDate()).willReturn(LocalDate.parse("2020-03-01"));
+        Reservation first = repository.save(Reservation.of(LocalDate.parse("2020-03-02"),
+                LocalDate.parse("2020-03-03"), "john.doe@email.com", "JohnDoe", dateResolver));
+        Reservation second = repository.save(Reservation.of(LocalDate.parse("2020-03-05"),
+                LocalDate.parse("2020-03-06"), "john.doe@email.com", "JohnDoe", dateResolver));
+        repository.save(Reservation.of(LocalDate.parse("2020-03-10"),
+                LocalDate.parse("2020-03-11"), "jane.doe@email.com", "JaneDoe", dateResolver));
+
+        LocalDate from = LocalDate.parse("2020-03-01");
+        LocalDate to = LocalDate.parse("2020-03-09");
+        assertThat(repository.findPageByCheckInDate(from, to, from, "", PageRequest.of(0, 1)))
+                .containsExactly(first);
+        assertThat(repository.findPageByCheckInDate(from, to, first.getCheckInDate(), first.getId(), PageRequest.of(0, 10)))
+                .containsExactly(second);
+        assertThat(repository.findPageByEmail("john.doe@email.com", "", PageRequest.of(0, 10)))
+                .containsExactlyInAnyOrder(first, second);
+    }
+
+    @Test
+    public void testStreamByCheckInDate() {
+        given(dateResolver.getCurrentDate()).willReturn(LocalDate.parse("2020-03-01"));
+        repository.save(Reservation.of(LocalDate.parse("2020-03-05"),
+                LocalDate.parse("2020-03-06"), "john.doe@email.com", "JohnDoe", dateResolver));
+        repository.save(Reservation.of(LocalDate.parse("2020-03-02"),
+                LocalDate.parse("2020-03-03"), "jane.doe@email.com", "JaneDoe", dateResolver));
+
+        try (Stream<Reservation> reservations = repository.streamByCheckInDate(LocalDate.parse("2020-03-01"),
+                LocalDate.parse("2020-03-31"))) {
+            assertThat(reservations.map(Reservation::getEmail))
+                    .containsExactly("jane.doe@email.com", "john.doe@email.com");
+        }
+    }
 }
@@ -0,0 +1,104 @@
+package campsite.reservation.journal;
+
+import campsite.reservation.service.AvailabilityListener;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReservationJournalTest {
+
+    @TempDir
+    Path directory;
+
+    private ReservationJournal journal;
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        journal.close();
+    }
+
+    @Test
+    public void testReplayAfterReopening() throws IOException {
+        journal = openJournal(10 * ReservationJournal.RECORD_SIZE);
+        assertThat(journal.isEmpty()).isTrue();
+
+        journal.onDaysReserved(0, 18000, 18002);
+        journal.onDaysReserved(1, 18005, 18005);
+        journal.onDaysReleased(0, 18000, 18002);
+        journal.close();
+
+        journal = openJournal(10 * ReservationJournal.RECORD_SIZE);
+        assertThat(journal.isEmpty()).isFalse();
+        assertThat(journal.isClosedCleanly()).isTrue();
+
+        RecordingListener listener = new RecordingListener();
+        journal.replay(listener);
+
+        assertThat(listener.changes).containsExactly("reserved 0 18000 18002", "reserved 1 18005 18005",
+                "released 0 18000 18002");
+    }
+
+    @Test
+    public void testJournalNotClosedIsNotClosedCleanly() throws IOException {
+        journal = openJournal(10 * ReservationJournal.RECORD_SIZE);
+        journal.onDaysReserved(0, 18000, 18002);
+        journal.close();
+
+        journal = openJournal(10 * ReservationJournal.RECORD_SIZE);
+        assertThat(journal.isClosedCleanly()).isTrue();
+        journal.onDaysReserved(1, 18005, 18005);
+        ReservationJournal crashedJournal = journal; // not closed, as after a crash
+
+        journal = openJournal(10 * ReservationJournal.RECORD_SIZE);
+        assertThat(journal.isClosedCleanly()).isFalse();
+        RecordingListener listener = new RecordingListener();
+        journal.replay(listener);
+        assertThat(listener.changes).containsExactly("reserved 0 18000 18002", "reserved 1 18005 18005");
+        crashedJournal.close();
+    }
+
+    @Test
+    public void testSnapshotWhenJournalIsFull() throws IOException {
+        journal = openJournal(2 * ReservationJournal.RECORD_SIZE);
+        journal.setSnapshotSource(listener -> listener.onDaysReserved(3, 18010, 18011));
+
+        journal.onDaysReserved(3, 18010, 18011);
+        journal.onDaysReserved(3, 18020, 18020);
+        journal.onDaysReleased(3, 18020, 18020); // journal is full, a snapshot is written first
+
+        RecordingListener listener = new RecordingListener();
+        journal.replay(listener);
+
+        assertThat(listener.changes).containsExactly("reserved 3 18010 18011", "released 3 18020 18020");
+    }
+
+    private ReservationJournal openJournal(int capacityBytes) throws IOException {
+        ReservationJournal journal = new ReservationJournal();
+        ReflectionTestUtils.setField(journal, "directory", directory.toString());
+        ReflectionTestUtils.setField(journal, "capacityBytes", capacityBytes);
+        journal.open();
+        return journal;
+    }
+
+    private static class RecordingListener implements AvailabilityListener {
+        private final List<String> changes = new ArrayList<>();
+
+        @Override
+        public void onDaysReserved(int siteId, long firstEpochDay, long lastEpochDay) {
+            changes.add("reserved " + siteId + " " + firstEpochDay + " " + lastEpochDay);
+        }
+
+        @Override
+        public void onDaysReleased(int siteId, long firstEpochDay, long lastEpochDay) {
+            changes.add("released " + siteId + " " + firstEpochDay + " " + lastEpochDay);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package campsite.reservation.replication;
+
+import campsite.reservation.service.AvailabilityListener;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AvailabilityChangeLogTest {
+
+    @Test
+    public void testChangesAreReadAfterASequenceNumber() {
+        AvailabilityChangeLog changeLog = openChangeLog(10);
+        changeLog.onDaysReserved(0, 18000, 18002);
+        changeLog.onDaysReserved(1, 18005, 18005);
+        changeLog.onDaysReleased(0, 18000, 18002);
+
+        ChangeBatch changes = ChangeBatch.of(changeLog.getChangesAfter(1, 10).orElseThrow());
+        assertThat(changes.getLastSequence()).isEqualTo(3);
+        assertThat(changes.getFirstSequence()).isEqualTo(2);
+        assertThat(replay(changes)).containsExactly("reserved 1 18005 18005", "released 0 18000 18002");
+
+        ChangeBatch firstChange = ChangeBatch.of(changeLog.getChangesAfter(0, 1).orElseThrow());
+        assertThat(replay(firstChange)).containsExactly("reserved 0 18000 18002");
+        assertThat(ChangeBatch.of(changeLog.getChangesAfter(3, 10).orElseThrow()).getNbChanges()).isZero();
+        assertThat(changeLog.getChangesAfter(4, 10)).isEmpty();
+    }
+
+    @Test
+    public void testChangesNoLongerKeptAreReplacedBySnapshot() {
+        AvailabilityChangeLog changeLog = openChangeLog(2);
+        changeLog.setSnapshotSource(listener -> listener.onDaysReserved(3, 18010, 18011));
+        changeLog.onDaysReserved(3, 18010, 18011);
+        changeLog.onDaysReserved(3, 18020, 18020);
+        changeLog.onDaysReleased(3, 18020, 18020);
+
+        assertThat(changeLog.getChangesAfter(0, 10)).isEmpty();
+        assertThat(replay(ChangeBatch.of(changeLog.getChangesAfter(1, 10).orElseThrow())))
+                .containsExactly("reserved 3 18020 18020", "released 3 18020 18020");
+
+        ChangeBatch snapshot = ChangeBatch.of(changeLog.getSnapshot());
+        assertThat(snapshot.getLastSequence()).isEqualTo(3);
+        assertThat(snapshot.getLogId()).isEqualTo(ChangeBatch.of(changeLog.getChangesAfter(3, 10).orElseThrow()).getLogId());
+        assertThat(replay(snapshot)).containsExactly("reserved 3 18010 18011");
+    }
+
+    @Test
+    public void testChangesMadeWhileReadingSnapshotAreReplayedAfterIt() {
+        AvailabilityChangeLog changeLog = openChangeLog(10);
+        changeLog.onDaysReserved(3, 18010, 18011);
+        // the days are released and reserved again while the snapshot reads the availability
+        changeLog.setSnapshotSource(listener -> {
+            changeLog.onDaysReleased(3, 18010, 18011);
+            changeLog.onDaysReserved(3, 18010, 18010);
+            listener.onDaysReserved(3, 18010, 18010);
+        });
+
+        ChangeBatch snapshot = ChangeBatch.of(changeLog.getSnapshot());
+        assertThat(snapshot.getLastSequence()).isEqualTo(1);
+        assertThat(replay(snapshot)).containsExactly("reserved 3 18010 18010");
+        assertThat(replay(ChangeBatch.of(changeLog.getChangesAfter(snapshot.getLastSequence(), 10).orElseThrow())))
+                .containsExactly("released 3 18010 18011", "reserved 3 18010 18010");
+    }
+
+    private static AvailabilityChangeLog openChangeLog(int capacity) {
+        AvailabilityChangeLog changeLog = new AvailabilityChangeLog();
+        ReflectionTestUtils.setField(changeLog, "capacity", capacity);
+        changeLog.init();
+        return changeLog;
+    }
+
+    private static List<String> replay(ChangeBatch batch) {
+        List<String> changes = new ArrayList<>();
+        batch.replay(new AvailabilityListener() {
+            @Override
+            public void onDaysReserved(int siteId, long firstEpochDay, long lastEpochDay) {
+                changes.add("reserved " + siteId + " " + firstEpochDay + " " + lastEpochDay);
+            }
+
+            @Override
+            public void onDaysReleased(int siteId, long firstEpochDay, long lastEpochDay) {
+                changes.add("released " + siteId + " " + firstEpochDay + " " + lastEpochDay);
+            }
+        });
+        return changes;
+    }
+}
@@ -0,0 +1,75 @@
+package campsite.reservation.replication;
+
+import campsite.reservation.service.ReservationService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {
+        "replication.role=REPLICA",
+        "replication.sourceUrl=" + AvailabilityReplicaTest.WRITER,
+        "campsite.nbSites=1"})
+@AutoConfigureMockMvc
+class AvailabilityReplicaTest {
+
+    static final String WRITER = "http://localhost:1"; // unreachable, the changes are applied by the test
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private AvailabilityReplica replica;
+
+    @Autowired
+    private ReservationService reservationService;
+
+    @Test
+    void availabilityFollowsTheChangesOfTheWriter() {
+        long tomorrow = LocalDate.now().plusDays(1).toEpochDay();
+        AvailabilityChangeLog changeLog = new AvailabilityChangeLog();
+        ReflectionTestUtils.setField(changeLog, "capacity", 10);
+        changeLog.init();
+        changeLog.setSnapshotSource(listener -> listener.onDaysReserved(0, tomorrow, tomorrow + 1));
+        changeLog.onDaysReserved(0, tomorrow, tomorrow + 1);
+
+        replica.loadSnapshot(ChangeBatch.of(changeLog.getSnapshot()));
+        assertThat(reservationService.getAvailableDates(4))
+                .containsExactly(LocalDate.ofEpochDay(tomorrow + 2), LocalDate.ofEpochDay(tomorrow + 3));
+
+        changeLog.onDaysReserved(0, tomorrow + 3, tomorrow + 3);
+        changeLog.onDaysReleased(0, tomorrow, tomorrow + 1);
+        assertThat(replica.applyChanges(ChangeBatch.of(changeLog.getChangesAfter(1, 1).orElseThrow()))).isTrue();
+        assertThat(replica.getLagChanges()).isEqualTo(1);
+        assertThat(replica.applyChanges(ChangeBatch.of(changeLog.getChangesAfter(2, 10).orElseThrow()))).isTrue();
+        assertThat(replica.getLagChanges()).isZero();
+        assertThat(reservationService.getAvailableDates(4)).containsExactly(LocalDate.ofEpochDay(tomorrow),
+                LocalDate.ofEpochDay(tomorrow + 1), LocalDate.ofEpochDay(tomorrow + 2));
+
+        // changes that do not follow the last change applied require a new snapshot
+        assertThat(replica.applyChanges(ChangeBatch.of(changeLog.getChangesAfter(1, 10).orElseThrow()))).isFalse();
+    }
+
+    @Test
+    void writesAreRedirectedToTheWriter() throws Exception {
+        mockMvc.perform(post("/reservations").content("{}").contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isTemporaryRedirect())
+                .andExpect(header().string("Location", WRITER + "/reservations"));
+        mockMvc.perform(get("/admin/reservations?from=2020-03-01"))
+                .andExpect(status().isTemporaryRedirect())
+                .andExpect(header().string("Location", WRITER + "/admin/reservations?from=2020-03-01"));
+        mockMvc.perform(get("/reservations/availableDates?nbDays=5")).andExpect(status().isOk());
+        mockMvc.perform(get("/replication/status")).andExpect(status().isOk());
+    }
+}
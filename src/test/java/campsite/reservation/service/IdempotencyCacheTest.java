@@ -0,0 +1,56 @@
+package campsite.reservation.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class IdempotencyCacheTest {
+
+    private IdempotencyCache cache;
+
+    @BeforeEach
+    public void setUp() {
+        cache = new IdempotencyCache();
+        ReflectionTestUtils.setField(cache, "maxKeys", 2);
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 60L);
+    }
+
+    @Test
+    public void testRetryIsAnsweredFromCache() {
+        assertThat(cache.computeIfAbsent("key1", "hash", () -> "id1")).isEqualTo("id1");
+        assertThat(cache.computeIfAbsent("key1", "hash", () -> "id2")).isEqualTo("id1");
+    }
+
+    @Test
+    public void testKeyReusedForAnotherRequestIsRejected() {
+        cache.computeIfAbsent("key1", "hash1", () -> "id1");
+
+        assertThatThrownBy(() -> cache.computeIfAbsent("key1", "hash2", () -> "id2"))
+                .isInstanceOf(IdempotencyKeyReuseException.class);
+        assertThat(cache.computeIfAbsent("key1", "hash1", () -> "id3")).isEqualTo("id1");
+    }
+
+    @Test
+    public void testOldestKeyIsEvictedWhenFull() {
+        cache.computeIfAbsent("key1", "hash", () -> "id1");
+        cache.computeIfAbsent("key2", "hash", () -> "id2");
+        cache.computeIfAbsent("key3", "hash", () -> "id3");
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.computeIfAbsent("key1", "hash", () -> "id4")).isEqualTo("id4");
+        assertThat(cache.computeIfAbsent("key3", "hash", () -> "id5")).isEqualTo("id3");
+    }
+
+    @Test
+    public void testFailedRequestIsNotCached() {
+        assertThatThrownBy(() -> cache.computeIfAbsent("key1", "hash", () -> {
+            throw new IllegalArgumentException("Day already reserved");
+        })).isInstanceOf(IllegalArgumentException.class);
+
+        assertThat(cache.size()).isEqualTo(0);
+        assertThat(cache.computeIfAbsent("key1", "hash", () -> "id1")).isEqualTo("id1");
+    }
+}
@@ -0,0 +1,76 @@
+package campsite.reservation.service;
+
+import campsite.reservation.data.entity.Reservation;
+import campsite.reservation.data.repository.ReservationRepository;
+import campsite.reservation.serialization.types.ReservationsPage;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Answers;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.BDDMockito.given;
+
+@SpringBootTest
+class ReservationAdminServiceTest {
+
+    @Autowired
+    ReservationAdminService adminService;
+
+    @Autowired
+    ReservationRepository repository;
+
+    @MockBean(answer = Answers.CALLS_REAL_METHODS) // the current date is read on startup
+    DateResolver dateResolver;
+
+    @BeforeEach
+    void setUp() {
+        repository.deleteAll();
+        given(dateResolver.getCurrentDate()).willReturn(LocalDate.parse("2020-03-01"));
+        for (int day = 2; day <= 6; day++) {
+            repository.save(Reservation.of(LocalDate.of(2020, 3, day), LocalDate.of(2020, 3, day),
+                    "john.doe@email.com", "JohnDoe", dateResolver));
+        }
+    }
+
+    @Test
+    void getReservationsByCheckInDatePageByPage() {
+        List<LocalDate> checkInDates = new ArrayList<>();
+        String cursor = null;
+        do {
+            ReservationsPage page = adminService.getReservationsByCheckInDate(LocalDate.parse("2020-03-03"),
+                    LocalDate.parse("2020-03-06"), cursor, 3);
+            page.getReservations().forEach(reservation -> checkInDates.add(reservation.getCheckInDate()));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        assertThat(checkInDates).containsExactly(LocalDate.parse("2020-03-03"), LocalDate.parse("2020-03-04"),
+                LocalDate.parse("2020-03-05"), LocalDate.parse("2020-03-06"));
+        assertThat(adminService.getReservationsByEmail("john.doe@email.com", null, 2).getNextCursor()).isNotNull();
+        assertThatThrownBy(() -> adminService.getReservationsByCheckInDate(LocalDate.parse("2020-03-03"),
+                LocalDate.parse("2020-03-06"), "invalid", 3))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Invalid cursor invalid");
+    }
+
+    @Test
+    void exportReservationsByCheckInDateWritesJsonArray() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        adminService.exportReservationsByCheckInDate(LocalDate.parse("2020-03-01"), LocalDate.parse("2020-03-04"),
+                outputStream);
+
+        JsonNode reservations = new ObjectMapper().readTree(outputStream.toByteArray());
+        assertThat(reservations).hasSize(3);
+        assertThat(reservations.get(0).get("checkInDate").asText()).isEqualTo("2020-03-02");
+    }
+}
@@ -2,21 +2,34 @@ package campsite.reservation.service;
 
 import campsite.reservation.data.entity.Reservation;
 import campsite.reservation.data.repository.ReservationRepository;
+import campsite.reservation.journal.ReservationJournal;
+import campsite.reservation.replication.AvailabilityChangeLog;
+import campsite.reservation.replication.ChangeBatch;
+import campsite.reservation.serialization.types.MovedHold;
+import campsite.reservation.serialization.types.ReservationResult;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Answers;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import javax.persistence.EntityNotFoundException;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -28,16 +41,23 @@ class ReservationServiceTest {
     @Autowired
     ReservationService reservationService;
 
-    @MockBean
+    @MockBean(answer = Answers.CALLS_REAL_METHODS) // the current date is read on startup
     DateResolver dateResolver;
 
     @Autowired
     ReservationRepository repository;
 
+    @Autowired
+    MeterRegistry meterRegistry;
+
     @BeforeEach
     void cleanUp() {
         repository.deleteAll();
         reservationService.resetReservedDates();
+        reservationService.resetIdempotencyCache();
+        reservationService.resetReadModel();
+        reservationService.setCommitMode(CommitMode.LOCKS);
+        reservationService.setPersistenceMode(PersistenceMode.SYNC);
     }
 
     @Test
@@ -62,6 +82,278 @@ class ReservationServiceTest {
         assertThat(availableDates.get(2)).isEqualTo("2020-03-07");
     }
 
+    @Test
+    void getAvailableStays() {
+        given(dateResolver.getCurrentDate()).willReturn(LocalDate.parse("2020-03-01"));
+
+        reservationService.createReservation(Reservation.of(LocalDate.parse("2020-03-05"),
+                LocalDate.parse("2020-03-06"), "john.doe@email.com", "JohnDoe", dateResolver));
+
+        assertThat(reservationService.getAvailableStays(2, LocalDate.parse("2020-03-01"), LocalDate.parse("2020-03-09")))
+                .containsExactly(LocalDate.parse("2020-03-02"), LocalDate.parse("2020-03-07"),
+                        LocalDate.parse("2020-03-08"), LocalDate.parse("2020-03-09"));
+        assertThat(reservationService.getAvailableStays(3, null, null))
+                .hasSize(23) // check-out on 2020-04-01 at most, the last reservable day
+                .startsWith(LocalDate.parse("2020-03-07"))
+                .endsWith(LocalDate.parse("2020-03-29"));
+
+        String checkInDate = reservationService.getAvailableStays(3, LocalDate.parse("2020-03-03"), null).get(0).toString();
+        assertThat(checkInDate).isEqualTo("2020-03-07");
+        reservationService.createReservation(Reservation.of(LocalDate.parse(checkInDate),
+                LocalDate.parse(checkInDate).plusDays(3), "john.doe2@email.com", "JohnDoe2", dateResolver));
+
+        assertThatThrownBy(() -> reservationService.getAvailableStays(4, null, null))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Stay length must be between 1 and 3 nights");
+    }
+
+    @Test
+    void getReservationIsServedFromReadModelAfterWrites() {
+        given(dateResolver.getCurrentDate()).willReturn(LocalDate.parse("2020-03-01"));
+
+        String reservationId = reservationService.createReservation(Reservation.of(LocalDate.parse("2020-03-05"),
+                LocalDate.parse("2020-03-06"), "john.doe@email.com", "JohnDoe", dateResolver));
+        Reservation update = new Reservation();
+        update.setFullName("JaneDoe");
+        reservationService.updateReservation(reservationId, update);
+
+        repository.deleteAll(); // only the read model still holds the reservation
+        Reservation reservation = reservationService.getReservation(reservationId);
+        assertThat(reservation.getFullName()).isEqualTo("JaneDoe");
+
+        reservation.setFullName("changed by the caller"); // callers get copies
+        assertThat(reservationService.getReservation(reservationId).getFullName()).isEqualTo("JaneDoe");
+
+        reservationService.resetReadModel();
+        assertThatThrownBy(() -> reservationService.getReservation(reservationId))
+                .isInstanceOf(EntityNotFoundException.class);
+    }
+
+    @Test
+    void updateConflictingWithConcurrentUpdateIsAppliedToSavedVersion() {
+        given(dateResolver.getCurrentDate()).willReturn(LocalDate.parse("2020-03-01"));
+
+        String reservationId = reservationService.createReservation(Reservation.of(LocalDate.parse("2020-03-05"),
+                LocalDate.parse("2020-03-06"), "john.doe@email.com", "JohnDoe", dateResolver));
+        assertThat(reservationService.getReservation(reservationId).getVersion()).isEqualTo(0);
+
+        // concurrent update saved without the service: the read model still holds version 0
+        Reservation concurrentUpdate = repository.findById(reservationId).orElseThrow();
+        concurrentUpdate.setFullName("JaneDoe");
+        repository.saveAndFlush(concurrentUpdate);
+
+        double retries = meterRegistry.counter("campsite.reservation.retries", "reason", "version").count();
+        double failures = meterRegistry.counter("campsite.reservation.failures", "reason", "version").count();
+        Reservation update = new Reservation();
+        update.setCheckOutDate(LocalDate.parse("2020-03-07"));
+        Reservation updatedReservation = reservationService.updateReservation(reservationId, update);
+
+        assertThat(updatedReservation.getFullName()).isEqualTo("JaneDoe");
+        assertThat(updatedReservation.getCheckOutDate()).isEqualTo("2020-03-07");
+        assertThat(updatedReservation.getVersion()).isEqualTo(2);
+        assertThat(reservationService.getReservedDates()[5]).isTrue(); // 2020-03-07
+
+        update.setCheckOutDate(LocalDate.parse("2020-03-08"));
+        assertThatThrownBy(() -> reservationService.updateReservation(reservationId, update, 1L))
+                .isInstanceOf(StaleReservationException.class)
+                .hasMessage("Reservation " + reservationId + " is at version 2, not at version 1");
+        assertThat(reservationService.getReservedDates()[6]).isFalse(); // 2020-03-08
+        // the retried update is not a failure, the update at a stale version is
+        assertThat(meterRegistry.counter("campsite.reservation.retries", "reason", "version").count()).isEqualTo(retries + 1);
+        assertThat(meterRegistry.counter("campsite.reservation.failures", "reason", "version").count()).isEqualTo(failures + 1);
+        assertThat(reservationService.updateReservation(reservationId, update, 2L).getVersion()).isEqualTo(3);
+    }
+
+    @Test
+    void restoreReservesEveryDayOfTheStaysThatAreNotCancelled() {
+        given(dateResolver.getCurrentDate()).willReturn(LocalDate.parse("2020-02-26"));
+        Reservation pastStay = Reservation.of(LocalDate.parse("2020-02-27"), LocalDate.parse("2020-02-28"),
+                "john.doe@email.com", "JohnDoe", dateResolver);
+        Reservation ongoingStay = Reservation.of(LocalDate.parse("2020-02-28"), LocalDate.parse("2020-03-02"),
+                "john.doe@email.com", "JohnDoe", dateResolver);
+        Reservation futureStay = Reservation.of(LocalDate.parse("2020-03-05"), LocalDate.parse("2020-03-07"),
+                "john.doe@email.com", "JohnDoe", dateResolver);
+        Reservation cancelledStay = Reservation.of(LocalDate.parse("2020-03-10"), LocalDate.parse("2020-03-11"),
+                "john.doe@email.com", "JohnDoe", dateResolver);
+        cancelledStay.setCancelled(true);
+        repository.saveAll(Arrays.asList(pastStay, ongoingStay, futureStay, cancelledStay));
+
+        given(dateResolver.getCurrentDate()).willReturn(LocalDate.parse("2020-03-01"));
+        reservationService.restoreReservedDates();
+
+        boolean[] reservedDates = reservationService.getReservedDates();
+        assertThat(reservedDates[0]).isTrue(); // 2020-03-02, last day of the ongoing stay
+        assertThat(reservedDates[1]).isFalse();
+        assertThat(reservedDates[3]).isTrue(); // 2020-03-05
+        assertThat(reservedDates[4]).isTrue();
+        assertThat(reservedDates[5]).isTrue(); // 2020-03-07
+        assertThat(reservedDates[6]).isFalse();
+        assertThat(reservedDates[8]).isFalse(); // 2020-03-10, cancelled
+        assertThat(reservedDates[9]).isFalse();
+    }
+
+    @Test
+    void siteReservationsAreMovedWithTheirDays() {
+        given(dateResolver.getCurrentDate()).willReturn(LocalDate.parse("2020-03-01"));
+        String reservationId = reservationService.createReservation(Reservation.of(LocalDate.parse("2020-03-05"),
+                LocalDate.parse("2020-03-07"), "john.doe@email.com", "JohnDoe", dateResolver));
+        ReservationHold hold = reservationService.createHold(Reservation.of(LocalDate.parse("2020-03-10"),
+                LocalDate.parse("2020-03-11"), "john.doe2@email.com", "JohnDoe2", dateResolver));
+
+        List<Reservation> siteReservations = reservationService.getSiteReservations(Reservation.DEFAULT_SITE_ID);
+        assertThat(siteReservations).extracting(Reservation::getId).containsExactly(reservationId);
+        List<MovedHold> siteHolds = reservationService.getSiteHolds(Reservation.DEFAULT_SITE_ID);
+        assertThat(siteHolds).extracting(MovedHold::getHoldId).containsExactly(hold.getId());
+
+        reservationService.removeSiteReservations(Reservation.DEFAULT_SITE_ID);
+        assertThat(reservationService.getReservedDates()[3]).isFalse(); // 2020-03-05
+        assertThat(reservationService.getReservedDates()[8]).isFalse(); // 2020-03-10, held
+        assertThat(repository.count()).isEqualTo(0);
+        assertThatThrownBy(() -> reservationService.getReservation(reservationId))
+                .isInstanceOf(EntityNotFoundException.class);
+
+        reservationService.addSiteReservations(Reservation.DEFAULT_SITE_ID, siteReservations);
+        reservationService.addSiteHolds(Reservation.DEFAULT_SITE_ID, siteHolds);
+        boolean[] reservedDates = reservationService.getReservedDates();
+        assertThat(reservedDates[3]).isTrue(); // 2020-03-05
+        assertThat(reservedDates[5]).isTrue(); // 2020-03-07
+        assertThat(reservedDates[8]).isTrue(); // 2020-03-10, held
+        assertThat(reservationService.getReservation(reservationId).getCheckInDate()).isEqualTo("2020-03-05");
+
+        String confirmedId = reservationService.confirmHold(hold.getId());
+        assertThat(reservationService.getReservation(confirmedId).getCheckInDate()).isEqualTo("2020-03-10");
+    }
+
+    @Test
+    void reservationOnReservedDaysFailsWithConflict() {
+        given(dateResolver.getCurrentDate()).willReturn(LocalDate.parse("2020-03-01"));
+
+        reservationService.createReservation(Reservation.of(LocalDate.parse("2020-03-05"),
+                LocalDate.parse("2020-03-08"), "john.doe@email.com", "JohnDoe", dateResolver));
+        String reservationId = reservationService.createReservation(Reservation.of(LocalDate.parse("2020-03-10"),
+                LocalDate.parse("2020-03-11"), "john.doe2@email.com", "JohnDoe2", dateResolver));
+
+        assertThatThrownBy(() -> reservationService.createReservation(Reservation.of(LocalDate.parse("2020-03-07"),
+                LocalDate.parse("2020-03-09"), "john.doe3@email.com", "JohnDoe3", dateResolver)))
+                .isInstanceOf(ReservationConflictException.class)
+                .hasMessage("Day already reserved 2020-03-07");
+
+        Reservation update = new Reservation();
+        update.setCheckInDate(LocalDate.parse("2020-03-08"));
+        assertThatThrownBy(() -> reservationService.updateReservation(reservationId, update))
+                .isInstanceOf(ReservationConflictException.class)
+                .hasMessage("Day already reserved 2020-03-08");
+
+        boolean[] reservedDates = reservationService.getReservedDates();
+        assertThat(reservedDates[7]).isFalse(); // 2020-03-09
+        assertThat(reservedDates[8]).isTrue(); // 2020-03-10
+    }
+
+    @Test
+    void holdReservesDaysWithoutSavingUntilConfirmed() {
+        given(dateResolver.getCurrentDate()).willReturn(LocalDate.parse("2020-03-01"));
+
+        ReservationHold hold = reservationService.createHold(Reservation.of(LocalDate.parse("2020-03-05"),
+                LocalDate.parse("2020-03-06"), "john.doe@email.com", "JohnDoe", dateResolver));
+
+        assertThat(reservationService.getReservedDates()[3]).isTrue(); // 2020-03-05
+        assertThat(repository.count()).isEqualTo(0);
+        assertThatThrownBy(() -> reservationService.createReservation(Reservation.of(LocalDate.parse("2020-03-06"),
+                LocalDate.parse("2020-03-07"), "john.doe2@email.com", "JohnDoe2", dateResolver)))
+                .isInstanceOf(ReservationConflictException.class);
+
+        String reservationId = reservationService.confirmHold(hold.getId());
+
+        assertThat(repository.findById(reservationId)).isPresent();
+        assertThat(reservationService.getReservedDates()[3]).isTrue();
+        assertThatThrownBy(() -> reservationService.confirmHold(hold.getId()))
+                .isInstanceOf(EntityNotFoundException.class);
+    }
+
+    @Test
+    void expiredHoldReleasesDays() throws InterruptedException {
+        given(dateResolver.getCurrentDate()).willReturn(LocalDate.parse("2020-03-01"));
+
+        Object holdTtlSeconds = ReflectionTestUtils.getField(reservationService, "holdTtlSeconds");
+        ReflectionTestUtils.setField(reservationService, "holdTtlSeconds", 0); // expires on the next tick
+        ReservationHold hold;
+        try {
+            hold = reservationService.createHold(Reservation.of(LocalDate.parse("2020-03-05"),
+                    LocalDate.parse("2020-03-06"), "john.doe@email.com", "JohnDoe", dateResolver));
+        } finally {
+            ReflectionTestUtils.setField(reservationService, "holdTtlSeconds", holdTtlSeconds);
+        }
+
+        for (int i = 0; i < 100 && reservationService.getReservedDates()[3]; i++) {
+            Thread.sleep(20);
+        }
+        assertThat(reservationService.getReservedDates()[3]).isFalse(); // 2020-03-05
+        assertThatThrownBy(() -> reservationService.confirmHold(hold.getId()))
+                .isInstanceOf(EntityNotFoundException.class);
+    }
+
+    @Test
+    void heldDaysArePublishedToReplicasUntilTheHoldExpires() throws InterruptedException {
+        given(dateResolver.getCurrentDate()).willReturn(LocalDate.parse("2020-03-01"));
+
+        AvailabilityChangeLog changeLog = new AvailabilityChangeLog();
+        ReflectionTestUtils.setField(changeLog, "capacity", 16);
+        changeLog.init();
+        long firstEpochDay = LocalDate.parse("2020-03-02").toEpochDay();
+        boolean[] replicatedDates = new boolean[31];
+        AvailabilityListener replica = new AvailabilityListener() {
+            @Override
+            public void onDaysReserved(int siteId, long firstDay, long lastDay) {
+                Arrays.fill(replicatedDates, (int) (firstDay - firstEpochDay), (int) (lastDay - firstEpochDay) + 1, true);
+            }
+
+            @Override
+            public void onDaysReleased(int siteId, long firstDay, long lastDay) {
+                Arrays.fill(replicatedDates, (int) (firstDay - firstEpochDay), (int) (lastDay - firstEpochDay) + 1, false);
+            }
+        };
+        Object holdTtlSeconds = ReflectionTestUtils.getField(reservationService, "holdTtlSeconds");
+        reservationService.availabilityListeners.add(changeLog);
+        try {
+            ReservationHold hold = reservationService.createHold(Reservation.of(LocalDate.parse("2020-03-05"),
+                    LocalDate.parse("2020-03-06"), "john.doe@email.com", "JohnDoe", dateResolver));
+            ChangeBatch.of(changeLog.getChangesAfter(0, 16).orElseThrow()).replay(replica);
+            assertThat(replicatedDates[3]).isTrue(); // 2020-03-05 is held on the writer
+            reservationService.cancelHold(hold.getId());
+
+            ReflectionTestUtils.setField(reservationService, "holdTtlSeconds", 0); // expires on the next tick
+            reservationService.createHold(Reservation.of(LocalDate.parse("2020-03-07"),
+                    LocalDate.parse("2020-03-08"), "john.doe@email.com", "JohnDoe", dateResolver));
+            for (int i = 0; i < 100 && reservationService.getReservedDates()[5]; i++) {
+                Thread.sleep(20);
+            }
+        } finally {
+            reservationService.availabilityListeners.remove(changeLog);
+            ReflectionTestUtils.setField(reservationService, "holdTtlSeconds", holdTtlSeconds);
+        }
+
+        ChangeBatch.of(changeLog.getChangesAfter(1, 16).orElseThrow()).replay(replica);
+        assertThat(changeLog.getLastSequence()).isEqualTo(4);
+        assertThat(replicatedDates).containsExactly(reservationService.getReservedDates());
+        assertThat(replicatedDates[3]).isFalse(); // cancelled
+        assertThat(replicatedDates[5]).isFalse(); // expired
+    }
+
+    @Test
+    void cancelHoldReleasesDays() {
+        given(dateResolver.getCurrentDate()).willReturn(LocalDate.parse("2020-03-01"));
+
+        ReservationHold hold = reservationService.createHold(Reservation.of(LocalDate.parse("2020-03-05"),
+                LocalDate.parse("2020-03-06"), "john.doe@email.com", "JohnDoe", dateResolver));
+        reservationService.cancelHold(hold.getId());
+
+        assertThat(reservationService.getReservedDates()[3]).isFalse();
+        assertThat(reservationService.getReservedDates()[4]).isFalse();
+        assertThat(repository.count()).isEqualTo(0);
+        assertThatThrownBy(() -> reservationService.confirmHold(hold.getId()))
+                .isInstanceOf(EntityNotFoundException.class);
+    }
+
     @Test
     void createReservationMoreThanOneThread() throws InterruptedException {
         final String currentDate = "2020-03-01";
@@ -167,6 +459,167 @@ class ReservationServiceTest {
                 .hasMessageEndingWith("Day already reserved 2020-03-07");
     }
 
+    @Test
+    void createConcurrentReservationsOverlappingDatesWithCasCommitThrowsException() throws InterruptedException {
+        reservationService.setCommitMode(CommitMode.CAS);
+
+        final String currentDate = "2020-03-01";
+        given(dateResolver.getCurrentDate()).willReturn(LocalDate.parse(currentDate));
+
+        Reservation reservation1 = Reservation.of(LocalDate.parse("2020-03-05"),
+                LocalDate.parse("2020-03-08"),
+                "john.doe@email.com", "JohnDoe", dateResolver);
+
+        Reservation reservation2 = Reservation.of(LocalDate.parse("2020-03-07"),
+                LocalDate.parse("2020-03-09"),
+                "john.doe2@email.com", "JohnDoe2", dateResolver);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        Callable<String> reservationRequest1 = () -> reservationService.createReservation(reservation1);
+        Callable<String> reservationRequest2 = () -> reservationService.createReservation(reservation2);
+        List<Future<String>> futures = executorService.invokeAll(Arrays.asList(reservationRequest1, reservationRequest2));
+
+        assertThatThrownBy(() -> {
+            for (Future<String> future : futures) {
+                future.get();
+            }
+        }).hasCauseInstanceOf(IllegalArgumentException.class)
+                .hasMessageEndingWith("Day already reserved 2020-03-07");
+    }
+
+    @Test
+    void updateReservationWithCasCommitMovesReservedDays() {
+        reservationService.setCommitMode(CommitMode.CAS);
+
+        final String currentDate = "2020-03-01";
+        given(dateResolver.getCurrentDate()).willReturn(LocalDate.parse(currentDate));
+
+        Reservation reservation = Reservation.of(LocalDate.parse("2020-03-03"),
+                LocalDate.parse("2020-03-04"),
+                "john.doe@email.com", "JohnDoe", dateResolver);
+        String reservationId = reservationService.createReservation(reservation);
+
+        Reservation reservationUpdate = new Reservation();
+        reservationUpdate.setCheckInDate(LocalDate.parse("2020-03-04"));
+        reservationUpdate.setCheckOutDate(LocalDate.parse("2020-03-05"));
+        reservationService.updateReservation(reservationId, reservationUpdate);
+
+        List<LocalDate> availableDates = reservationService.getAvailableDates(5);
+        assertThat(availableDates).containsExactly(LocalDate.parse("2020-03-02"),
+                LocalDate.parse("2020-03-03"), LocalDate.parse("2020-03-06"));
+    }
+
+    @Test
+    void createConcurrentReservationsWithWriteBehindPersistenceSavesAllReservations() throws InterruptedException, ExecutionException {
+        reservationService.setPersistenceMode(PersistenceMode.WRITE_BEHIND);
+
+        final String currentDate = "2020-03-01";
+        given(dateResolver.getCurrentDate()).willReturn(LocalDate.parse(currentDate));
+
+        List<Callable<String>> reservationRequests = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            LocalDate checkInDate = LocalDate.parse(currentDate).plusDays(2 * i + 1);
+            Reservation reservation = Reservation.of(checkInDate, checkInDate.plusDays(1),
+                    "john.doe@email.com", "JohnDoe" + i, dateResolver);
+            reservationRequests.add(() -> reservationService.createReservation(reservation));
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(10);
+        List<Future<String>> futures = executorService.invokeAll(reservationRequests);
+
+        List<String> reservationIds = new ArrayList<>();
+        for (Future<String> future : futures) {
+            reservationIds.add(future.get());
+        }
+
+        assertThat(repository.findAllById(reservationIds)).hasSize(10);
+        assertThat(reservationService.getAvailableDates(20)).isEmpty();
+    }
+
+    @Test
+    void createReservationRetriesWithSameIdempotencyKeyMakeOneReservation() throws InterruptedException, ExecutionException {
+        final String currentDate = "2020-03-01";
+        given(dateResolver.getCurrentDate()).willReturn(LocalDate.parse(currentDate));
+
+        final String idempotencyKey = "3f1c2a9e-retry";
+        List<Callable<String>> reservationRequests = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Reservation reservation = Reservation.of(LocalDate.parse("2020-03-05"), LocalDate.parse("2020-03-06"),
+                    "john.doe@email.com", "JohnDoe", dateResolver);
+            reservationRequests.add(() -> reservationService.createReservation(reservation, idempotencyKey));
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(5);
+        List<Future<String>> futures = executorService.invokeAll(reservationRequests);
+
+        String reservationId = futures.get(0).get();
+        for (Future<String> future : futures) {
+            assertThat(future.get()).isEqualTo(reservationId);
+        }
+        assertThat(repository.count()).isEqualTo(1);
+
+        // the key is found in the database once evicted from the cache
+        reservationService.resetIdempotencyCache();
+        Reservation retry = Reservation.of(LocalDate.parse("2020-03-05"), LocalDate.parse("2020-03-06"),
+                "john.doe@email.com", "JohnDoe", dateResolver);
+        assertThat(reservationService.createReservation(retry, idempotencyKey)).isEqualTo(reservationId);
+        assertThat(repository.count()).isEqualTo(1);
+
+        // the key cannot be reused for another reservation, whether it is found in the cache or in the database
+        Reservation otherReservation = Reservation.of(LocalDate.parse("2020-03-10"), LocalDate.parse("2020-03-11"),
+                "john.doe@email.com", "JohnDoe", dateResolver);
+        assertThatThrownBy(() -> reservationService.createReservation(otherReservation, idempotencyKey))
+                .isInstanceOf(IdempotencyKeyReuseException.class);
+        reservationService.resetIdempotencyCache();
+        assertThatThrownBy(() -> reservationService.createReservation(otherReservation, idempotencyKey))
+                .isInstanceOf(IdempotencyKeyReuseException.class);
+        assertThat(repository.count()).isEqualTo(1);
+    }
+
+    @Test
+    void createReservationsAllOrNothingMakesNoReservationOnConflict() {
+        final String currentDate = "2020-03-01";
+        given(dateResolver.getCurrentDate()).willReturn(LocalDate.parse(currentDate));
+
+        List<Reservation> reservations = Arrays.asList(
+                Reservation.of(LocalDate.parse("2020-03-03"), LocalDate.parse("2020-03-04"),
+                        "john.doe@email.com", "JohnDoe", dateResolver),
+                Reservation.of(LocalDate.parse("2020-03-06"), LocalDate.parse("2020-03-07"),
+                        "john.doe2@email.com", "JohnDoe2", dateResolver),
+                Reservation.of(LocalDate.parse("2020-03-04"), LocalDate.parse("2020-03-05"),
+                        "john.doe3@email.com", "JohnDoe3", dateResolver));
+
+        assertThatThrownBy(() -> reservationService.createReservations(reservations, BatchMode.ALL_OR_NOTHING))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Reservation 2 of the batch failed: Day already reserved 2020-03-04");
+
+        assertThat(repository.count()).isEqualTo(0);
+        assertThat(reservationService.getAvailableDates(7)).hasSize(7);
+    }
+
+    @Test
+    void createReservationsPerItemMakesNonConflictingReservations() {
+        final String currentDate = "2020-03-01";
+        given(dateResolver.getCurrentDate()).willReturn(LocalDate.parse(currentDate));
+
+        List<Reservation> reservations = Arrays.asList(
+                Reservation.of(LocalDate.parse("2020-03-03"), LocalDate.parse("2020-03-04"),
+                        "john.doe@email.com", "JohnDoe", dateResolver),
+                Reservation.of(LocalDate.parse("2020-03-04"), LocalDate.parse("2020-03-05"),
+                        "john.doe2@email.com", "JohnDoe2", dateResolver),
+                Reservation.of(LocalDate.parse("2020-03-06"), LocalDate.parse("2020-03-07"),
+                        "john.doe3@email.com", "JohnDoe3", dateResolver));
+
+        List<ReservationResult> results = reservationService.createReservations(reservations, BatchMode.PER_ITEM);
+
+        assertThat(results.get(0).getReservationId()).isEqualTo(reservations.get(0).getId());
+        assertThat(results.get(1).getError()).isEqualTo("Day already reserved 2020-03-04");
+        assertThat(results.get(2).getReservationId()).isEqualTo(reservations.get(2).getId());
+        assertThat(repository.count()).isEqualTo(2);
+        assertThat(reservationService.getAvailableDates(7)).containsExactly(
+                LocalDate.parse("2020-03-02"), LocalDate.parse("2020-03-05"), LocalDate.parse("2020-03-08"));
+    }
+
     @Test
     void cancelReservationFreesDate() {
         final String currentDate = "2020-03-01";
@@ -202,6 +655,139 @@ class ReservationServiceTest {
         assertThat(availableDates.get(4)).isEqualTo("2020-03-06");
     }
 
+    @Test
+    void concurrentCancelAndCreateOfTheSameDaysAreJournaledInOrder(@TempDir Path directory) throws Exception {
+        given(dateResolver.getCurrentDate()).willReturn(LocalDate.parse("2020-03-01"));
+
+        ReservationJournal journal = new ReservationJournal();
+        ReflectionTestUtils.setField(journal, "directory", directory.toString());
+        ReflectionTestUtils.setField(journal, "capacityBytes", 65536);
+        journal.open();
+        // a listener slow to record the releases, notified before the journal, widens the gap between the change
+        // of the days and their journal record
+        AvailabilityListener slowListener = new AvailabilityListener() {
+            @Override
+            public void onDaysReserved(int siteId, long firstDay, long lastDay) {
+            }
+
+            @Override
+            public void onDaysReleased(int siteId, long firstDay, long lastDay) {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        reservationService.availabilityListeners.add(slowListener);
+        reservationService.availabilityListeners.add(journal);
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            String reservationId = reservationService.createReservation(Reservation.of(LocalDate.parse("2020-03-05"),
+                    LocalDate.parse("2020-03-06"), "john.doe@email.com", "JohnDoe", dateResolver));
+            for (int i = 0; i < 20; i++) {
+                // the days of the cancelled reservation are reserved again by a create retrying until they are free
+                String cancelledId = reservationId;
+                CountDownLatch start = new CountDownLatch(1);
+                Future<Reservation> cancel = executorService.submit(() -> {
+                    start.await();
+                    return reservationService.cancelReservation(cancelledId);
+                });
+                Future<String> create = executorService.submit(() -> {
+                    start.await();
+                    while (true) {
+                        try {
+                            return reservationService.createReservation(Reservation.of(LocalDate.parse("2020-03-05"),
+                                    LocalDate.parse("2020-03-06"), "john.doe@email.com", "JohnDoe", dateResolver));
+                        } catch (ReservationConflictException e) {
+                            Thread.yield();
+                        }
+                    }
+                });
+                start.countDown();
+                cancel.get();
+                reservationId = create.get();
+            }
+        } finally {
+            executorService.shutdown();
+            reservationService.availabilityListeners.remove(slowListener);
+            reservationService.availabilityListeners.remove(journal);
+            journal.close();
+        }
+
+        boolean[] replayedDates = new boolean[31];
+        long firstEpochDay = LocalDate.parse("2020-03-02").toEpochDay();
+        journal.open();
+        journal.replay(new AvailabilityListener() {
+            @Override
+            public void onDaysReserved(int siteId, long firstDay, long lastDay) {
+                Arrays.fill(replayedDates, (int) (firstDay - firstEpochDay), (int) (lastDay - firstEpochDay) + 1, true);
+            }
+
+            @Override
+            public void onDaysReleased(int siteId, long firstDay, long lastDay) {
+                Arrays.fill(replayedDates, (int) (firstDay - firstEpochDay), (int) (lastDay - firstEpochDay) + 1, false);
+            }
+        });
+        journal.close();
+
+        assertThat(replayedDates).containsExactly(reservationService.getReservedDates());
+        assertThat(replayedDates[3]).isTrue();
+        assertThat(replayedDates[4]).isTrue();
+    }
+
+    @Test
+    void snapshotsTakenWhileHoldsAreCreatedLeaveOutTheHeldDays() throws Exception {
+        given(dateResolver.getCurrentDate()).willReturn(LocalDate.parse("2020-03-01"));
+
+        // the lock ordering the availability changes is only taken when there are listeners, e.g. the journal
+        AvailabilityListener journal = new AvailabilityListener() {
+            @Override
+            public void onDaysReserved(int siteId, long firstDay, long lastDay) {
+            }
+
+            @Override
+            public void onDaysReleased(int siteId, long firstDay, long lastDay) {
+            }
+        };
+        reservationService.availabilityListeners.add(journal);
+        reservationService.getReservedDates(); // anchors the window before the first snapshot
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            // a snapshot finding the days of a hold not registered yet would journal them as reserved for good,
+            // as the release of the hold is not journaled
+            AtomicBoolean holding = new AtomicBoolean(true);
+            Future<Integer> snapshots = executorService.submit(() -> {
+                int nbSnapshotsWithHeldDays = 0;
+                while (holding.get()) {
+                    AtomicBoolean hasReservedDays = new AtomicBoolean();
+                    reservationService.replayJournaledDays(new AvailabilityListener() {
+                        @Override
+                        public void onDaysReserved(int siteId, long firstDay, long lastDay) {
+                            hasReservedDays.set(true);
+                        }
+
+                        @Override
+                        public void onDaysReleased(int siteId, long firstDay, long lastDay) {
+                        }
+                    });
+                    nbSnapshotsWithHeldDays += hasReservedDays.get() ? 1 : 0;
+                }
+                return nbSnapshotsWithHeldDays;
+            });
+            for (int i = 0; i < 2000; i++) {
+                ReservationHold hold = reservationService.createHold(Reservation.of(LocalDate.parse("2020-03-05"),
+                        LocalDate.parse("2020-03-06"), "john.doe@email.com", "JohnDoe", dateResolver));
+                reservationService.cancelHold(hold.getId());
+            }
+            holding.set(false);
+            assertThat(snapshots.get()).isZero();
+        } finally {
+            executorService.shutdown();
+            reservationService.availabilityListeners.remove(journal);
+        }
+    }
+
     @Test
     public void testMovingSlice() {
         final String currentDate = "2020-03-01";
@@ -0,0 +1,50 @@
+package campsite.reservation.sharding;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ConsistentHashRingTest {
+
+    private static final int NB_SITES = 1000;
+
+    @Test
+    public void testSitesAreSpreadOverTheInstances() {
+        ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("http://a", "http://b", "http://c"), 128);
+
+        Map<String, Integer> nbSitesByOwner = new HashMap<>();
+        for (int siteId = 0; siteId < NB_SITES; siteId++) {
+            nbSitesByOwner.merge(ring.getOwner(siteId), 1, Integer::sum);
+        }
+
+        assertThat(nbSitesByOwner).containsOnlyKeys("http://a", "http://b", "http://c");
+        assertThat(nbSitesByOwner.values()).allSatisfy(nbSites -> assertThat(nbSites).isBetween(250, 420));
+    }
+
+    @Test
+    public void testAddingAnInstanceOnlyMovesSitesToIt() {
+        ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("http://a", "http://b"), 128);
+        ConsistentHashRing newRing = new ConsistentHashRing(Arrays.asList("http://a", "http://b", "http://c"), 128);
+
+        int nbMovedSites = 0;
+        for (int siteId = 0; siteId < NB_SITES; siteId++) {
+            if (!ring.getOwner(siteId).equals(newRing.getOwner(siteId))) {
+                assertThat(newRing.getOwner(siteId)).isEqualTo("http://c");
+                nbMovedSites++;
+            }
+        }
+        assertThat(nbMovedSites).isBetween(250, 420);
+    }
+
+    @Test
+    public void testRingWithoutInstance() {
+        assertThatThrownBy(() -> new ConsistentHashRing(Collections.emptyList(), 128))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
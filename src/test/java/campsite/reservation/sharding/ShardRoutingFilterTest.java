@@ -0,0 +1,165 @@
+package campsite.reservation.sharding;
+
+import campsite.reservation.rest.AvailabilityFormat;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {
+        "sharding.enabled=true",
+        "sharding.self=http://localhost:8080",
+        "sharding.members=http://localhost:8080,http://localhost:8081",
+        "campsite.nbSites=" + ShardRoutingFilterTest.NB_SITES})
+@AutoConfigureMockMvc
+class ShardRoutingFilterTest {
+
+    static final int NB_SITES = 8;
+    private static final String OTHER_INSTANCE = "http://localhost:8081";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ShardRouter router;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void requestsOfSitesOwnedByAnotherInstanceAreRedirected() throws Exception {
+        int otherSiteId = findSite(OTHER_INSTANCE);
+
+        mockMvc.perform(post("/reservations").content(reservation(otherSiteId).toString())
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isTemporaryRedirect())
+                .andExpect(header().string("Location", OTHER_INSTANCE + "/reservations"));
+        mockMvc.perform(get("/reservations/{id}", otherSiteId + ".4418498d-6852-492d-97f0-ed477d8dea9b"))
+                .andExpect(status().isTemporaryRedirect())
+                .andExpect(header().string("Location",
+                        OTHER_INSTANCE + "/reservations/" + otherSiteId + ".4418498d-6852-492d-97f0-ed477d8dea9b"));
+        mockMvc.perform(get("/reservations/availableDates?nbDays=5&siteId=" + otherSiteId))
+                .andExpect(status().isTemporaryRedirect())
+                .andExpect(header().string("Location",
+                        OTHER_INSTANCE + "/reservations/availableDates?nbDays=5&siteId=" + otherSiteId));
+    }
+
+    @Test
+    void requestsOfServedSitesAreProcessed() throws Exception {
+        int servedSiteId = findSite(router.getSelf());
+
+        MvcResult createdResult = mockMvc.perform(post("/reservations").content(reservation(servedSiteId).toString())
+                .contentType(MediaType.APPLICATION_JSON)).andExpect(status().isCreated()).andReturn();
+        String reservationId = mapper.readTree(createdResult.getResponse().getContentAsString()).get("reservationId").asText();
+
+        assertThat(reservationId).startsWith(servedSiteId + ".");
+        mockMvc.perform(get("/reservations/{id}", reservationId)).andExpect(status().isOk());
+
+        ArrayNode batch = mapper.createArrayNode()
+                .add(reservation(servedSiteId))
+                .add(reservation(findSite(OTHER_INSTANCE)));
+        mockMvc.perform(post("/reservations/batch").content(batch.toString()).contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void parkWideQueriesFailWhenAnInstanceDoesNotAnswer() throws Exception {
+        // no instance listens on the member URLs
+        mockMvc.perform(get("/reservations/availableDates?nbDays=5"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(status().reason(containsString("did not answer the park-wide query")));
+    }
+
+    @Test
+    void availabilityStreamIsRefused() throws Exception {
+        mockMvc.perform(get("/reservations/availability/stream"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(status().reason(containsString("not served when the sites are sharded")));
+    }
+
+    @Test
+    void parkWideAvailableDatesAreMergedInTheNegotiatedFormat() throws Exception {
+        long firstEpochDay = LocalDate.parse("2020-03-02").toEpochDay();
+        // each instance answers with the bitmask of the days available on its sites
+        HttpServer self = startMember(8080, firstEpochDay, (byte) 0b0101, "\"a-1-binary\"");
+        HttpServer other = startMember(8081, firstEpochDay, (byte) 0b0011, "\"b-7-binary\"");
+        try {
+            MvcResult result = mockMvc.perform(get("/reservations/availableDates?nbDays=4"))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string("Vary", "Accept"))
+                    .andExpect(content().json("{\"dates\":[\"2020-03-02\",\"2020-03-03\",\"2020-03-04\"]}"))
+                    .andReturn();
+            String eTag = result.getResponse().getHeader("ETag");
+            assertThat(eTag).contains("a-1").contains("b-7");
+
+            mockMvc.perform(get("/reservations/availableDates?nbDays=4").header("If-None-Match", eTag))
+                    .andExpect(status().isNotModified());
+            mockMvc.perform(get("/reservations/availableDates?nbDays=4").accept(AvailabilityFormat.COMPACT_JSON_VALUE))
+                    .andExpect(status().isOk())
+                    .andExpect(content().contentType(AvailabilityFormat.COMPACT_JSON_VALUE))
+                    .andExpect(content().json("{\"firstEpochDay\":" + firstEpochDay + ",\"nbDays\":4,\"bitmask\":\"Bw==\"}"));
+            mockMvc.perform(get("/reservations/availableDates?nbDays=4").accept(MediaType.APPLICATION_OCTET_STREAM))
+                    .andExpect(status().isOk())
+                    .andExpect(content().bytes(ByteBuffer.allocate(7).putInt((int) firstEpochDay).putShort((short) 4)
+                            .put((byte) 0b0111).array()));
+        } finally {
+            self.stop(0);
+            other.stop(0);
+        }
+    }
+
+    /**
+     * Starts an instance answering the park-wide available dates queries with a binary bitmask
+     */
+    private HttpServer startMember(int port, long firstEpochDay, byte bitmask, String eTag) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/reservations/availableDates", exchange -> {
+            assertThat(exchange.getRequestHeaders().getFirst("Accept")).isEqualTo(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+            byte[] binary = ByteBuffer.allocate(7).putInt((int) firstEpochDay).putShort((short) 4).put(bitmask).array();
+            exchange.getResponseHeaders().add("ETag", eTag);
+            exchange.sendResponseHeaders(200, binary.length);
+            exchange.getResponseBody().write(binary);
+            exchange.close();
+        });
+        server.start();
+        return server;
+    }
+
+    private int findSite(String owner) {
+        for (int siteId = 0; siteId < NB_SITES; siteId++) {
+            if (owner.equals(router.getOwner(siteId))) {
+                return siteId;
+            }
+        }
+        throw new IllegalStateException(owner + " owns no site");
+    }
+
+    private ObjectNode reservation(int siteId) {
+        ObjectNode reservation = mapper.createObjectNode();
+        reservation.put("siteId", siteId);
+        reservation.put("checkInDate", LocalDate.now().plusDays(20).toString());
+        reservation.put("checkOutDate", LocalDate.now().plusDays(21).toString());
+        reservation.put("email", "john.doe@email.com");
+        reservation.put("fullName", "JohnDoe");
+        return reservation;
+    }
+}